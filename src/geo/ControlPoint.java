@@ -34,10 +34,10 @@ public class ControlPoint {
     public int image_y;
     public double eastings;
     public double northings;
-    public double pixelWidth;
-    public double pixelHeight;
-    public double pixelWidthDiffFromMean;
-    public double pixelHeightDiffFromMean;
+    //Registered grid ref less the control point's (metres) i.e. how far the
+    //registration is from this point.
+    public double residualEastings;
+    public double residualNorthings;
     
     public ControlPoint() {
     }
@@ -0,0 +1,290 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: ConversionCache
+ *
+ * desc: ConversionCache is a small least recently used cache of coordinate conversions
+ * (see CoordSys).  The two input coordinates (lat / long or eastings / northings) are
+ * rounded to the nearest multiple of the resolution to make the key.  The exact input
+ * which first fell in a cell is what gets converted and kept.  When a different input
+ * falls in the cell the caller works out the gradient of the conversion at the kept
+ * input (setGradient) and from then on the cell's inputs are converted linearly from
+ * the kept result, so results aren't snapped to the cells.  Over a cell of a few metres
+ * a coordinate conversion is linear to well under a millimetre.
+ * With a GPS standing still its fixes jitter about within a few cells so most of them
+ * come out of the cache, while a moving GPS only pays for the gradient in cells it
+ * stays in.
+ *
+ * Entries are held in arrays and chained from a hash table by index so a lookup or an
+ * eviction doesn't create any objects.  The most recently used entry is at the head of
+ * a doubly linked list (also by index) and the tail is evicted when the cache is full.
+ *
+ * Not thread safe - callers synchronize on the cache.  Usage is:
+ *   slot = find(a, b);
+ *   if (slot == -1) { convert (a, b); slot = add(x, y); }
+ *   else if (needsGradient(slot, a, b)) { convert near getInputFirst / Second(slot); setGradient(...); }
+ *   use getFirst(slot, a, b), getSecond(slot, a, b)
+ */
+
+package geo;
+
+public class ConversionCache {
+
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private double resolution;
+    //Generation of the transform the entries were worked out with (see OSGBTransform).
+    private int generation;
+
+    //Rounded inputs (multiples of the resolution), the exact input converted and its
+    //result for each entry.
+    private final long[] keyFirst, keySecond;
+    private final double[] inputFirst, inputSecond;
+    private final double[] valueFirst, valueSecond;
+    //Gradient of the results (first and second) against the inputs (first and second).
+    private final double[] firstByFirst, firstBySecond, secondByFirst, secondBySecond;
+    private final boolean[] hasGradient;
+    //Hash chains and the recently used list.
+    private final int[] buckets, next, newer, older;
+    private int head = NONE, tail = NONE;
+    private int size;
+
+    //Rounded and exact inputs of the last find, used by add.
+    private long findFirst, findSecond;
+    private double findInputFirst, findInputSecond;
+
+    private int hits, misses;
+
+    public ConversionCache(int capacity, double resolution) {
+        this.capacity = capacity;
+        this.resolution = resolution;
+        keyFirst = new long[capacity];
+        keySecond = new long[capacity];
+        inputFirst = new double[capacity];
+        inputSecond = new double[capacity];
+        valueFirst = new double[capacity];
+        valueSecond = new double[capacity];
+        firstByFirst = new double[capacity];
+        firstBySecond = new double[capacity];
+        secondByFirst = new double[capacity];
+        secondBySecond = new double[capacity];
+        hasGradient = new boolean[capacity];
+        next = new int[capacity];
+        newer = new int[capacity];
+        older = new int[capacity];
+        //Power of two at least twice the capacity so chains stay short.
+        int tableSize = 1;
+        while (tableSize < capacity * 2) {
+            tableSize = tableSize << 1;
+        }
+        buckets = new int[tableSize];
+        clear();
+    }
+
+    public synchronized double getResolution() {
+        return resolution;
+    }
+
+    //Cell size in units of the inputs (degrees or metres).  0 turns the cache off.
+    public synchronized void setResolution(double resolution) {
+        this.resolution = resolution;
+        clear();
+    }
+
+    public boolean isEnabled() {
+        return resolution > 0;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized void resetCounts() {
+        hits = 0;
+        misses = 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = NONE;
+        }
+        head = NONE;
+        tail = NONE;
+        size = 0;
+    }
+
+    //Clears the cache if the transform has changed since the entries were added.
+    public void checkGeneration(int generation) {
+        if (generation != this.generation) {
+            clear();
+            this.generation = generation;
+        }
+    }
+
+    //Returns the slot holding the conversion of (first, second) or -1 if it isn't cached.
+    public int find(double first, double second) {
+        findFirst = round(first);
+        findSecond = round(second);
+        findInputFirst = first;
+        findInputSecond = second;
+        int slot = buckets[bucket(findFirst, findSecond)];
+        while (slot != NONE) {
+            if (keyFirst[slot] == findFirst && keySecond[slot] == findSecond) {
+                hits++;
+                moveToHead(slot);
+                return slot;
+            }
+            slot = next[slot];
+        }
+        misses++;
+        return NONE;
+    }
+
+    //Adds the conversion of the point from the last find, evicting the least recently
+    //used entry if the cache is full.
+    public int add(double first, double second) {
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+        } else {
+            slot = tail;
+            unlink(slot);
+            removeFromBucket(slot);
+        }
+        keyFirst[slot] = findFirst;
+        keySecond[slot] = findSecond;
+        inputFirst[slot] = findInputFirst;
+        inputSecond[slot] = findInputSecond;
+        valueFirst[slot] = first;
+        valueSecond[slot] = second;
+        hasGradient[slot] = false;
+
+        int b = bucket(findFirst, findSecond);
+        next[slot] = buckets[b];
+        buckets[b] = slot;
+        linkAtHead(slot);
+        return slot;
+    }
+
+    //True if the entry can't give the result for (first, second) until setGradient is
+    //called - the input isn't the one converted and there's no gradient yet.
+    public boolean needsGradient(int slot, double first, double second) {
+        return !hasGradient[slot] && (first != inputFirst[slot] || second != inputSecond[slot]);
+    }
+
+    //Exact input the entry's result is for.
+    public double getInputFirst(int slot) {
+        return inputFirst[slot];
+    }
+
+    public double getInputSecond(int slot) {
+        return inputSecond[slot];
+    }
+
+    //The lookup this is called for needed more conversions so it counts as a miss.
+    public void setGradient(int slot, double firstByFirst, double firstBySecond,
+            double secondByFirst, double secondBySecond) {
+        this.firstByFirst[slot] = firstByFirst;
+        this.firstBySecond[slot] = firstBySecond;
+        this.secondByFirst[slot] = secondByFirst;
+        this.secondBySecond[slot] = secondBySecond;
+        hasGradient[slot] = true;
+        hits--;
+        misses++;
+    }
+
+    //Result for the input (first, second) in the entry's cell.
+    public double getFirst(int slot, double first, double second) {
+        if (!hasGradient[slot]) {
+            return valueFirst[slot];
+        }
+        return valueFirst[slot] + firstByFirst[slot] * (first - inputFirst[slot])
+                + firstBySecond[slot] * (second - inputSecond[slot]);
+    }
+
+    public double getSecond(int slot, double first, double second) {
+        if (!hasGradient[slot]) {
+            return valueSecond[slot];
+        }
+        return valueSecond[slot] + secondByFirst[slot] * (first - inputFirst[slot])
+                + secondBySecond[slot] * (second - inputSecond[slot]);
+    }
+
+    private long round(double value) {
+        return (long) Math.floor(value / resolution + 0.5);
+    }
+
+    private int bucket(long first, long second) {
+        long h = first * 31 + second;
+        return (int) (h ^ (h >>> 32)) & (buckets.length - 1);
+    }
+
+    private void removeFromBucket(int slot) {
+        int b = bucket(keyFirst[slot], keySecond[slot]);
+        if (buckets[b] == slot) {
+            buckets[b] = next[slot];
+            return;
+        }
+        int i = buckets[b];
+        while (next[i] != slot) {
+            i = next[i];
+        }
+        next[i] = next[slot];
+    }
+
+    private void moveToHead(int slot) {
+        if (slot != head) {
+            unlink(slot);
+            linkAtHead(slot);
+        }
+    }
+
+    private void unlink(int slot) {
+        if (newer[slot] != NONE) {
+            older[newer[slot]] = older[slot];
+        } else {
+            head = older[slot];
+        }
+        if (older[slot] != NONE) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            tail = newer[slot];
+        }
+    }
+
+    private void linkAtHead(int slot) {
+        newer[slot] = NONE;
+        older[slot] = head;
+        if (head != NONE) {
+            newer[head] = slot;
+        }
+        head = slot;
+        if (tail == NONE) {
+            tail = slot;
+        }
+    }
+}
@@ -25,8 +25,18 @@
  *
  * desc: CoordSys performs WGS84 - OS Grid and reverse calulation.
  * Implements trig functions that are not available in J2ME e.g. arctan.
- * Uses public domain code for this.  See comments below.
+ * atan is table driven (see ATAN_TABLE).  asin and acos are based on public domain code.
  * WGS84 - OS Grid conversion formula based on documents on Ordnance Survey website.
+ * The conversions themselves are done by OSGBTransform which holds the precomputed
+ * constants.
+ * Single point conversions go through a ConversionCache (one for each direction, shared
+ * by all instances) so a GPS that's standing still doesn't keep repeating the same
+ * conversion.  A miss converts the exact input so a moving GPS isn't snapped to the
+ * cache cells.  The second input to fall in a cell (by default 0.0001 degrees, around
+ * 11 m by 7 m, and 10 m) costs two more conversions, a cell away from the first, for the
+ * gradient.  After that the cell's inputs are converted linearly from the first, which
+ * is out by less than 0.1 mm at this cell size - no more than the conversions' own
+ * tolerance.  Lat / long to OS grid for GPX files isn't cached.
  */
 
 package geo;
@@ -35,306 +45,135 @@ public class CoordSys {
     
     private static final double EARTH_RADIUS = 6371000;
     
-    private static final double WGS84_SEMI_MAJOR = 6378137;
-    private static final double WGS84_SEMI_MINOR = 6356752.3141;
-    private static final double WGS84_ECCENTRICITY_SQ =
-            ((WGS84_SEMI_MAJOR * WGS84_SEMI_MAJOR) - (WGS84_SEMI_MINOR * WGS84_SEMI_MINOR)) /
-            (WGS84_SEMI_MAJOR * WGS84_SEMI_MAJOR);
-    
-    private static final double AIRY1830_SEMI_MAJOR = 6377563.396;
-    private static final double AIRY1830_SEMI_MINOR = 6356256.910;
-    private static final double AIRY1830_ECCENTRICITY_SQ =
-            ((AIRY1830_SEMI_MAJOR * AIRY1830_SEMI_MAJOR) - (AIRY1830_SEMI_MINOR * AIRY1830_SEMI_MINOR)) /
-            (AIRY1830_SEMI_MAJOR * AIRY1830_SEMI_MAJOR);
-    
-    //WGS84 to Airy 1830 helmert transformation parameters
-    //Rotation angles in degrees (will need converting to radians before use)
-    private static final double WGS84_Airy1830Rx = -0.00004172222;
-    private static final double WGS84_Airy1830Ry = -0.00006861111;
-    private static final double WGS84_Airy1830Rz = -0.00023391666;  
-    //Translation paramters in metres
-    private static final double WGS84_Airy1830Tx = -446.448;
-    private static final double WGS84_Airy1830Ty = 125.157;
-    private static final double WGS84_Airy1830Tz = -542.060;
-    //Scale factor - sometimes stated in parts per million but in this case.
-    //When in ppm the s will need to be divided by 1 million before use.
-    private static final double WGS84_Airy1830s = 0.0000204894;
-    
-    //Airy 1830 helmert transformation parameters
-    //The inverse of the above.
-    //Rotation angles in degrees (will need converting to radians before use)
-    private static final double Airy1830_WGS84Rx = 0.00004172222;
-    private static final double Airy1830_WGS84Ry = 0.00006861111;
-    private static final double Airy1830_WGS84Rz = 0.00023391666;  
-    //Translation paramters in metres
-    private static final double Airy1830_WGS84Tx = 446.448;
-    private static final double Airy1830_WGS84Ty = -125.157;
-    private static final double Airy1830_WGS84Tz = 542.060;
-    //Scale factor - sometimes stated in parts per million but in this case.
-    //When in ppm the s will need to be divided by 1 million before use.
-    private static final double Airy1830_WGS84s = -0.0000204894;    
-    
-    private static final double OSGB_ORIGIN_E = 400000;
-    private static final double OSGB_ORIGIN_N = -100000;
-    private static final double OSGB_SCALE_FACTOR = 0.9996012717;
-    private static final double OSGB_ORIGIN_LAT = 49;
-    private static final double OSGB_ORIGIN_LNG = -2;
-    
-    // Constants for arctan calculation - taken from
-    // http://discussion.forum.nokia.com/forum/showthread.php?t=72840
-    // posted by Richard Carless.  Public domain code.
-    static final double sq2p1 = 2.414213562373095048802e0;
-    static final double sq2m1  = .414213562373095048802e0;
-    static final double p4  = .161536412982230228262e2;
-    static final double p3  = .26842548195503973794141e3;
-    static final double p2  = .11530293515404850115428136e4;
-    static final double p1  = .178040631643319697105464587e4;
-    static final double p0  = .89678597403663861959987488e3;
-    static final double q4  = .5895697050844462222791e2;
-    static final double q3  = .536265374031215315104235e3;
-    static final double q2  = .16667838148816337184521798e4;
-    static final double q1  = .207933497444540981287275926e4;
-    static final double q0  = .89678597403663861962481162e3;
+    // atan is worked out from a table of atan(k / ATAN_TABLE_SIZE) for k = 0 to ATAN_TABLE_SIZE.
+    // The argument is reduced to 0 <= x <= 1 (atan(x) = PI/2 - atan(1/x) for x > 1) and
+    // atan(x) = atan(t) + atan((x - t) / (1 + x * t)) where t is the nearest table entry.
+    // The remainder u = (x - t) / (1 + x * t) is at most 1 / (2 * ATAN_TABLE_SIZE) = 1/128 so
+    // the series u - u^3/3 + u^5/5 - u^7/7 is out by less than u^9/9 < 2e-20.  The maximum
+    // error is set by double rounding - less than 5e-16 radians, which is around 3 nanometres
+    // on the ground, well within the 0.1 mm the grid conversions work to.
+    private static final int ATAN_TABLE_SIZE = 64;
+    private static final double[] ATAN_TABLE = {
+        0.0, 0.015623728620476831, 0.031239833430268277,
+        0.046840712915969654, 0.06241880999595735, 0.0779666338315423,
+        0.09347678115858947, 0.10894195698986579, 0.12435499454676144,
+        0.13970887428916365, 0.15499674192394097, 0.1702119252854744,
+        0.18534794999569476, 0.2003985538258785, 0.21535769969773805,
+        0.23021958727684372, 0.24497866312686414, 0.2596296294082575,
+        0.2741674511196588, 0.2885873618940774, 0.3028848683749714,
+        0.31705575320914703, 0.3310960767041321, 0.34500217720710513,
+        0.35877067027057225, 0.3723984466767542, 0.38588266939807375,
+        0.39922076957525254, 0.4124104415973873, 0.42544963737004227,
+        0.43833655985795783, 0.4510696559885235, 0.4636476090008061,
+        0.4760693303227612, 0.48833395105640554, 0.5004408131472942,
+        0.5123894603107377, 0.5241796287829132, 0.5358112379604637,
+        0.5472843809874369, 0.5585993153435624, 0.5697564534829784,
+        0.5807563535676704, 0.5915997103351114, 0.6022873461349642,
+        0.6128202021652414, 0.6231993299340659, 0.6334258829691446,
+        0.6435011087932844, 0.6534263411807619, 0.6632029927060933,
+        0.6728325475937632, 0.6823165548747481, 0.6916566218531999,
+        0.7008544078844502, 0.7099116184635249, 0.7188299996216245,
+        0.7276113326265107, 0.7362574289814281, 0.7447701257160751,
+        0.7531512809621944, 0.7614027698055784, 0.7695264804056583,
+        0.7775243103733478, 0.7853981633974483
+    };
     static final double PIO2 = 1.5707963267948966135E0;
     static final double nan = (0.0/0.0);
     
+    //Number of entries in each of the conversion caches and their default resolutions.
+    public static final int CACHE_SIZE = 64;
+    public static final double DEFAULT_LAT_LONG_RESOLUTION = 0.0001;
+    public static final double DEFAULT_GRID_RESOLUTION = 10;
+
+    private static final ConversionCache latLongCache = new ConversionCache(CACHE_SIZE, DEFAULT_LAT_LONG_RESOLUTION);
+    private static final ConversionCache gridCache = new ConversionCache(CACHE_SIZE, DEFAULT_GRID_RESOLUTION);
+
+    private OSGBTransform transform = OSGBTransform.WGS84_OSGB36;
+
     /** Creates a new instance of CoordSys */
     public CoordSys() {
     }
     
+    //Cache of lat / long to OS grid conversions (inputs in degrees).
+    public static ConversionCache getLatLongCache() {
+        return latLongCache;
+    }
+    
+    //Cache of OS grid to lat / long conversions (inputs in metres).
+    public static ConversionCache getGridCache() {
+        return gridCache;
+    }
+    
     public LatLong getWGS84LatLong(double eastings, double northings) {
-        double h = 0;  //OS orthometric height - might do something with this.....
-        double n;
-        double v;
-        double rho;
-        double eta_sq;
-        double M;
-        double p;        
-        double VII, VIII, IX, X, XI, XII, XIIA;
-        double rx_rad, ry_rad, rz_rad;        
-        double airy1830_phi, airy1830_lamda;
-        double wgs84_phi, wgs84_new_phi, wgs84_lamda;        
-        double osgb_origin_phi, osgb_origin_lamda;
-        double wgs84_x;
-        double wgs84_y;
-        double wgs84_z;
-        double airy1830_x;
-        double airy1830_y;
-        double airy1830_z;
-        double d_phi;        
-        
-        LatLong latLongWGS84 = new LatLong();
-        
-        //Convert OSGB36 origin latitude and longitude to radians.
-        osgb_origin_phi = Math.toRadians(OSGB_ORIGIN_LAT);
-        osgb_origin_lamda = Math.toRadians(OSGB_ORIGIN_LNG);
-        
-        airy1830_phi = ((northings - OSGB_ORIGIN_N) / (AIRY1830_SEMI_MAJOR * 0.9996012717))
-        + osgb_origin_phi;
-        
-        n = (AIRY1830_SEMI_MAJOR - AIRY1830_SEMI_MINOR) / (AIRY1830_SEMI_MAJOR + AIRY1830_SEMI_MINOR);
-        
-        M = AIRY1830_SEMI_MINOR * OSGB_SCALE_FACTOR *
-                (
-                (1 + n + (5.0/4.0 * pow(n, 2)) + (5.0/4.0 * pow(n, 3))) * (airy1830_phi - osgb_origin_phi) -
-                ((3 * n) + (3 * pow(n, 2)) + (21.0/8.0 * pow(n, 3))) * (Math.sin(airy1830_phi - osgb_origin_phi) * Math.cos(airy1830_phi + osgb_origin_phi)) +
-                ((15.0/8.0 * pow(n, 2)) + (15.0/8.0 * pow(n, 3))) * (Math.sin(2 * (airy1830_phi - osgb_origin_phi)) * Math.cos(2 * (airy1830_phi + osgb_origin_phi))) -
-                (35.0/24.0 * pow(n, 3)) * (Math.sin(3 * (airy1830_phi - osgb_origin_phi)) * Math.cos(3 * (airy1830_phi + osgb_origin_phi)))
-                );
-        
-        //Iterate 10 times - should iterate until: northings - OSGB_ORIGIN_N - M < 0.01mm.
-        for(int i = 0; i < 10; i++) {
-            airy1830_phi = ((northings - OSGB_ORIGIN_N - M) / (AIRY1830_SEMI_MAJOR * 0.9996012717))
-            + airy1830_phi;
-            M = AIRY1830_SEMI_MINOR * OSGB_SCALE_FACTOR *
-                    (
-                    (1 + n + (5.0/4.0 * pow(n, 2)) + (5.0/4.0 * pow(n, 3))) * (airy1830_phi - osgb_origin_phi) -
-                    ((3 * n) + (3 * pow(n, 2)) + (21.0/8.0 * pow(n, 3))) * (Math.sin(airy1830_phi - osgb_origin_phi) * Math.cos(airy1830_phi + osgb_origin_phi)) +
-                    ((15.0/8.0 * pow(n, 2)) + (15.0/8.0 * pow(n, 3))) * (Math.sin(2 * (airy1830_phi - osgb_origin_phi)) * Math.cos(2 * (airy1830_phi + osgb_origin_phi))) -
-                    (35.0/24.0 * pow(n, 3)) * (Math.sin(3 * (airy1830_phi - osgb_origin_phi)) * Math.cos(3 * (airy1830_phi + osgb_origin_phi)))
-                    );
+        LatLong latLong = new LatLong();
+        synchronized (gridCache) {
+            return getWGS84LatLong(eastings, northings, latLong);
         }
-        
-        v = AIRY1830_SEMI_MAJOR * OSGB_SCALE_FACTOR *
-                pow_neg_pt_five(1 - AIRY1830_ECCENTRICITY_SQ * pow(Math.sin(airy1830_phi), 2));
-        rho = AIRY1830_SEMI_MAJOR * OSGB_SCALE_FACTOR * (1 - AIRY1830_ECCENTRICITY_SQ) *
-                pow_neg_one_pt_five(1 - AIRY1830_ECCENTRICITY_SQ * pow(Math.sin(airy1830_phi), 2));
-        eta_sq = v / rho - 1;
-        
-        VII = Math.tan(airy1830_phi) / (2.0 * rho * v);
-        
-        VIII = (Math.tan(airy1830_phi) / (24.0 * rho * pow(v, 3))) *
-                (5 + (3 * pow(Math.tan(airy1830_phi), 2)) + eta_sq
-                - (9 * pow(Math.tan(airy1830_phi), 2) * eta_sq));
-        
-        IX = (Math.tan(airy1830_phi) / (720.0 * rho * pow(v, 5))) *
-                (61 + (90 * pow(Math.tan(airy1830_phi), 2))
-                + (45 * pow(Math.tan(airy1830_phi), 4)));
-        
-        X = 1 / (v * (Math.cos(airy1830_phi)));
-        
-        XI = (1 / (6.0 * pow(v, 3) * Math.cos(airy1830_phi))) *
-                (v / rho + (2 * pow(Math.tan(airy1830_phi), 2)));
-        
-        XII = (1 / (120.0 * pow(v, 5) * Math.cos(airy1830_phi))) *
-                (5 + (28 * pow(Math.tan(airy1830_phi), 2)) + (24 * pow(Math.tan(airy1830_phi), 4)));
-        
-        XIIA = (1 / (5040.0 * pow(v, 7) * Math.cos(airy1830_phi))) *
-                (61 + (662 * pow(Math.tan(airy1830_phi), 2)) + (1320 * pow(Math.tan(airy1830_phi), 4))
-                + (720 * pow(Math.tan(airy1830_phi), 6)));
-        
-        airy1830_phi = airy1830_phi - (VII * pow(eastings - OSGB_ORIGIN_E, 2))
-                + (VIII * pow(eastings - OSGB_ORIGIN_E, 4))
-                - (IX * pow(eastings - OSGB_ORIGIN_E, 6));
-        
-        airy1830_lamda = osgb_origin_lamda + X * (eastings - OSGB_ORIGIN_E)
-                - (XI * pow(eastings - OSGB_ORIGIN_E, 3))
-                + (XII * pow(eastings - OSGB_ORIGIN_E, 5))
-                - (XIIA * pow(eastings - OSGB_ORIGIN_E, 7));
-        
-        v = AIRY1830_SEMI_MAJOR / (Math.sqrt(1 - (AIRY1830_ECCENTRICITY_SQ * sin_sq(airy1830_phi))));
-
-        //Convert airy1830 latitude and longitude to cartesian coordinates.
-        airy1830_x = (v + h) * Math.cos(airy1830_phi) * Math.cos(airy1830_lamda);
-        airy1830_y = (v + h) * Math.cos(airy1830_phi) * Math.sin(airy1830_lamda);
-        airy1830_z = (((1 - AIRY1830_ECCENTRICITY_SQ) * v) + h) * Math.sin(airy1830_phi);
-        
-        //Convert airy1830 to wgs84 cartesian.
-        //1st convert angle measures to radians.
-        rx_rad = Math.toRadians(Airy1830_WGS84Rx);
-        ry_rad = Math.toRadians(Airy1830_WGS84Ry);
-        rz_rad = Math.toRadians(Airy1830_WGS84Rz);
-            
-        wgs84_x = Airy1830_WGS84Tx + airy1830_x + (Airy1830_WGS84s * airy1830_x) - (rz_rad * airy1830_y) + (ry_rad * airy1830_z);
-        wgs84_y = Airy1830_WGS84Ty + (rz_rad * airy1830_x) + airy1830_y + (Airy1830_WGS84s * airy1830_y) - (rx_rad * airy1830_y);
-        wgs84_z = Airy1830_WGS84Tz - (ry_rad * airy1830_x) + (rx_rad * airy1830_y) + airy1830_z + (Airy1830_WGS84s * airy1830_z);
-        
-        //Convert wgs84 cartesian coordinates to ellipsoidal latitude and longitude
-        wgs84_lamda = atan(wgs84_y / wgs84_x);
-        p = Math.sqrt((wgs84_x * wgs84_x) + (wgs84_y * wgs84_y));
-        wgs84_phi = atan(wgs84_z / (p - p * WGS84_ECCENTRICITY_SQ));
-
-        d_phi = 1;
-
-        //while (d_phi > 0.001) {
-        //Iterate 10 times - could also examine d_phi until below a certain threshold.
-        for(int i = 0; i < 10; i++) {
-            v = WGS84_SEMI_MAJOR / (Math.sqrt(1 - (WGS84_ECCENTRICITY_SQ * sin_sq(wgs84_phi))));
-            wgs84_new_phi = atan((wgs84_z + (WGS84_ECCENTRICITY_SQ * v * Math.sin(wgs84_phi))) / p);
-            d_phi = Math.abs(wgs84_phi - wgs84_new_phi);
-            wgs84_phi = wgs84_new_phi;
+    }
+    
+    //Caller synchronizes on gridCache.
+    private LatLong getWGS84LatLong(double eastings, double northings, LatLong latLong) {
+        if (!gridCache.isEnabled()) {
+            return transform.toWGS84(eastings, northings, latLong);
+        }
+        gridCache.checkGeneration(transform.getGeneration());
+        int slot = gridCache.find(eastings, northings);
+        if (slot == -1) {
+            transform.toWGS84(eastings, northings, latLong);
+            gridCache.add(latLong.Latitude, latLong.Longitude);
+            return latLong;
+        }
+        if (gridCache.needsGradient(slot, eastings, northings)) {
+            //Gradient at the cell's first input from a step of a cell east and north.
+            double e = gridCache.getInputFirst(slot);
+            double n = gridCache.getInputSecond(slot);
+            double lat = gridCache.getFirst(slot, e, n);
+            double lng = gridCache.getSecond(slot, e, n);
+            double step = gridCache.getResolution();
+            transform.toWGS84(e + step, n, latLong);
+            double latByE = (latLong.Latitude - lat) / step;
+            double lngByE = (latLong.Longitude - lng) / step;
+            transform.toWGS84(e, n + step, latLong);
+            gridCache.setGradient(slot, latByE, (latLong.Latitude - lat) / step,
+                    lngByE, (latLong.Longitude - lng) / step);
         }
-            
-        wgs84_phi = Math.toDegrees(wgs84_phi);
-        wgs84_lamda = Math.toDegrees(wgs84_lamda);
-        
-        latLongWGS84.Latitude = wgs84_phi;
-        latLongWGS84.Longitude = wgs84_lamda;
-        
-        return latLongWGS84;
+        latLong.Latitude = gridCache.getFirst(slot, eastings, northings);
+        latLong.Longitude = gridCache.getSecond(slot, eastings, northings);
+        return latLong;
     }
     
     public OSGridRef getOSGridRef(double wgs84_lat, double wgs84_lng) {
-        
-        final double h = 0;  //Ellipsoidal height - might do something with this.....
-        double v;
-        double wgs84_phi, wgs84_lamda;
-        double rx_rad, ry_rad, rz_rad;
-        double airy1830_phi, airy1830_new_phi, airy1830_lamda;
-        double d_phi;
-        double p;
-        double n;
-        double rho;
-        double eta_sq;
-        double I, II, III, IIIA, IV, V, VI, M;
-        double osgb_origin_phi, osgb_origin_lamda;
-        double wgs84_x;
-        double wgs84_y;
-        double wgs84_z;
-        double airy1830_x;
-        double airy1830_y;
-        double airy1830_z;        
-        
         OSGridRef osGridRef = new OSGridRef();
-        
         try {
-            
-            wgs84_phi = Math.toRadians(wgs84_lat);
-            wgs84_lamda = Math.toRadians(wgs84_lng);
-            
-            //Convert latitude and longitude into cartesian coordinates.
-            
-            v = WGS84_SEMI_MAJOR / (Math.sqrt(1 - (WGS84_ECCENTRICITY_SQ * sin_sq(wgs84_phi))));
-            
-            wgs84_x = (v + h) * Math.cos(wgs84_phi) * Math.cos(wgs84_lamda);
-            wgs84_y = (v + h) * Math.cos(wgs84_phi) * Math.sin(wgs84_lamda);
-            wgs84_z = (((1 - WGS84_ECCENTRICITY_SQ) * v) + h) * Math.sin(wgs84_phi);
-            
-            //Convert wgs84 to airy1830 cartesian.
-            
-            //1st convert angle measures to radians.
-            rx_rad = Math.toRadians(WGS84_Airy1830Rx);
-            ry_rad = Math.toRadians(WGS84_Airy1830Ry);
-            rz_rad = Math.toRadians(WGS84_Airy1830Rz);
-            
-            airy1830_x = WGS84_Airy1830Tx + wgs84_x + (WGS84_Airy1830s * wgs84_x) - (rz_rad * wgs84_y) + (ry_rad * wgs84_z);
-            airy1830_y = WGS84_Airy1830Ty + (rz_rad * wgs84_x) + wgs84_y + (WGS84_Airy1830s * wgs84_y) - (rx_rad * wgs84_y);
-            airy1830_z = WGS84_Airy1830Tz - (ry_rad * wgs84_x) + (rx_rad * wgs84_y) + wgs84_z + (WGS84_Airy1830s * wgs84_z);
-            
-            //Convert airy1830 cartesian to ellipsoidal longitude and latitude.
-            airy1830_lamda = atan(airy1830_y / airy1830_x);
-            p = Math.sqrt((airy1830_x * airy1830_x) + (airy1830_y * airy1830_y));
-            airy1830_phi = atan(airy1830_z / (p - p * AIRY1830_ECCENTRICITY_SQ));
-            
-            d_phi = 1;
-            
-            //while (d_phi > 0.001) {
-            //Iterate 10 times - could also examine d_phi until below a certain threshold.
-            for(int i = 0; i < 10; i++) {
-                v = AIRY1830_SEMI_MAJOR / (Math.sqrt(1 - (AIRY1830_ECCENTRICITY_SQ * sin_sq(airy1830_phi))));
-                airy1830_new_phi = atan((airy1830_z + (AIRY1830_ECCENTRICITY_SQ * v * Math.sin(airy1830_phi))) / p);
-                d_phi = Math.abs(airy1830_phi - airy1830_new_phi);
-                airy1830_phi = airy1830_new_phi;
+            synchronized (latLongCache) {
+                if (!latLongCache.isEnabled()) {
+                    return transform.toOSGridRef(wgs84_lat, wgs84_lng, osGridRef);
+                }
+                latLongCache.checkGeneration(transform.getGeneration());
+                int slot = latLongCache.find(wgs84_lat, wgs84_lng);
+                if (slot == -1) {
+                    transform.toOSGridRef(wgs84_lat, wgs84_lng, osGridRef);
+                    latLongCache.add(osGridRef.Eastings, osGridRef.Northings);
+                    return osGridRef;
+                }
+                if (latLongCache.needsGradient(slot, wgs84_lat, wgs84_lng)) {
+                    //Gradient at the cell's first input from a step of a cell north and east.
+                    double lat = latLongCache.getInputFirst(slot);
+                    double lng = latLongCache.getInputSecond(slot);
+                    double e = latLongCache.getFirst(slot, lat, lng);
+                    double n = latLongCache.getSecond(slot, lat, lng);
+                    double step = latLongCache.getResolution();
+                    transform.toOSGridRef(lat + step, lng, osGridRef);
+                    double eByLat = (osGridRef.Eastings - e) / step;
+                    double nByLat = (osGridRef.Northings - n) / step;
+                    transform.toOSGridRef(lat, lng + step, osGridRef);
+                    latLongCache.setGradient(slot, eByLat, (osGridRef.Eastings - e) / step,
+                            nByLat, (osGridRef.Northings - n) / step);
+                }
+                osGridRef.Eastings = latLongCache.getFirst(slot, wgs84_lat, wgs84_lng);
+                osGridRef.Northings = latLongCache.getSecond(slot, wgs84_lat, wgs84_lng);
+                return osGridRef;
             }
-            
-            //Convert Airy 1830 lat long into grid eastings and northings
-            n = (AIRY1830_SEMI_MAJOR - AIRY1830_SEMI_MINOR) / (AIRY1830_SEMI_MAJOR + AIRY1830_SEMI_MINOR);
-            v = AIRY1830_SEMI_MAJOR * OSGB_SCALE_FACTOR *
-                    pow_neg_pt_five(1 - AIRY1830_ECCENTRICITY_SQ * pow(Math.sin(airy1830_phi), 2));
-            rho = AIRY1830_SEMI_MAJOR * OSGB_SCALE_FACTOR * (1 - AIRY1830_ECCENTRICITY_SQ) *
-                    pow_neg_one_pt_five(1 - AIRY1830_ECCENTRICITY_SQ * pow(Math.sin(airy1830_phi), 2));
-            eta_sq = v / rho - 1;
-            
-            //Convert OSGB36 origin latitude and longitude to radians.
-            osgb_origin_phi = Math.toRadians(OSGB_ORIGIN_LAT);
-            osgb_origin_lamda = Math.toRadians(OSGB_ORIGIN_LNG);
-            
-            M = AIRY1830_SEMI_MINOR * OSGB_SCALE_FACTOR *
-                    (
-                    (1 + n + (5.0/4.0 * pow(n, 2)) + (5.0/4.0 * pow(n, 3))) * (airy1830_phi - osgb_origin_phi) -
-                    ((3 * n) + (3 * pow(n, 2)) + (21.0/8.0 * pow(n, 3))) * (Math.sin(airy1830_phi - osgb_origin_phi) * Math.cos(airy1830_phi + osgb_origin_phi)) +
-                    ((15.0/8.0 * pow(n, 2)) + (15.0/8.0 * pow(n, 3))) * (Math.sin(2 * (airy1830_phi - osgb_origin_phi)) * Math.cos(2 * (airy1830_phi + osgb_origin_phi))) -
-                    (35.0/24.0 * pow(n, 3)) * (Math.sin(3 * (airy1830_phi - osgb_origin_phi)) * Math.cos(3 * (airy1830_phi + osgb_origin_phi)))
-                    );
-            
-            I = M + OSGB_ORIGIN_N;
-            II = (v / 2.0) * Math.sin(airy1830_phi) * Math.cos(airy1830_phi);
-            III = (v / 24.0) * Math.sin(airy1830_phi) * pow(Math.cos(airy1830_phi), 3) *
-                    (5 - pow(Math.tan(airy1830_phi), 2) + (9 * eta_sq));
-            IIIA = (v / 720.0) * Math.sin(airy1830_phi) * pow(Math.cos(airy1830_phi), 5) *
-                    (61 - (58 * pow(Math.tan(airy1830_phi), 2)) + pow(Math.tan(airy1830_phi), 4));
-            IV = v * Math.cos(airy1830_phi);
-            V = (v / 6.0) * pow(Math.cos(airy1830_phi), 3) * ((v / rho) - pow(Math.tan(airy1830_phi), 2));
-            VI = (v / 120.0) * pow(Math.cos(airy1830_phi), 5) *
-                    (5 - (18 * pow(Math.tan(airy1830_phi), 2)) + pow(Math.tan(airy1830_phi), 4) + (14 * eta_sq) - (58 * pow(Math.tan(airy1830_phi), 2) * eta_sq));
-            
-            osGridRef.Eastings = OSGB_ORIGIN_E + (IV * (airy1830_lamda - osgb_origin_lamda)) + (V * pow(airy1830_lamda - osgb_origin_lamda, 3)) +
-                    (VI * pow(airy1830_lamda - osgb_origin_lamda, 5));
-            osGridRef.Northings = I + (II * pow(airy1830_lamda - osgb_origin_lamda, 2)) + (III * pow(airy1830_lamda - osgb_origin_lamda, 4)) +
-                    (IIIA * pow(airy1830_lamda - osgb_origin_lamda, 6));
-            
-            return osGridRef;
-            
         } catch (Exception e) {
             osGridRef.Eastings = -9999.99;
             osGridRef.Northings = -9999.99;
@@ -342,51 +181,41 @@ public class CoordSys {
         }
     }
     
-    private double sin_sq(double x) {
-        return Math.sin(x) * Math.sin(x);
-    }
-    
-    private double pow(double base, int exponent) {
-        double result = base;
-        for (int i = 1; i < exponent; i++) {
-            result = result * base;
-        }
-        return result;
-    }
-    
-    private double pow_neg_one_pt_five(double base) {
-        return(1.0 / (base * Math.sqrt(base)));
+    //Batch version of the above for the first count elements of the arrays.  The results
+    //are written to the caller's arrays so nothing is created per point.
+    //Lat / long to OS grid is used for GPX files so isn't cached - a track would just
+    //push the current position out of the cache.
+    public void getOSGridRefs(double[] lat, double[] lng, double[] eastings, double[] northings, int count) {
+        transform.toOSGridRef(lat, lng, eastings, northings, 0, count);
     }
     
-    private double pow_neg_pt_five(double base) {
-        return(1.0 / Math.sqrt(base));
+    // atan of 0 <= x <= 1 (see ATAN_TABLE).
+    private static double atanReduced(double x) {
+        int k = (int) (x * ATAN_TABLE_SIZE + 0.5);
+        double t = k * (1.0 / ATAN_TABLE_SIZE);
+        double u = (x - t) / (1 + x * t);
+        double u2 = u * u;
+        return ATAN_TABLE[k] + u * (1 - u2 * (1.0/3.0 - u2 * (1.0/5.0 - u2 * (1.0/7.0))));
     }
     
-    // arctan calculation - from http://discussion.forum.nokia.com/forum/showthread.php?t=72840
-    // Public domain code
-    private static double mxatan(double arg) {
-        double argsq, value;
-        
-        argsq = arg*arg;
-        value = ((((p4*argsq + p3)*argsq + p2)*argsq + p1)*argsq + p0);
-        value = value/(((((argsq + q4)*argsq + q3)*argsq + q2)*argsq + q1)*argsq + q0);
-        return value*arg;
-    }
-    
-    // reduce
-    private static double msatan(double arg) {
-        if(arg < sq2m1)
-            return mxatan(arg);
-        if(arg > sq2p1)
-            return PIO2 - mxatan(1/arg);
-        return PIO2/2 + mxatan((arg-1)/(arg+1));
+    // implementation of atan
+    static double atan(double arg) {
+        double x = Math.abs(arg);
+        double result = (x > 1) ? PIO2 - atanReduced(1 / x) : atanReduced(x);
+        return (arg < 0) ? -result : result;
     }
     
-    // implementation of atan
-    private static double atan(double arg) {
-        if(arg > 0)
-            return msatan(arg);
-        return -msatan(-arg);
+    // implementation of atan2 - angle of (x, y) from the x axis in the range -PI to PI.
+    static double atan2(double y, double x) {
+        if (x > 0)
+            return atan(y / x);
+        if (x < 0)
+            return (y >= 0) ? atan(y / x) + Math.PI : atan(y / x) - Math.PI;
+        if (y > 0)
+            return PIO2;
+        if (y < 0)
+            return -PIO2;
+        return 0;
     }
     
     // implementation of asin
@@ -0,0 +1,270 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: EpochAssembler
+ *
+ * desc: EpochAssembler merges the sentences a receiver outputs for one fix (an epoch)
+ * e.g. GGA, GSA, RMC and VTG into a single update of GPSInfo.  This means the OS grid
+ * reference is worked out once per fix rather than once per sentence and GPSInfo
+ * consumers see one consistent update.
+ *
+ * RMC and GGA carry the UTC time of the fix.  An epoch is published when:
+ * - a sentence arrives with a different time or a type already in the epoch, or
+ * - every timed sentence type seen in earlier epochs has arrived (so once the
+ *   receiver's output pattern is known there is no waiting for the next epoch).
+ * GSA and VTG have no time so they are merged into whichever epoch is being assembled.
+ * RMC speed and course take priority over VTG.
+ *
+ * If the geoid model (GeoidModel) covers the fix the height above sea level is worked
+ * out from the ellipsoid height and the model's geoid height rather than relying on
+ * the receiver's geoid height.  An ellipsoid only height (JSR-179) which the model doesn't
+ * cover is published as unknown.  The model reads its file in the background so the
+ * first fix in an area it hasn't read yet isn't corrected.
+ */
+
+package geo;
+
+public class EpochAssembler {
+
+    public final static int NO_TIME = -1;
+
+    //Sentence types which carry a UTC time.
+    private final static int TIMED_TYPES = (1 << GPSInfo.NMEA_RMC) | (1 << GPSInfo.NMEA_GGA);
+
+    private GPSInfo gpsInfo;
+    private CoordSys coordSys = new CoordSys();
+    private GeoidModel geoidModel = GeoidModel.DEFAULT;
+
+    //Sentence types (bit 1 << GPSInfo.NMEA_xxx) in the epoch being assembled.
+    private int mask = 0;
+    //Timed sentence types seen in earlier epochs.
+    private int expectedMask = 0;
+    //hhmmss.sss as an integer (hhmmsssss) so that 5 / 10 Hz epochs are told apart.
+    private int time = NO_TIME;
+    private int epochCount = 0;
+
+    //The epoch being assembled.
+    private boolean noFix;
+    private boolean hasPosition;
+    private double lat, lng;
+    private boolean hasHeight;
+    private double hgt;
+    //True if hgt is above the ellipsoid rather than the geoid.
+    private boolean ellipsoidHgt;
+    private boolean hasSatellites;
+    private boolean hasGeoidHgt;
+    private double geoidHgt;
+    private int numSats;
+    private boolean hasCourse, courseFromRMC;
+    private double spd, heading;
+    private boolean hasDop;
+    private int fixType;
+    private double pdop, hdop, vdop;
+    private boolean hasTime, hasDate;
+    private int hour, minute, second, day, month, year;
+
+    public EpochAssembler(GPSInfo gpsInfo) {
+        this.gpsInfo = gpsInfo;
+    }
+
+    //Number of epochs published so far.
+    public int getEpochCount() {
+        return epochCount;
+    }
+
+    //Called before a sentence's values are added.  Publishes the epoch being assembled
+    //if this sentence belongs to the next one.
+    public void startSentence(byte type, int sentenceTime) {
+        int bit = 1 << type;
+        if (mask != 0 && (bit & TIMED_TYPES) != 0) {
+            boolean timeChanged = sentenceTime != NO_TIME && time != NO_TIME && sentenceTime != time;
+            if ((mask & bit) != 0 || timeChanged) {
+                //Learn which sentences make up an epoch.
+                expectedMask |= mask & TIMED_TYPES;
+                publish();
+            }
+        }
+        mask |= bit;
+        if (sentenceTime != NO_TIME) {
+            time = sentenceTime;
+        }
+    }
+
+    //Called after a sentence's values have been added.  Publishes the epoch if it is complete.
+    public void endSentence() {
+        if (expectedMask != 0 && (mask & expectedMask) == expectedMask) {
+            publish();
+        }
+    }
+
+    //Publishes the values set so far as one epoch.  Used when the values don't come from
+    //NMEA sentences e.g. an internal GPS receiver's Location.
+    public void publishNow() {
+        publish();
+    }
+
+    //Publishes anything assembled so far e.g. at the end of a batch of sentences from
+    //an internal GPS receiver.
+    public void flush() {
+        if (mask != 0) {
+            expectedMask |= mask & TIMED_TYPES;
+            publish();
+        }
+    }
+
+    public void setNoFix() {
+        noFix = true;
+    }
+
+    public void setPosition(double lat, double lng) {
+        this.lat = lat;
+        this.lng = lng;
+        hasPosition = true;
+    }
+
+    public void setHeight(double hgt, double geoidHgt, int numSats) {
+        this.hgt = hgt;
+        ellipsoidHgt = false;
+        hasHeight = true;
+        this.geoidHgt = geoidHgt;
+        hasGeoidHgt = true;
+        this.numSats = numSats;
+        hasSatellites = true;
+    }
+
+    //Height only e.g. from a JSR-179 Location which has no geoid height or satellite count.
+    //JSR-179 altitudes are above the WGS84 ellipsoid so unless the geoid model covers the
+    //fix the height is published as unknown.
+    public void setHeight(double hgt) {
+        this.hgt = hgt;
+        ellipsoidHgt = true;
+        hasHeight = true;
+    }
+
+    public void setCourse(double spd, double heading, boolean fromRMC) {
+        if (fromRMC || !courseFromRMC) {
+            this.spd = spd;
+            this.heading = heading;
+            courseFromRMC = fromRMC;
+            hasCourse = true;
+        }
+    }
+
+    public void setDop(int fixType, double pdop, double hdop, double vdop) {
+        this.fixType = fixType;
+        this.pdop = pdop;
+        this.hdop = hdop;
+        this.vdop = vdop;
+        hasDop = true;
+    }
+
+    public void setTime(int hour, int minute, int second) {
+        this.hour = hour;
+        this.minute = minute;
+        this.second = second;
+        hasTime = true;
+    }
+
+    public void setDate(int day, int month, int year) {
+        this.day = day;
+        this.month = month;
+        this.year = year;
+        hasDate = true;
+    }
+
+    //Replaces the receiver's geoid height with the geoid model's (if it covers the fix).
+    private void correctHeight() {
+        double undulation = geoidModel.getUndulation(lat, lng);
+        if (Double.isNaN(undulation)) {
+            return;
+        }
+        double ellipsoid = ellipsoidHgt ? hgt : hgt + (hasGeoidHgt ? geoidHgt : 0);
+        hgt = ellipsoid - undulation;
+        ellipsoidHgt = false;
+        geoidHgt = undulation;
+        hasGeoidHgt = true;
+    }
+
+    private void publish() {
+        if (noFix) {
+            gpsInfo.setFix(false);
+        } else if (hasPosition) {
+            gpsInfo.setFix(true);
+            gpsInfo.setLatLong(lat, lng);
+            gpsInfo.setOSGridRef(coordSys.getOSGridRef(lat, lng));
+        }
+        if (hasHeight) {
+            if (hasPosition) {
+                correctHeight();
+            }
+            //An ellipsoid height is ~50m above sea level across the UK so it isn't shown.
+            if (ellipsoidHgt) {
+                gpsInfo.setHeightUnknown();
+            } else {
+                gpsInfo.setHeight(hgt);
+            }
+        }
+        if (hasGeoidHgt) {
+            gpsInfo.geoidHgt = geoidHgt;
+        }
+        if (hasSatellites) {
+            gpsInfo.numSats = numSats;
+        }
+        if (hasCourse) {
+            gpsInfo.setSpeed(spd);
+            gpsInfo.setHeading(heading);
+        }
+        if (hasDop) {
+            gpsInfo.fixType = fixType;
+            gpsInfo.pdop = pdop;
+            gpsInfo.hdop = hdop;
+            gpsInfo.vdop = vdop;
+        }
+        if (hasTime) {
+            gpsInfo.setTime(hour, minute, second);
+        }
+        if (hasDate) {
+            gpsInfo.setDate(day, month, year);
+        }
+        if (time != NO_TIME) {
+            //hhmmsssss to milliseconds since midnight for the replay clock.
+            gpsInfo.setFixTimeOfDay(time / 10000000 * 3600000 + time / 100000 % 100 * 60000 + time % 100000);
+        }
+        gpsInfo.updateStats();
+        gpsInfo.publishFix();
+        epochCount++;
+
+        mask = 0;
+        time = NO_TIME;
+        noFix = false;
+        hasPosition = false;
+        hasHeight = false;
+        hasGeoidHgt = false;
+        hasSatellites = false;
+        hasCourse = false;
+        courseFromRMC = false;
+        hasDop = false;
+        hasTime = false;
+        hasDate = false;
+    }
+}
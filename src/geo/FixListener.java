@@ -0,0 +1,47 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: FixListener
+ *
+ * desc: FixListener is implemented by anything that wants to be told about GPS fixes
+ * rather than polling GPSInfo.  Listeners are registered with GPSInfo.addFixListener
+ * for one or more of the events below.
+ *
+ * fixEvent is called on the GPS read thread so it should do as little as possible
+ * e.g. keep the fix and wake the listener's own thread.
+ */
+
+package geo;
+
+public interface FixListener {
+
+    //A new fix has been published.
+    public final static int NEW_FIX = 1;
+    //The previous fix was valid but this one isn't.
+    public final static int FIX_LOST = 2;
+    //The position has moved at least the distance given when the listener was added.
+    public final static int MOVED = 4;
+
+    public void fixEvent(int event, GPSFix fix);
+
+}
@@ -0,0 +1,107 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: GPSFix
+ *
+ * desc: GPSFix is a snapshot of the GPS data for one fix.  GPSInfo publishes a new
+ * snapshot once per fix so threads other than the GPS read thread (canvas, guidance etc.)
+ * can get a consistent set of values, e.g. a grid reference that matches the lat / long,
+ * without locking.
+ *
+ * Snapshots are not changed once published but are recycled by GPSInfo once they have
+ * been out of date for GPSInfo.FIX_RECYCLE_AGE.  Don't keep hold of one for longer -
+ * get the current snapshot from GPSInfo each time round instead.
+ */
+
+package geo;
+
+public class GPSFix {
+
+    //Only set by GPSInfo.publishFix.
+    boolean fix;
+    double lat;
+    double lng;
+    double hgt;
+    boolean hgtKnown;
+    double geoidHgt;
+    double spd;
+    double heading;
+    int numSats;
+    OSGridRef osGridRef;
+    long publishedAt;
+    //When the next snapshot replaced this one (0 if it is still current).
+    long supersededAt;
+
+    //osGridRef is set when the snapshot is published - it is the assembler's grid ref
+    //for that fix so nothing is created here.
+    GPSFix() {
+    }
+
+    public boolean hasFix() {
+        return fix;
+    }
+
+    public double getLatitude() {
+        return lat;
+    }
+
+    public double getLongitude() {
+        return lng;
+    }
+
+    //False if the height above sea level isn't known (getHeight is then meaningless).
+    public boolean hasHeight() {
+        return hgtKnown;
+    }
+
+    public double getHeight() {
+        return hgt;
+    }
+
+    public double getGeoidHeight() {
+        return geoidHgt;
+    }
+
+    //In metres per second.  GPSInfo.UNDEFINED if not known.
+    public double getSpeed() {
+        return spd;
+    }
+
+    //In decimal degrees.  GPSInfo.UNDEFINED if not known.
+    public double getHeading() {
+        return heading;
+    }
+
+    public int getNumSats() {
+        return numSats;
+    }
+
+    //The grid reference is shared with GPSInfo so it must not be changed.
+    public OSGridRef getOSGridRef() {
+        return osGridRef;
+    }
+
+    public long getPublishedAt() {
+        return publishedAt;
+    }
+}
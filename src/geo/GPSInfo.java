@@ -43,6 +43,8 @@ public class GPSInfo {
     
     public final static byte NMEA_RMC = 0;
     public final static byte NMEA_GGA = 1;
+    public final static byte NMEA_GSA = 2;
+    public final static byte NMEA_VTG = 3;
     
     public final static double METRES_TO_MILES = 0.0006214;
     public final static double METRES_TO_FEET = 3.28084;
@@ -56,6 +58,8 @@ public class GPSInfo {
     private double lat;  //In decimal degress
     private double lng;  //In decimal degress
     private double hgt;  //In metres
+    //False until a height above sea level is known (or if it is lost).
+    private boolean hgtKnown;
     
     private double heading = UNDEFINED; //Heading in decimal degrees
     
@@ -65,9 +69,33 @@ public class GPSInfo {
     public double geoidHgt;
     public int numSats;
     public byte type;
+    //From the GSA sentence.  fixType is 1 = no fix, 2 = 2D, 3 = 3D.
+    public int fixType;
+    public double pdop = UNDEFINED;
+    public double hdop = UNDEFINED;
+    public double vdop = UNDEFINED;
    
     public OSGridRef osGridRef = new OSGridRef();
+
+    //Snapshots are recycled once they have been out of date for this long (ms).
+    public final static int FIX_RECYCLE_AGE = 5000;
+    private final static int FIX_POOL_SIZE = 8;
+    //Snapshot of the latest fix.  Read by other threads without locking.
+    private volatile GPSFix currentFix = new GPSFix();
+    private GPSFix[] fixPool = new GPSFix[FIX_POOL_SIZE];
+    private int nextPoolIndex = 0;
+
+    //Registered fix listeners.  The array is replaced (not changed) when a listener is
+    //added or removed so it can be read on the GPS thread without locking.
+    private volatile FixListenerEntry[] fixListeners = new FixListenerEntry[0];
+    private final Object fixListenersLock = new Object();
         
+    //Clock used for the trip stats and guidance timing (see currentTimeMillis).
+    private final static int MILLIS_PER_DAY = 86400000;
+    private boolean replayClock = false;
+    private long replayTime;
+    private int replayTimeOfDay = -1;
+
     //Trip meter variables.  All times in seconds since Jan 1 1970 (the epoch).
     //All distance in metres.
     private double totalTimeNoFix = 0, totalTimeWithFix = 0, timeOfLastUpdate = 0, timeSinceLastUpdate = 0;
@@ -108,6 +136,8 @@ public class GPSInfo {
     
     public GPSInfo(GPSJakeMIDlet midlet) {
         this.midlet = midlet;
+        //The first snapshot is never published so give it a grid ref here.
+        currentFix.osGridRef = osGridRef;
     }
     
     public GPXXMLWriter getGPXXMLWriter() {
@@ -207,6 +237,7 @@ public class GPSInfo {
         try {    
             midlet.gpsSource = "";
             this.fix = false;            
+            publishFix();
         } catch (Exception e) {
             midlet.fatalError("GPSInfo:reset " + e.toString());
         }             
@@ -220,11 +251,148 @@ public class GPSInfo {
         }           
     }
     
+    public GPSFix getCurrentFix() {
+        return currentFix;
+    }
+
+    //Called once the GPS data for a fix has been set (and when GPS reads stop) to publish
+    //a new snapshot.  Snapshots are taken from a small pool.  A pooled snapshot is only
+    //reused if it has been out of date for FIX_RECYCLE_AGE, otherwise a new one is created
+    //so that a reader still using it never sees it change.
+    public synchronized void publishFix() {
+        long now = System.currentTimeMillis();
+        GPSFix f = fixPool[nextPoolIndex];
+        if (f == null || now - f.supersededAt < FIX_RECYCLE_AGE) {
+            f = new GPSFix();
+            fixPool[nextPoolIndex] = f;
+        }
+        nextPoolIndex = (nextPoolIndex + 1) % FIX_POOL_SIZE;
+
+        f.fix = fix;
+        f.lat = lat;
+        f.lng = lng;
+        f.hgt = hgt;
+        f.hgtKnown = hgtKnown;
+        f.geoidHgt = geoidHgt;
+        f.spd = spd;
+        f.heading = heading;
+        f.numSats = numSats;
+        f.osGridRef = osGridRef;
+        f.publishedAt = now;
+        f.supersededAt = 0;
+
+        GPSFix previousFix = currentFix;
+        currentFix.supersededAt = now;
+        //Volatile write - everything above is visible to a thread that reads currentFix.
+        currentFix = f;
+
+        notifyFixListeners(previousFix, f);
+    }
+
+    //events is one or more of FixListener.NEW_FIX, FIX_LOST and MOVED added together.
+    //moveDistance (metres) is only used for MOVED.
+    public void addFixListener(FixListener listener, int events, double moveDistance) {
+        synchronized (fixListenersLock) {
+            FixListenerEntry[] entries = new FixListenerEntry[fixListeners.length + 1];
+            System.arraycopy(fixListeners, 0, entries, 0, fixListeners.length);
+            entries[fixListeners.length] = new FixListenerEntry(listener, events, moveDistance);
+            fixListeners = entries;
+        }
+    }
+
+    public void removeFixListener(FixListener listener) {
+        synchronized (fixListenersLock) {
+            int count = 0;
+            for (int i = 0; i < fixListeners.length; i++) {
+                if (fixListeners[i].listener != listener) {
+                    count++;
+                }
+            }
+            FixListenerEntry[] entries = new FixListenerEntry[count];
+            count = 0;
+            for (int i = 0; i < fixListeners.length; i++) {
+                if (fixListeners[i].listener != listener) {
+                    entries[count++] = fixListeners[i];
+                }
+            }
+            fixListeners = entries;
+        }
+    }
+
+    private void notifyFixListeners(GPSFix previousFix, GPSFix fix) {
+        FixListenerEntry[] entries = fixListeners;
+        for (int i = 0; i < entries.length; i++) {
+            FixListenerEntry entry = entries[i];
+            try {
+                if (fix.fix) {
+                    if ((entry.events & FixListener.NEW_FIX) != 0) {
+                        entry.listener.fixEvent(FixListener.NEW_FIX, fix);
+                    }
+                    if ((entry.events & FixListener.MOVED) != 0 && (entry.lastMovedTo == null
+                            || entry.lastMovedTo.distanceBetween(fix.osGridRef) >= entry.moveDistance)) {
+                        entry.lastMovedTo = fix.osGridRef;
+                        entry.listener.fixEvent(FixListener.MOVED, fix);
+                    }
+                } else if (previousFix.fix && (entry.events & FixListener.FIX_LOST) != 0) {
+                    entry.listener.fixEvent(FixListener.FIX_LOST, fix);
+                }
+            } catch (Exception e) {
+                midlet.importantErrorLogOnly("GPSInfo:notifyFixListeners " + e.toString());
+            }
+        }
+    }
+
+    private static class FixListenerEntry {
+        FixListener listener;
+        int events;
+        double moveDistance;
+        //Grid ref the listener was last sent MOVED for.
+        OSGridRef lastMovedTo;
+
+        FixListenerEntry(FixListener listener, int events, double moveDistance) {
+            this.listener = listener;
+            this.events = events;
+            this.moveDistance = moveDistance;
+        }
+    }
+    
+    //Time now for the trip stats and guidance.  This is the system clock unless a NMEA log
+    //is being replayed, in which case it is the time of the latest fix in the log.  This
+    //means the stats and guidance timing come out the same at any replay speed.
+    public long currentTimeMillis() {
+        return replayClock ? replayTime : System.currentTimeMillis();
+    }
+
+    //Turns the replay clock on or off.  The replay clock starts at the system time and
+    //is moved on by setFixTimeOfDay.
+    public synchronized void setReplayClock(boolean on) {
+        replayClock = on;
+        replayTime = System.currentTimeMillis();
+        replayTimeOfDay = -1;
+        //The next update starts the stats timing again with the new clock.
+        timeOfLastUpdate = 0;
+    }
+
+    public boolean isReplayClock() {
+        return replayClock;
+    }
+
+    //UTC time of the fix (milliseconds since midnight).  Moves the replay clock on by the
+    //time since the last fix, allowing for the day changing at midnight.
+    public synchronized void setFixTimeOfDay(int millis) {
+        if (replayClock) {
+            if (replayTimeOfDay != -1) {
+                replayTime += (millis - replayTimeOfDay + MILLIS_PER_DAY) % MILLIS_PER_DAY;
+            }
+            replayTimeOfDay = millis;
+        }
+    }
+
     public void updateStats() {
         //This should get called approx once per second
         //once an RMC sentence has been parsed.
         //RMC sentences are output every second by B10.
-        double currentTime=System.currentTimeMillis() / 1000.0;        
+        double currentTime=currentTimeMillis() / 1000.0;        
         
         //Don't do anything on 1st update.        
         if (timeOfLastUpdate == 0) {
@@ -241,7 +409,7 @@ public class GPSInfo {
                 totalDistanceWithFix = totalDistanceWithFix + distance;
                 aveSpd = totalDistanceWithFix / totalTimeWithFix;
                 //Only update the height stats if receiver is moving.
-                if (spd > 0) {
+                if (spd > 0 && hgtKnown) {
                     if (hgt < previousHgt) {
                         hgtLost = hgtLost + (previousHgt - hgt);
                     } else {
@@ -269,6 +437,7 @@ public class GPSInfo {
     }
     
     public void setHeight(double h) {
+        hgtKnown = true;
         if (firstHgt) {
             hgt = h;
             previousHgt = hgt;
@@ -278,6 +447,13 @@ public class GPSInfo {
             hgt = h;
         }
     }
+
+    //e.g. an ellipsoid height which can't be corrected to sea level.  The height stats
+    //start again from the next known height rather than counting the gap as a climb.
+    public void setHeightUnknown() {
+        hgtKnown = false;
+        firstHgt = true;
+    }
     
     public double getLatitude() {
         return lat;
@@ -314,10 +490,12 @@ public class GPSInfo {
         heading = h;
     }
     
-    public String getHeadingDegMinDec() {
+    //Values shown on screen are formatted from a snapshot (getCurrentFix) so they all come
+    //from the same fix.
+    public String getHeadingDegMinDec(GPSFix gpsFix) {
         try {
-            if (fix && heading != UNDEFINED) {
-                String headingStr = new Double(heading).toString();
+            if (gpsFix.hasFix() && gpsFix.getHeading() != UNDEFINED) {
+                String headingStr = new Double(gpsFix.getHeading()).toString();
                 headingStr = noDps(headingStr, (byte)3);
                 
                 return headingStr + "";
@@ -350,13 +528,13 @@ public class GPSInfo {
         maxSpd = 0;
     }
     
-    public String getLatInDegMinDec() {
+    public String getLatInDegMinDec(GPSFix gpsFix) {
         try {
-            if (fix) {
-                int degree = (int)lat;
+            if (gpsFix.hasFix()) {
+                int degree = (int)gpsFix.getLatitude();
                 String degreeStr = new Integer(degree).toString();
                 String sgn = (degree>=0)?"N":"S";
-                double minutes = Math.abs(lat - degree);
+                double minutes = Math.abs(gpsFix.getLatitude() - degree);
                 double hexMin = 100.0 * minutes * (6.0/10.0);
                 String hexMinStr = new Double(hexMin).toString();
                 hexMinStr = noDps(hexMinStr, (byte)3);
@@ -371,13 +549,13 @@ public class GPSInfo {
         }
     }
     
-    public String getLngInDegMinDec() {
+    public String getLngInDegMinDec(GPSFix gpsFix) {
         try {
-            if (fix) {
-                int degree = (int)lng;
+            if (gpsFix.hasFix()) {
+                int degree = (int)gpsFix.getLongitude();
                 String degreeStr = new Integer(degree).toString();
                 String sgn = (degree>=0)?"E":"W";
-                double minutes = Math.abs(lng - degree);
+                double minutes = Math.abs(gpsFix.getLongitude() - degree);
                 double hexMin = 100.0 * minutes * (6.0/10.0);
                 String hexMinStr = new Double(hexMin).toString();
                 hexMinStr = noDps(hexMinStr, (byte)3);
@@ -392,10 +570,10 @@ public class GPSInfo {
         }
     }
     
-    public String getSpdMph() {
+    public String getSpdMph(GPSFix gpsFix) {
         try {
-            if (fix && spd != UNDEFINED) {
-                String spdStr = new Double(spd * MPS_TO_MPH).toString();
+            if (gpsFix.hasFix() && gpsFix.getSpeed() != UNDEFINED) {
+                String spdStr = new Double(gpsFix.getSpeed() * MPS_TO_MPH).toString();
                 spdStr = noDps(spdStr, (byte)2);
                 return spdStr + " mph";
             } else {
@@ -407,10 +585,10 @@ public class GPSInfo {
         }
     }
 
-    public String getSpdKph() {
+    public String getSpdKph(GPSFix gpsFix) {
         try {
-            if (fix && spd != UNDEFINED) {
-                String spdStr = new Double(spd * MPS_TO_KPH).toString();
+            if (gpsFix.hasFix() && gpsFix.getSpeed() != UNDEFINED) {
+                String spdStr = new Double(gpsFix.getSpeed() * MPS_TO_KPH).toString();
                 spdStr = noDps(spdStr, (byte)2);
                 return spdStr + " kph";
             } else {
@@ -422,10 +600,10 @@ public class GPSInfo {
         }
     }    
     
-    public String getHgtM() {
+    public String getHgtM(GPSFix gpsFix) {
         try {
-            if (fix) {
-                String hgtStr = new Double(hgt).toString();
+            if (gpsFix.hasFix() && gpsFix.hasHeight()) {
+                String hgtStr = new Double(gpsFix.getHeight()).toString();
                 hgtStr = noDps(hgtStr, (byte)2);
                 return hgtStr + " m";
             } else {
@@ -469,7 +647,7 @@ public class GPSInfo {
     
     public String getHgtFt() {
         try {
-            if (fix) {
+            if (fix && hgtKnown) {
                 String hgtStr = new Double(hgt * METRES_TO_FEET).toString();
                 hgtStr = noDps(hgtStr, (byte)0);
                 return hgtStr + " ft";
@@ -512,10 +690,10 @@ public class GPSInfo {
         }
     }
     
-    public String getGeoidHgtM() {
+    public String getGeoidHgtM(GPSFix gpsFix) {
         try {
-            if (fix) {
-                String geoidHgtStr = new Double(geoidHgt).toString();
+            if (gpsFix.hasFix()) {
+                String geoidHgtStr = new Double(gpsFix.getGeoidHeight()).toString();
                 geoidHgtStr = noDps(geoidHgtStr, (byte)2);
                 return geoidHgtStr + " m";
             } else {
@@ -748,10 +926,10 @@ public class GPSInfo {
         }
     }
     
-    public String getNumSats() {
+    public String getNumSats(GPSFix gpsFix) {
         try {
-            if (fix) {
-                String numSatsStr = Integer.toString(numSats);
+            if (gpsFix.hasFix()) {
+                String numSatsStr = Integer.toString(gpsFix.getNumSats());
                 return numSatsStr;
             } else {
                 return "--";
@@ -762,10 +940,10 @@ public class GPSInfo {
         }
     }
     
-    public String getEastingsAsStr() {
+    public String getEastingsAsStr(GPSFix gpsFix) {
         try {
-            if (fix) {
-                String eastingsStr = new Double(osGridRef.Eastings).toString();
+            if (gpsFix.hasFix()) {
+                String eastingsStr = new Double(gpsFix.getOSGridRef().Eastings).toString();
                 eastingsStr = noDps(eastingsStr, (byte)0);
                 return eastingsStr + " m";
             } else {
@@ -777,10 +955,10 @@ public class GPSInfo {
         }
     }
     
-    public String getNorthingsAsStr() {
+    public String getNorthingsAsStr(GPSFix gpsFix) {
         try {
-            if (fix) {
-                String northingsStr = new Double(osGridRef.Northings).toString();
+            if (gpsFix.hasFix()) {
+                String northingsStr = new Double(gpsFix.getOSGridRef().Northings).toString();
                 northingsStr = noDps(northingsStr, (byte)0);
                 return northingsStr + " m";
             } else {
@@ -838,6 +1016,19 @@ public class GPSInfo {
         year = Byte.parseByte(date.substring(4,6));
     }
     
+    //Used by the NMEA parser which reads the digits in place.
+    public void setTime(int hour, int minute, int second) {
+        this.hour = (byte)hour;
+        this.minute = (byte)minute;
+        this.second = (byte)second;
+    }
+    
+    public void setDate(int day, int month, int year) {
+        this.day = (byte)day;
+        this.month = (byte)month;
+        this.year = (byte)year;
+    }
+    
     private String leadingZeroes(String str, byte length) {
         String zeroes = "";
         if (str.length() >= str.length() - length) return str;
@@ -26,11 +26,22 @@
  * desc: This class is used to store the currently loaded image and provides methods
  * for registering that image.  In addition control points, guidance points and gpx
  * points are also stored here.
+ *
+ * Registration is an affine transformation (scale, rotation and shear) from image x, y
+ * to eastings, northings fitted to the control points by least squares.  With only two
+ * control points (or three or more almost in a line) the image is taken to be aligned
+ * with the grid and only the scale along each axis is fitted.
 */
 
 package geo;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
 import javax.microedition.lcdui.*;
 
 public class GeoImage {
@@ -38,12 +49,26 @@ public class GeoImage {
     private String imageFile = "";
     private String imageDir;
     private String xmlFile;
+    private String registrationFile;
     private Image image;
     
     public Vector controlPoints = new Vector();
     public Vector guidancePoints = new Vector();
-    //Vector of gpx points converted to OS grid
-    public Vector gpxPoints = new Vector();
+    //gpx points converted to OS grid.  TrackStore holds them compactly and indexed by
+    //position so those near the current position or on screen can be found without
+    //looking at them all.
+    public TrackStore gpxPoints = new TrackStore();
+    //Image positions of the gpx points so they aren't worked out every frame.  Points are
+    //projected when first needed after being added, and all again after the map is
+    //registered (i.e. the control points change).
+    private int[] gpxImageX = new int[0];
+    private int[] gpxImageY = new int[0];
+    private int gpxProjected;
+    //Guidance points indexed by position (see SpatialIndex), kept up to date by the add /
+    //remove methods.  Control points (at most MAX_CONTROL_PTS and drawn by image position
+    //before the map is registered) aren't indexed.
+    private static final double GUIDANCE_CELL_SIZE = 250;
+    private SpatialIndex guidanceIndex = new SpatialIndex(GUIDANCE_CELL_SIZE);
     public double pixelHeight;
     public double pixelWidth;
     public double imageOriginEastings;
@@ -54,9 +79,14 @@ public class GeoImage {
     public double minLat, maxLat, minLon, maxLon;
     
     public boolean registered;
-    //i.e. the control point which produces the pixel size
-    //with the smallest difference from the mean.
-    private ControlPoint bestControlPoint;
+    
+    //Image x, y to eastings, northings
+    //  eastings = gridE0 + gridEx * x + gridEy * y (northings likewise)
+    //and the inverse, image x, y from eastings, northings.
+    private double gridE0, gridEx, gridEy, gridN0, gridNx, gridNy;
+    private double imageX0, imageXe, imageXn, imageY0, imageYe, imageYn;
+    //Below this the control points are taken to be in a line (see fitAffine).
+    private static final double MIN_SPREAD = 0.01;
     
     private float scaleIndex = 1;
 
@@ -67,12 +97,94 @@ public class GeoImage {
     private static final int MAX_EASTINGS = 700000;
     private static final int MAX_NORTHINGS = 1300000;   
       
-    private CoordSys coordSys;
+    //The registration is worked out with (and sets the grid shift and lookup grid of) this
+    //transform.  It is the shared one unless the map is being got ready in the background
+    //(setBackground).
+    private OSGBTransform transform = OSGBTransform.WGS84_OSGB36;
+    private boolean background;
+    private GridShift gridShift;
+    
+    //Grid shift file (see GridShift) looked for in the map's directory.  If there isn't
+    //one the Helmert transformation is used.
+    public static final String GRID_SHIFT_FILE = "gridshift.osgf";
+    //The grid shift is loaded for this far (metres) around the map as projected ETRS89
+    //coordinates are around 100m from OS grid refs.
+    private static final int GRID_SHIFT_MARGIN = 1000;
+    
+    //Geoid grid file (see GeoidModel) looked for in the map's directory.  If there isn't
+    //one heights are as given by the GPS.
+    public static final String GEOID_FILE = "geoid.osgm";
+    
+    //Lat / long to pixel polynomial (see PixelPolynomial) fitted to a SAMPLE_POINTS x
+    //SAMPLE_POINTS lattice across the map and the control points, then checked at the
+    //middle of each lattice cell.  Only used if the residual is within MAX_PIXEL_RESIDUAL.
+    private static final int SAMPLE_POINTS = 9;
+    public static final double MAX_PIXEL_RESIDUAL = 0.25;
+    private volatile PixelPolynomial pixelPolynomial;
+    private LookupGrid lookupGrid;
+    private double pixelResidual = -1;
     
     /** Creates a new instance of GeoImage */
     public GeoImage() {
     }
     
+    //For a map got ready off the canvas thread (MapSwitcher).  It is registered with a
+    //transform of its own so the map on screen isn't affected until adopt swaps it in.
+    public void setBackground() {
+        transform = new OSGBTransform();
+        background = true;
+    }
+    
+    //Changes this image to a map got ready in the background.  Everything has already
+    //been read and worked out so this is quick enough for the canvas thread.  gpx points
+    //are kept - a route will usually go across several maps.
+    public void adopt(GeoImage map) {
+        image = map.image;
+        imageFile = map.imageFile;
+        imageDir = map.imageDir;
+        xmlFile = map.xmlFile;
+        registrationFile = map.registrationFile;
+        
+        removeAllControlPoints();
+        for (int i = 0; i < map.controlPoints.size(); i++) {
+            addControlPoint((ControlPoint) map.controlPoints.elementAt(i));
+        }
+        removeAllGuidancePoints();
+        for (int i = 0; i < map.guidancePoints.size(); i++) {
+            addGuidancePoint((GuidancePoint) map.guidancePoints.elementAt(i));
+        }
+        
+        synchronized (this) {
+            gridE0 = map.gridE0;
+            gridEx = map.gridEx;
+            gridEy = map.gridEy;
+            gridN0 = map.gridN0;
+            gridNx = map.gridNx;
+            gridNy = map.gridNy;
+            invertAffine();
+            gpxProjected = 0;
+        }
+        pixelWidth = map.pixelWidth;
+        pixelHeight = map.pixelHeight;
+        imageOriginEastings = map.imageOriginEastings;
+        imageOriginNorthings = map.imageOriginNorthings;
+        imageBottomRightEastings = map.imageBottomRightEastings;
+        imageBottomRightNorthings = map.imageBottomRightNorthings;
+        minLat = map.minLat;
+        maxLat = map.maxLat;
+        minLon = map.minLon;
+        maxLon = map.maxLon;
+        pixelResidual = map.pixelResidual;
+        pixelPolynomial = map.pixelPolynomial;
+        lookupGrid = map.lookupGrid;
+        gridShift = map.gridShift;
+        registered = map.registered;
+        
+        transform.setGridShift(gridShift);
+        transform.setLookupGrid(lookupGrid);
+        GeoidModel.DEFAULT.setFile(imageDir + GEOID_FILE);
+    }
+    
     public void setImage(Image i) {
         image = i;
     }
@@ -85,6 +197,10 @@ public class GeoImage {
         imageFile = filename;
         imageDir = filename.substring(0, filename.lastIndexOf('/') + 1);
         xmlFile = filename.substring(0, (filename.lastIndexOf('.'))) + ".xml";
+        registrationFile = filename.substring(0, (filename.lastIndexOf('.'))) + RegistrationFile.EXTENSION;
+        if (!background) {
+            GeoidModel.DEFAULT.setFile(imageDir + GEOID_FILE);
+        }
     }
    
     public String getDirname() {
@@ -99,28 +215,97 @@ public class GeoImage {
         return xmlFile;
     }
     
+    public String getRegistrationFilename() {
+        return registrationFile;
+    }
+    
     public void addGuidancePoint(GuidancePoint guidancePoint) {
       guidancePoints.addElement(guidancePoint);
+      guidanceIndex.add(guidancePoint, guidancePoint.eastings, guidancePoint.northings);
     }
     
-    public void addGPXPointAsOSGridRef(OSGridRef osGridRef) {
-      gpxPoints.addElement(osGridRef);
+    public void addGPXPoint(double eastings, double northings) {
+      gpxPoints.add(eastings, northings);
     }    
 
     public void removeAllGPXPoints() {
-        gpxPoints.removeAllElements();
+        gpxPoints.clear();
+        synchronized (this) {
+            gpxImageX = new int[0];
+            gpxImageY = new int[0];
+            gpxProjected = 0;
+        }
     }    
     
-    public Vector getGPXPoints() {
+    //Works out the image positions of any gpx points added (or of all of them after the
+    //map is registered) and returns the number of points with positions.  The positions
+    //are then read from getGPXImageX / getGPXImageY by point number.
+    public synchronized int projectGPXPoints() {
+        int size = gpxPoints.size();
+        if (size > gpxImageX.length) {
+            int[] newX = new int[Math.max(size, gpxImageX.length * 2)];
+            int[] newY = new int[newX.length];
+            System.arraycopy(gpxImageX, 0, newX, 0, gpxProjected);
+            System.arraycopy(gpxImageY, 0, newY, 0, gpxProjected);
+            gpxImageX = newX;
+            gpxImageY = newY;
+        }
+        for (int i = gpxProjected; i < size; i++) {
+            double eastings = gpxPoints.getEastings(i);
+            double northings = gpxPoints.getNorthings(i);
+            gpxImageX[i] = (int) (imageX0 + imageXe * eastings + imageXn * northings);
+            gpxImageY[i] = (int) (imageY0 + imageYe * eastings + imageYn * northings);
+        }
+        gpxProjected = size;
+        return size;
+    }
+    
+    public synchronized int[] getGPXImageX() {
+        return gpxImageX;
+    }
+    
+    public synchronized int[] getGPXImageY() {
+        return gpxImageY;
+    }
+    
+    //Number of gpx points within radius metres of the grid ref.  Their numbers (see
+    //TrackStore) are put in result (up to its length, null if only the number is wanted).
+    public int getGPXPointsNear(OSGridRef osGridRef, double radius, int[] result) {
+        return gpxPoints.queryRadius(osGridRef.Eastings, osGridRef.Northings, radius, result);
+    }
+    
+    //Number of gpx points inside the rectangle of the image (image coordinates) - see
+    //getGPXPointsNear.  None if the map isn't registered.
+    public int getGPXPointsInImageRect(int minX, int minY, int maxX, int maxY, int[] result) {
+        if (!registered) {
+            return 0;
+        }
+        //The rectangle may be rotated on the grid so take the extent of its corners.
+        double e1 = gridEastings(minX, minY), e2 = gridEastings(maxX, minY);
+        double e3 = gridEastings(minX, maxY), e4 = gridEastings(maxX, maxY);
+        double n1 = gridNorthings(minX, minY), n2 = gridNorthings(maxX, minY);
+        double n3 = gridNorthings(minX, maxY), n4 = gridNorthings(maxX, maxY);
+        return gpxPoints.query(Math.min(Math.min(e1, e2), Math.min(e3, e4)), Math.min(Math.min(n1, n2), Math.min(n3, n4)),
+                Math.max(Math.max(e1, e2), Math.max(e3, e4)), Math.max(Math.max(n1, n2), Math.max(n3, n4)), result);
+    }
+    
+    public TrackStore getGPXPoints() {
       return gpxPoints;
     }
     
     public void removeGuidancePoint(GuidancePoint guidancePoint) {
       guidancePoints.removeElement(guidancePoint);
+      guidanceIndex.remove(guidancePoint, guidancePoint.eastings, guidancePoint.northings);
     }
     
     public void removeAllGuidancePoints() {
         guidancePoints.removeAllElements();
+        guidanceIndex.clear();
+    }
+    
+    //Guidance points within radius metres of the grid ref put into result.
+    public void getGuidancePointsNear(OSGridRef osGridRef, double radius, Vector result) {
+        guidanceIndex.queryRadius(osGridRef.Eastings, osGridRef.Northings, radius, result);
     }
     
     public Vector getGuidancePoints() {
@@ -176,130 +361,453 @@ public class GeoImage {
     }
     
     public void registerImage() {
-        double totalPixelWidth, totalPixelHeight;
-        double totalPixelWidthMinusMean, totalPixelHeightMinusMean;
-        ControlPoint controlPointI;
-        ControlPoint controlPointJ;
-        ImagePoint imagePointBottomRight;
-        OSGridRef osGridRefBottomRight;
-        LatLong latLongImageOrigin;
-        LatLong latLongBottomRight;
+        pixelPolynomial = null;
+        pixelResidual = -1;
         
-        //Loop round control points and calculate pixel height/width
-        //to other control points.
-        for (int i = 0; i < controlPoints.size(); i++) {
-            
-            controlPointI = (ControlPoint) controlPoints.elementAt(i);
-            Vector pixels = new Vector();
-            
-            for (int j = 0; j < controlPoints.size(); j++) {
-                controlPointJ = (ControlPoint) controlPoints.elementAt(j);
-                if (controlPointI != controlPointJ) {
-                    //Calculate pixel height and width between i and j.
-                    Pixel pixel = new Pixel();
-                    pixel.Width = Math.abs((controlPointI.eastings - controlPointJ.eastings) / (controlPointI.image_x - controlPointJ.image_x));
-                    pixel.Height = Math.abs((controlPointI.northings - controlPointJ.northings) / (controlPointI.image_y - controlPointJ.image_y));
-                    pixels.addElement(pixel);
-                }
-            }
-            
-            //Get average
-            totalPixelWidth = 0.0;            
-            totalPixelHeight = 0.0;
-            for (int j = 0; j < pixels.size(); j++) {
-                Pixel pixel = new Pixel();               
-                pixel = (Pixel) pixels.elementAt(j);
-                totalPixelWidth = totalPixelWidth + pixel.Width;                
-                totalPixelHeight = totalPixelHeight + pixel.Height;                
+        synchronized (this) {
+            fitAffine();
+            //gpx point positions are projected again with the new registration.
+            gpxProjected = 0;
+        }
+        
+        double[] cornerEastings = new double[4];
+        double[] cornerNorthings = new double[4];
+        registerGrid(cornerEastings, cornerNorthings);
+        
+        //Calculate min max latitude and longitude covered by image.
+        //Grid north isn't true north so all four corners are converted.
+        double[] cornerLats = new double[4];
+        double[] cornerLons = new double[4];
+        transform.toWGS84(cornerEastings, cornerNorthings, cornerLats, cornerLons, 0, 4);
+        
+        minLat = maxLat = cornerLats[0];
+        minLon = maxLon = cornerLons[0];
+        for (int i = 1; i < 4; i++) {
+            minLat = Math.min(minLat, cornerLats[i]);
+            maxLat = Math.max(maxLat, cornerLats[i]);
+            minLon = Math.min(minLon, cornerLons[i]);
+            maxLon = Math.max(maxLon, cornerLons[i]);
+        }
+        
+        //Positions on the map are then interpolated from a grid of exact conversions
+        //(unless the map is too big for the grid to be accurate enough).
+        lookupGrid = null;
+        if (maxLat > minLat && maxLon > minLon) {
+            lookupGrid = new LookupGrid(transform, minLat, maxLat, minLon, maxLon,
+                    LookupGrid.DEFAULT_TOLERANCE);
+            if (lookupGrid.getErrorBound() > LookupGrid.DEFAULT_TOLERANCE) {
+                lookupGrid = null;
             }
-            controlPointI.pixelWidth = totalPixelWidth / pixels.size();
-            controlPointI.pixelHeight = totalPixelHeight / pixels.size();
-            
         }
+        transform.setLookupGrid(lookupGrid);
         
-        //Set the pixel height, width of the image to the average.
-        totalPixelWidth = 0.0;
-        totalPixelHeight = 0.0;        
+        fitPixelPolynomial();
+    }
+    
+    //The parts of the registration which follow directly from the affine transformation.
+    private void registerGrid(double[] cornerEastings, double[] cornerNorthings) {
+        //Residual (fitted less actual grid ref) at each control point.
         for (int i = 0; i < controlPoints.size(); i++) {
-            controlPointI = (ControlPoint) controlPoints.elementAt(i);
-            totalPixelWidth = totalPixelWidth + controlPointI.pixelHeight;                
-            totalPixelHeight = totalPixelHeight + controlPointI.pixelWidth;                
+            ControlPoint controlPoint = (ControlPoint) controlPoints.elementAt(i);
+            controlPoint.residualEastings = gridEastings(controlPoint.image_x, controlPoint.image_y) - controlPoint.eastings;
+            controlPoint.residualNorthings = gridNorthings(controlPoint.image_x, controlPoint.image_y) - controlPoint.northings;
         }
         
-        this.pixelWidth = totalPixelWidth / controlPoints.size();
-        this.pixelHeight = totalPixelHeight / controlPoints.size();
+        //Metres per pixel along the image x and y axes.
+        pixelWidth = Math.sqrt(gridEx * gridEx + gridNx * gridNx);
+        pixelHeight = Math.sqrt(gridEy * gridEy + gridNy * gridNy);
         
-        //Populate the difference from the mean for each control point
-        for (int i = 0; i < controlPoints.size(); i++) {
-            controlPointI = (ControlPoint) controlPoints.elementAt(i);
-            controlPointI.pixelWidthDiffFromMean = controlPointI.pixelWidth - this.pixelWidth;                
-            controlPointI.pixelHeightDiffFromMean = controlPointI.pixelHeight - this.pixelHeight;
-        }       
+        //Image origin (top left hand corner) and bottom right corner.
+        double width = image.getWidth();
+        double height = image.getHeight();
+        imageOriginEastings = gridE0;
+        imageOriginNorthings = gridN0;
+        imageBottomRightEastings = gridEastings(width, height);
+        imageBottomRightNorthings = gridNorthings(width, height);
+        
+        //The image may be rotated on the grid so all four corners are needed.
+        double[] bounds = new double[4];
+        corners(width, height, cornerEastings, cornerNorthings, bounds);
         
-        //Identify the point with the smallest positional difference from the mean.
-        //This point is used to calculate the eastings and northings of the
-        //image origin (top left hand corner).
-        double diffAsLength;
-        double minLength = 0.0;
+        loadGridShift(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+    
+    //Writes the control and guidance points and the registration worked out from them
+    //(RegistrationFile).
+    void writeRegistration(DataOutputStream out) throws IOException {
+        out.writeInt(controlPoints.size());
         for (int i = 0; i < controlPoints.size(); i++) {
-            controlPointI = (ControlPoint) controlPoints.elementAt(i);
-            diffAsLength = Math.sqrt((controlPointI.pixelWidthDiffFromMean * controlPointI.pixelWidthDiffFromMean) +
-                    (controlPointI.pixelHeightDiffFromMean * controlPointI.pixelHeightDiffFromMean));       
-            if (i == 0) {
-                minLength = diffAsLength;
-                bestControlPoint = controlPointI;
-            } else {
-                if (diffAsLength < minLength) {
-                    bestControlPoint = controlPointI;
-                }
+            ControlPoint controlPoint = (ControlPoint) controlPoints.elementAt(i);
+            out.writeInt(controlPoint.image_x);
+            out.writeInt(controlPoint.image_y);
+            out.writeDouble(controlPoint.eastings);
+            out.writeDouble(controlPoint.northings);
+        }
+        out.writeInt(guidancePoints.size());
+        for (int i = 0; i < guidancePoints.size(); i++) {
+            GuidancePoint guidancePoint = (GuidancePoint) guidancePoints.elementAt(i);
+            out.writeInt(guidancePoint.image_x);
+            out.writeInt(guidancePoint.image_y);
+            out.writeDouble(guidancePoint.eastings);
+            out.writeDouble(guidancePoint.northings);
+            out.writeUTF(guidancePoint.wavFileName == null ? "" : guidancePoint.wavFileName);
+            out.writeBoolean(guidancePoint.userDefined);
+        }
+        out.writeBoolean(registered);
+        if (registered) {
+            out.writeDouble(gridE0);
+            out.writeDouble(gridEx);
+            out.writeDouble(gridEy);
+            out.writeDouble(gridN0);
+            out.writeDouble(gridNx);
+            out.writeDouble(gridNy);
+            out.writeDouble(minLat);
+            out.writeDouble(maxLat);
+            out.writeDouble(minLon);
+            out.writeDouble(maxLon);
+            out.writeBoolean(lookupGrid != null);
+            if (lookupGrid != null) {
+                lookupGrid.write(out);
+            }
+            PixelPolynomial polynomial = pixelPolynomial;
+            out.writeDouble(pixelResidual);
+            out.writeBoolean(polynomial != null);
+            if (polynomial != null) {
+                polynomial.write(out);
+            }
+        }
+    }
+    
+    //Sets the points and registration from what writeRegistration wrote instead of
+    //reading the settings file and registering the image again.  Everything is read
+    //before anything is changed so the image is left alone if the data is bad.
+    void readRegistration(DataInputStream in) throws IOException {
+        Vector newControlPoints = readControlPoints(in);
+        Vector newGuidancePoints = new Vector();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int x = in.readInt();
+            int y = in.readInt();
+            double eastings = in.readDouble();
+            double northings = in.readDouble();
+            newGuidancePoints.addElement(new GuidancePoint(x, y, eastings, northings,
+                    in.readUTF(), in.readBoolean()));
+        }
+        boolean newRegistered = in.readBoolean();
+        double[] affine = new double[6];
+        double[] latLongs = new double[4];
+        LookupGrid newLookupGrid = null;
+        PixelPolynomial polynomial = null;
+        double residual = -1;
+        if (newRegistered) {
+            for (int i = 0; i < affine.length; i++) {
+                affine[i] = in.readDouble();
+            }
+            for (int i = 0; i < latLongs.length; i++) {
+                latLongs[i] = in.readDouble();
+            }
+            if (in.readBoolean()) {
+                newLookupGrid = LookupGrid.read(in);
+            }
+            residual = in.readDouble();
+            if (in.readBoolean()) {
+                polynomial = PixelPolynomial.read(in);
+            }
+        }
+        
+        removeAllControlPoints();
+        removeAllGuidancePoints();
+        for (int i = 0; i < newControlPoints.size(); i++) {
+            addControlPoint((ControlPoint) newControlPoints.elementAt(i));
+        }
+        for (int i = 0; i < newGuidancePoints.size(); i++) {
+            addGuidancePoint((GuidancePoint) newGuidancePoints.elementAt(i));
+        }
+        pixelPolynomial = null;
+        pixelResidual = -1;
+        registered = false;
+        if (newRegistered) {
+            synchronized (this) {
+                gridE0 = affine[0];
+                gridEx = affine[1];
+                gridEy = affine[2];
+                gridN0 = affine[3];
+                gridNx = affine[4];
+                gridNy = affine[5];
+                invertAffine();
+                gpxProjected = 0;
             }
+            registerGrid(new double[4], new double[4]);
+            minLat = latLongs[0];
+            maxLat = latLongs[1];
+            minLon = latLongs[2];
+            maxLon = latLongs[3];
+            lookupGrid = newLookupGrid;
+            transform.setLookupGrid(lookupGrid);
+            pixelResidual = residual;
+            pixelPolynomial = polynomial;
+            registered = true;
         }
+    }
+    
+    //Sets just the control points from what writeRegistration wrote (the image isn't
+    //needed so this can be used for a map which isn't loaded - MapCatalog).
+    void readControlPointsOnly(DataInputStream in) throws IOException {
+        Vector newControlPoints = readControlPoints(in);
+        removeAllControlPoints();
+        for (int i = 0; i < newControlPoints.size(); i++) {
+            addControlPoint((ControlPoint) newControlPoints.elementAt(i));
+        }
+    }
+    
+    private static Vector readControlPoints(DataInputStream in) throws IOException {
+        Vector newControlPoints = new Vector();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            newControlPoints.addElement(new ControlPoint(in.readInt(), in.readInt(),
+                    in.readDouble(), in.readDouble()));
+        }
+        return newControlPoints;
+    }
+    
+    private void fitAffine() {
+        //Least squares fit of the affine transformation to the control points.  Image
+        //coordinates are taken from their mean which leaves a 2 x 2 set of normal equations
+        //(the same for eastings and northings) solved directly.
+        int n = controlPoints.size();
+        double meanX = 0, meanY = 0, meanE = 0, meanN = 0;
+        for (int i = 0; i < n; i++) {
+            ControlPoint controlPoint = (ControlPoint) controlPoints.elementAt(i);
+            meanX += controlPoint.image_x;
+            meanY += controlPoint.image_y;
+            meanE += controlPoint.eastings;
+            meanN += controlPoint.northings;
+        }
+        meanX /= n;
+        meanY /= n;
+        meanE /= n;
+        meanN /= n;
         
-        //Calculate image origin - top left hand corner.
-        imageOriginEastings = bestControlPoint.eastings - pixelWidth * (bestControlPoint.image_x);
-        imageOriginNorthings = bestControlPoint.northings + pixelHeight * (bestControlPoint.image_y);
+        double sxx = 0, sxy = 0, syy = 0, sxe = 0, sye = 0, sxn = 0, syn = 0;
+        for (int i = 0; i < n; i++) {
+            ControlPoint controlPoint = (ControlPoint) controlPoints.elementAt(i);
+            double dx = controlPoint.image_x - meanX;
+            double dy = controlPoint.image_y - meanY;
+            double de = controlPoint.eastings - meanE;
+            double dn = controlPoint.northings - meanN;
+            sxx += dx * dx;
+            sxy += dx * dy;
+            syy += dy * dy;
+            sxe += dx * de;
+            sye += dy * de;
+            sxn += dx * dn;
+            syn += dy * dn;
+        }
+        
+        double det = sxx * syy - sxy * sxy;
+        if (det > MIN_SPREAD * sxx * syy) {
+            gridEx = (sxe * syy - sye * sxy) / det;
+            gridEy = (sye * sxx - sxe * sxy) / det;
+            gridNx = (sxn * syy - syn * sxy) / det;
+            gridNy = (syn * sxx - sxn * sxy) / det;
+        } else {
+            //Points (nearly) in a line - eastings from x and northings from y only.
+            gridEx = sxe / sxx;
+            gridEy = 0;
+            gridNx = 0;
+            gridNy = syn / syy;
+        }
+        gridE0 = meanE - gridEx * meanX - gridEy * meanY;
+        gridN0 = meanN - gridNx * meanX - gridNy * meanY;
+        invertAffine();
+    }
+    
+    private void invertAffine() {
+        double inverseDet = 1 / (gridEx * gridNy - gridEy * gridNx);
+        imageXe = gridNy * inverseDet;
+        imageXn = -gridEy * inverseDet;
+        imageYe = -gridNx * inverseDet;
+        imageYn = gridEx * inverseDet;
+        imageX0 = -(imageXe * gridE0 + imageXn * gridN0);
+        imageY0 = -(imageYe * gridE0 + imageYn * gridN0);
+    }
+    
+    //Grid bounds (min eastings, min northings, max eastings, max northings) of an image
+    //width x height pixels registered with the control points.  Unlike registerImage
+    //nothing else is changed so this can be used on a GeoImage holding just the control
+    //points of a map which isn't loaded (MapCatalog).
+    public boolean getGridBounds(int width, int height, double[] bounds) {
+        if (controlPoints.size() < 2 || width <= 0 || height <= 0) {
+            return false;
+        }
+        synchronized (this) {
+            fitAffine();
+            corners(width, height, new double[4], new double[4], bounds);
+        }
+        return true;
+    }
+    
+    private void corners(double width, double height, double[] cornerEastings, double[] cornerNorthings,
+            double[] bounds) {
+        cornerEastings[0] = gridEastings(0, 0);
+        cornerEastings[1] = gridEastings(width, 0);
+        cornerEastings[2] = gridEastings(0, height);
+        cornerEastings[3] = gridEastings(width, height);
+        cornerNorthings[0] = gridNorthings(0, 0);
+        cornerNorthings[1] = gridNorthings(width, 0);
+        cornerNorthings[2] = gridNorthings(0, height);
+        cornerNorthings[3] = gridNorthings(width, height);
+        bounds[0] = bounds[2] = cornerEastings[0];
+        bounds[1] = bounds[3] = cornerNorthings[0];
+        for (int i = 1; i < 4; i++) {
+            bounds[0] = Math.min(bounds[0], cornerEastings[i]);
+            bounds[1] = Math.min(bounds[1], cornerNorthings[i]);
+            bounds[2] = Math.max(bounds[2], cornerEastings[i]);
+            bounds[3] = Math.max(bounds[3], cornerNorthings[i]);
+        }
+    }
+    
+    private double gridEastings(double x, double y) {
+        return gridE0 + gridEx * x + gridEy * y;
+    }
+    
+    private double gridNorthings(double x, double y) {
+        return gridN0 + gridNx * x + gridNy * y;
+    }
+    
+    private void fitPixelPolynomial() {
+        //Fits the lat / long to pixel polynomial to points converted the slow way.
+        if (!(maxLat > minLat && maxLon > minLon)) {
+            return;
+        }
+        int samples = SAMPLE_POINTS * SAMPLE_POINTS;
+        int count = samples + controlPoints.size();
+        double[] eastings = new double[count];
+        double[] northings = new double[count];
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double[] lat = new double[count];
+        double[] lon = new double[count];
         
-        //Calcuate OS coords of bottom right corner.
-        imagePointBottomRight = new ImagePoint(image.getWidth(), image.getHeight());
-        osGridRefBottomRight = imagePointAsGridRef(imagePointBottomRight);
+        double width = image.getWidth();
+        double height = image.getHeight();
+        int n = 0;
+        for (int i = 0; i < SAMPLE_POINTS; i++) {
+            for (int j = 0; j < SAMPLE_POINTS; j++) {
+                x[n] = width * j / (SAMPLE_POINTS - 1);
+                y[n] = height * i / (SAMPLE_POINTS - 1);
+                n++;
+            }
+        }
+        for (int i = 0; i < controlPoints.size(); i++) {
+            ControlPoint controlPoint = (ControlPoint) controlPoints.elementAt(i);
+            x[n] = imageX0 + imageXe * controlPoint.eastings + imageXn * controlPoint.northings;
+            y[n] = imageY0 + imageYe * controlPoint.eastings + imageYn * controlPoint.northings;
+            n++;
+        }
         
-        //Calculate min max latitude and longitude covered by image
-        //Origin as lat long.
-        coordSys = new CoordSys();
-        latLongImageOrigin = coordSys.getWGS84LatLong(imageOriginEastings, imageOriginNorthings);
-        //Bottom right corner as lat long.
-        latLongBottomRight = coordSys.getWGS84LatLong(osGridRefBottomRight.Eastings, osGridRefBottomRight.Northings);
+        PixelPolynomial polynomial = new PixelPolynomial(minLat, maxLat, minLon, maxLon);
+        toLatLongs(x, y, eastings, northings, lat, lon, count);
+        if (!polynomial.fit(lat, lon, x, y, count)) {
+            return;
+        }
         
-        minLat = latLongBottomRight.Latitude;
-        maxLat = latLongImageOrigin.Latitude;
-        minLon = latLongImageOrigin.Longitude;
-        maxLon = latLongBottomRight.Longitude;
-        coordSys = null;
+        //Check between the samples.
+        n = 0;
+        for (int i = 0; i < SAMPLE_POINTS - 1; i++) {
+            for (int j = 0; j < SAMPLE_POINTS - 1; j++) {
+                x[n] = width * (j + 0.5) / (SAMPLE_POINTS - 1);
+                y[n] = height * (i + 0.5) / (SAMPLE_POINTS - 1);
+                n++;
+            }
+        }
+        toLatLongs(x, y, eastings, northings, lat, lon, n);
+        pixelResidual = polynomial.check(lat, lon, x, y, n);
+        if (pixelResidual <= MAX_PIXEL_RESIDUAL) {
+            pixelPolynomial = polynomial;
+        }
+    }
+    
+    private void toLatLongs(double[] x, double[] y, double[] eastings, double[] northings,
+            double[] lat, double[] lon, int count) {
+        for (int i = 0; i < count; i++) {
+            eastings[i] = gridEastings(x[i], y[i]);
+            northings[i] = gridNorthings(x[i], y[i]);
+        }
+        transform.toWGS84(eastings, northings, lat, lon, 0, count);
+    }
+    
+    //Largest difference (pixels) between the lat / long to pixel polynomial and the
+    //conversion through the OS grid, or -1 if the map isn't registered.  The polynomial is
+    //only used if this is within MAX_PIXEL_RESIDUAL.
+    public double getPixelResidual() {
+        return pixelResidual;
+    }
+    
+    private void loadGridShift(double minE, double minN, double maxE, double maxN) {
+        //Loads the part of the grid shift file covering the map (if there is one).
+        gridShift = null;
+        FileConnection fileConn = null;
+        InputStream is = null;
+        try {
+            if (imageDir != null) {
+                fileConn = (FileConnection) Connector.open(imageDir + GRID_SHIFT_FILE, Connector.READ);
+                if (fileConn.exists()) {
+                    is = fileConn.openInputStream();
+                    gridShift = GridShift.read(is, minE - GRID_SHIFT_MARGIN, minN - GRID_SHIFT_MARGIN,
+                            maxE + GRID_SHIFT_MARGIN, maxN + GRID_SHIFT_MARGIN);
+                }
+            }
+        } catch (Exception e) {
+            //Unreadable file - fall back to the Helmert transformation.
+            gridShift = null;
+        } finally {
+            try {
+                if (is != null) {
+                    is.close();
+                }
+                if (fileConn != null) {
+                    fileConn.close();
+                }
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        transform.setGridShift(gridShift);
     }
     
     public ImagePoint osGridRefAsImagePoint(OSGridRef osGridRef) {
-        
-        double image_x, image_y;
-        int intImage_x, intImage_y;
-
-        image_x = (osGridRef.Eastings - imageOriginEastings) / pixelWidth;
-        image_y = (imageOriginNorthings - osGridRef.Northings) / pixelHeight;
-        intImage_x = (int) image_x;
-        intImage_y = (int) image_y;
-        ImagePoint imagePoint = new ImagePoint(intImage_x, intImage_y);
+        return osGridRefAsImagePoint(osGridRef, new ImagePoint());
+    }
+    
+    public ImagePoint osGridRefAsImagePoint(OSGridRef osGridRef, ImagePoint imagePoint) {
+        imagePoint.image_x = (int) (imageX0 + imageXe * osGridRef.Eastings + imageXn * osGridRef.Northings);
+        imagePoint.image_y = (int) (imageY0 + imageYe * osGridRef.Eastings + imageYn * osGridRef.Northings);
         return imagePoint;
     }
     
+    //Position of a fix on the image written to imagePoint.  Straight from lat / long if
+    //the polynomial is good enough and covers the fix, otherwise through the OS grid ref.
+    public ImagePoint fixAsImagePoint(GPSFix fix, ImagePoint imagePoint) {
+        PixelPolynomial polynomial = pixelPolynomial;
+        double lat = fix.getLatitude();
+        double lon = fix.getLongitude();
+        if (polynomial != null && polynomial.contains(lat, lon)) {
+            imagePoint.image_x = (int) polynomial.getX(lat, lon);
+            imagePoint.image_y = (int) polynomial.getY(lat, lon);
+            return imagePoint;
+        }
+        return osGridRefAsImagePoint(fix.getOSGridRef(), imagePoint);
+    }
+    
     public OSGridRef imagePointAsGridRef(ImagePoint imagePoint) {
-        
-        double eastings, northings;
-        int intEastings, intNorthings;
-
-        eastings = (pixelWidth * imagePoint.image_x) + imageOriginEastings;
-        northings = imageOriginNorthings - (pixelHeight * imagePoint.image_y);
-        intEastings = (int) eastings;
-        intNorthings = (int) northings;
-        OSGridRef osGridRef = new OSGridRef(intEastings, intNorthings);
+        return imagePointAsGridRef(imagePoint, new OSGridRef());
+    }
+    
+    //Grid ref truncated to whole metres.
+    public OSGridRef imagePointAsGridRef(ImagePoint imagePoint, OSGridRef osGridRef) {
+        osGridRef.Eastings = (int) gridEastings(imagePoint.image_x, imagePoint.image_y);
+        osGridRef.Northings = (int) gridNorthings(imagePoint.image_x, imagePoint.image_y);
         return osGridRef;
     }
     
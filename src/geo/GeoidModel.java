@@ -0,0 +1,446 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: GeoidModel
+ *
+ * desc: GeoidModel gives the geoid undulation (height of the geoid above the WGS84
+ * ellipsoid) from a grid file so that heights above sea level can be worked out from
+ * the ellipsoid height.  Many receivers report a geoid height of 0 (or a crude one) so
+ * the height in GGA is really the ellipsoid height or is out by metres.
+ *
+ * The grid is split into square tiles which are read from the file by a loader thread,
+ * not the GPS thread which asks for the values, so a slow card (or a file access prompt)
+ * doesn't hold up the fixes.  A tile is read when a fix first falls in it, giving NaN
+ * until it's there, and the tiles next to a fix are read ahead once it's within
+ * PREFETCH_MARGIN of them.  The last TILE_CACHE_SIZE tiles used are kept so moving about
+ * a map only reads the file now and then.  If there's no file (the usual case as it isn't
+ * shipped with the maps), it isn't a geoid file or it may not be read there's no model
+ * until setFile gives another file.  Other read errors are tried again after RETRY_DELAY,
+ * doubling each time.  Values are bilinearly interpolated from the
+ * four nodes around the point.  Tiles overlap by one row and column of nodes so the four
+ * nodes are always in the same tile.
+ *
+ * The grid file is binary (big endian, as read by DataInputStream):
+ *   int   MAGIC
+ *   int   VERSION
+ *   int   latitude, longitude of the first node (millionths of a degree)
+ *   int   node spacing (millionths of a degree)
+ *   int   rows, columns of nodes
+ *   int   cells along each side of a tile
+ *   then the tiles row by row (south to north, west to east), each cells + 1 rows
+ *   (south to north) of cells + 1 nodes (west to east), each a short undulation in
+ *   centimetres.  Tiles at the north and east edges are padded to full size.
+ * The whole of GB at 1 minute spacing with 32 cell tiles is around 1MB.
+ */
+
+package geo;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+public class GeoidModel implements Runnable {
+
+    //Shared by the GPS (EpochAssembler) and the map (GeoImage) which says where the file is.
+    public static final GeoidModel DEFAULT = new GeoidModel();
+
+    public static final int MAGIC = 0x4F53474D;  //"OSGM"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8 * 4;
+    private static final double UNITS_PER_METRE = 100.0;
+    private static final double MICRODEGREES = 1000000.0;
+    public static final int TILE_CACHE_SIZE = 4;
+    //A neighbouring tile is read once a fix is within this fraction of a tile of it.
+    private static final double PREFETCH_MARGIN = 0.25;
+    //Time (ms) before the file is tried again after it couldn't be read.  Doubled after
+    //each failure up to MAX_RETRY_DELAY.
+    private static final long RETRY_DELAY = 5000;
+    private static final long MAX_RETRY_DELAY = 300000;
+
+    private String url;
+    //Incremented when the file changes so a read of the old file is thrown away.
+    private int fileGeneration;
+    private boolean headerRead;
+    //Set when there's no usable file.  Nothing is read until setFile changes the file.
+    private boolean noModel;
+    //After a failed read the file isn't tried again until retryAt.
+    private long retryDelay;
+    private long retryAt;
+
+    private double minLat, minLon, spacing;
+    private int rows, columns, tileCells, tileRows, tileColumns, tileNodes;
+
+    //Cached tiles, their index in the file (-1 if empty) and when they were last used.
+    private final short[][] tiles = new short[TILE_CACHE_SIZE][];
+    private final int[] tileIndex = new int[TILE_CACHE_SIZE];
+    private final long[] tileUsed = new long[TILE_CACHE_SIZE];
+    private long useCount;
+    private int tileReads;
+    //Tile pushed out of the cache, kept to read the next tile into.
+    private short[] spareTile;
+    //Tiles needed for the point being looked up (see tilesNeeded).
+    private final int[] neededTiles = new int[TILE_CACHE_SIZE];
+
+    //The loader thread reads the file (run).  Point whose tiles it is to read.
+    private Thread loaderThread;
+    private boolean loadPending;
+    private double loadLat, loadLon;
+
+    private FileConnection fileConn;
+
+    public GeoidModel() {
+        clearTiles();
+    }
+
+    //File (URL) to read the grid from, or null for none.  Nothing is read until needed.
+    public synchronized void setFile(String url) {
+        if (url == null ? this.url != null : !url.equals(this.url)) {
+            this.url = url;
+            fileGeneration++;
+            headerRead = false;
+            noModel = false;
+            retryDelay = 0;
+            retryAt = 0;
+            loadPending = false;
+            clearTiles();
+        }
+    }
+
+    //Number of times a tile has been read from the file.
+    public synchronized int getTileReads() {
+        return tileReads;
+    }
+
+    //Undulation (metres) at the point or NaN if there's no grid covering it.
+    //Called on the GPS thread so the file is never read here.  If the tile isn't cached
+    //(or the header hasn't been read) the loader thread is asked to read it and NaN is
+    //returned until it has.  Tiles next to the point are read ahead as it nears them.
+    public synchronized double getUndulation(double lat, double lon) {
+        if (url == null || noModel) {
+            return Double.NaN;
+        }
+        if (!headerRead) {
+            requestLoad(lat, lon);
+            return Double.NaN;
+        }
+        double r = (lat - minLat) / spacing;
+        double c = (lon - minLon) / spacing;
+        if (r < 0 || c < 0 || r > rows - 1 || c > columns - 1) {
+            return Double.NaN;
+        }
+        int count = tilesNeeded(r, c, neededTiles);
+        for (int i = 0; i < count; i++) {
+            if (findTile(neededTiles[i]) < 0) {
+                requestLoad(lat, lon);
+                break;
+            }
+        }
+        int slot = findTile(neededTiles[0]);
+        if (slot < 0) {
+            return Double.NaN;
+        }
+        useCount++;
+        tileUsed[slot] = useCount;
+        short[] tile = tiles[slot];
+
+        int row = Math.min((int) r, rows - 2);
+        int column = Math.min((int) c, columns - 2);
+        int i = (row % tileCells) * (tileCells + 1) + column % tileCells;
+        double fr = r - row;
+        double fc = c - column;
+        double south = tile[i] + (tile[i + 1] - tile[i]) * fc;
+        double north = tile[i + tileCells + 1] + (tile[i + tileCells + 2] - tile[i + tileCells + 1]) * fc;
+        return (south + (north - south) * fr) / UNITS_PER_METRE;
+    }
+
+    //Tiles needed for the point at row r, column c of the grid: the tile it's in followed
+    //by those it's within PREFETCH_MARGIN of (up to three, at a corner).  Returns the number.
+    private int tilesNeeded(double r, double c, int[] needed) {
+        int tileRow = Math.min((int) r, rows - 2) / tileCells;
+        int tileColumn = Math.min((int) c, columns - 2) / tileCells;
+        double margin = tileCells * PREFETCH_MARGIN;
+        int rowStep = 0;
+        int columnStep = 0;
+        if (r - tileRow * tileCells < margin && tileRow > 0) {
+            rowStep = -1;
+        } else if ((tileRow + 1) * tileCells - r < margin && tileRow < tileRows - 1) {
+            rowStep = 1;
+        }
+        if (c - tileColumn * tileCells < margin && tileColumn > 0) {
+            columnStep = -1;
+        } else if ((tileColumn + 1) * tileCells - c < margin && tileColumn < tileColumns - 1) {
+            columnStep = 1;
+        }
+        int index = tileRow * tileColumns + tileColumn;
+        int count = 0;
+        needed[count++] = index;
+        if (rowStep != 0) {
+            needed[count++] = index + rowStep * tileColumns;
+        }
+        if (columnStep != 0) {
+            needed[count++] = index + columnStep;
+        }
+        if (rowStep != 0 && columnStep != 0) {
+            needed[count++] = index + rowStep * tileColumns + columnStep;
+        }
+        return count;
+    }
+
+    //Cache slot holding the tile or -1.
+    private int findTile(int index) {
+        for (int i = 0; i < TILE_CACHE_SIZE; i++) {
+            if (tileIndex[i] == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //Asks the loader thread to read what's needed for the point, starting it if it isn't
+    //running.  Nothing is asked for until the retry time after a failure.
+    private void requestLoad(double lat, double lon) {
+        if (retryAt != 0 && System.currentTimeMillis() < retryAt) {
+            return;
+        }
+        loadLat = lat;
+        loadLon = lon;
+        loadPending = true;
+        if (loaderThread == null) {
+            loaderThread = new Thread(this);
+            loaderThread.start();
+        }
+    }
+
+    //Loader thread.  Reads the header and the tiles needed for the latest point asked
+    //for, then stops until it's asked again.  The file is read without holding the lock
+    //so getUndulation is never held up.
+    public void run() {
+        int[] needed = new int[TILE_CACHE_SIZE];
+        while (true) {
+            String file;
+            int generation;
+            boolean readHeader;
+            int count = 0;
+            int nodes = 0;
+            synchronized (this) {
+                if (!loadPending || url == null || noModel) {
+                    loaderThread = null;
+                    return;
+                }
+                loadPending = false;
+                file = url;
+                generation = fileGeneration;
+                readHeader = !headerRead;
+                if (!readHeader) {
+                    double r = (loadLat - minLat) / spacing;
+                    double c = (loadLon - minLon) / spacing;
+                    if (r >= 0 && c >= 0 && r <= rows - 1 && c <= columns - 1) {
+                        count = tilesNeeded(r, c, needed);
+                    }
+                    nodes = tileNodes;
+                }
+            }
+
+            try {
+                if (readHeader) {
+                    readHeader(file, generation);
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    short[] tile;
+                    synchronized (this) {
+                        if (generation != fileGeneration || findTile(needed[i]) >= 0) {
+                            continue;
+                        }
+                        tile = spareTile;
+                        spareTile = null;
+                    }
+                    if (tile == null || tile.length != nodes) {
+                        tile = new short[nodes];
+                    }
+                    readTile(file, needed[i], tile);
+                    storeTile(needed[i], tile, generation);
+                }
+                synchronized (this) {
+                    if (generation == fileGeneration) {
+                        retryDelay = 0;
+                        retryAt = 0;
+                    }
+                }
+            } catch (EOFException e) {
+                //Truncated file.
+                setNoModel(generation);
+            } catch (SecurityException e) {
+                //User said no to reading the file - don't keep asking.
+                setNoModel(generation);
+            } catch (Exception e) {
+                //Unreadable file - heights are left as the receiver gives them until it's
+                //tried again.
+                synchronized (this) {
+                    if (generation == fileGeneration) {
+                        retryDelay = retryDelay == 0 ? RETRY_DELAY : Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+                        retryAt = System.currentTimeMillis() + retryDelay;
+                        loadPending = false;
+                    }
+                }
+            }
+        }
+    }
+
+    private void readHeader(String file, int generation) throws IOException {
+        InputStream is = null;
+        try {
+            is = openFile(file);
+            if (is == null) {
+                setNoModel(generation);
+                return;
+            }
+            DataInputStream in = new DataInputStream(is);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                setNoModel(generation);
+                return;
+            }
+            int lat = in.readInt();
+            int lon = in.readInt();
+            int space = in.readInt();
+            int nodeRows = in.readInt();
+            int nodeColumns = in.readInt();
+            int cells = in.readInt();
+            if (space <= 0 || nodeRows < 2 || nodeColumns < 2 || cells < 1) {
+                setNoModel(generation);
+                return;
+            }
+            synchronized (this) {
+                if (generation != fileGeneration) {
+                    return;
+                }
+                minLat = lat / MICRODEGREES;
+                minLon = lon / MICRODEGREES;
+                spacing = space / MICRODEGREES;
+                rows = nodeRows;
+                columns = nodeColumns;
+                tileCells = cells;
+                tileRows = (rows - 2) / tileCells + 1;
+                tileColumns = (columns - 2) / tileCells + 1;
+                tileNodes = (tileCells + 1) * (tileCells + 1);
+                headerRead = true;
+                //Now read the tiles for the point that was asked for.
+                loadPending = true;
+            }
+        } finally {
+            closeFile(is);
+        }
+    }
+
+    private void readTile(String file, int index, short[] tile) throws IOException {
+        InputStream is = null;
+        try {
+            is = openFile(file);
+            if (is == null) {
+                throw new EOFException("Geoid file gone");
+            }
+            DataInputStream in = new DataInputStream(is);
+            skip(in, HEADER_SIZE + (long) index * tile.length * 2);
+            for (int i = 0; i < tile.length; i++) {
+                tile[i] = in.readShort();
+            }
+        } finally {
+            closeFile(is);
+        }
+    }
+
+    private synchronized void setNoModel(int generation) {
+        if (generation == fileGeneration) {
+            noModel = true;
+            loadPending = false;
+        }
+    }
+
+    //Puts a tile read by the loader in place of the least recently used tile.
+    private synchronized void storeTile(int index, short[] tile, int generation) {
+        if (generation != fileGeneration) {
+            return;
+        }
+        int oldest = 0;
+        for (int i = 1; i < TILE_CACHE_SIZE; i++) {
+            if (tileUsed[i] < tileUsed[oldest]) {
+                oldest = i;
+            }
+        }
+        spareTile = tiles[oldest];
+        useCount++;
+        tiles[oldest] = tile;
+        tileIndex[oldest] = index;
+        tileUsed[oldest] = useCount;
+        tileReads++;
+    }
+
+    //Null if there's no file.  The connection is closed again if the file isn't opened.
+    InputStream openFile(String url) throws IOException {
+        fileConn = (FileConnection) Connector.open(url, Connector.READ);
+        InputStream is = null;
+        try {
+            if (fileConn.exists()) {
+                is = fileConn.openInputStream();
+            }
+        } finally {
+            if (is == null) {
+                closeFile(null);
+            }
+        }
+        return is;
+    }
+
+    void closeFile(InputStream is) {
+        try {
+            if (is != null) {
+                is.close();
+            }
+            if (fileConn != null) {
+                fileConn.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+        fileConn = null;
+    }
+
+    private void clearTiles() {
+        for (int i = 0; i < TILE_CACHE_SIZE; i++) {
+            tileIndex[i] = -1;
+            tileUsed[i] = 0;
+        }
+    }
+
+    private static void skip(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException("Geoid file too short");
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: GridShift
+ *
+ * desc: GridShift holds part of a national grid shift (OSTN15 style) for the area a map
+ * covers.  A point's WGS84 (ETRS89) latitude and longitude are projected on the GRS80
+ * ellipsoid with the National Grid projection and the easting / northing shifts
+ * interpolated (bilinearly) from the grid are added to give the OS grid ref.  This
+ * replaces the Helmert transformation (accurate to a few metres) with one which is as
+ * accurate as the shift grid.
+ *
+ * The grid file is binary (big endian, as read by DataInputStream):
+ *   int   MAGIC
+ *   int   VERSION
+ *   int   eastings, northings of the first node (metres, ETRS89 projected)
+ *   int   node spacing (metres)
+ *   int   columns, rows
+ *   int   base easting shift, base northing shift (millimetres)
+ *   then rows (south to north) of columns (west to east) nodes, each a short easting
+ *   shift and a short northing shift in millimetres from the base shifts.
+ * At 1km spacing the whole of GB is around 3.5MB.  Only the rows and columns around the
+ * area asked for are read.
+ */
+
+package geo;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class GridShift {
+
+    public static final int MAGIC = 0x4F534746;  //"OSGF"
+    public static final int VERSION = 1;
+    //Bytes per node in the file.
+    private static final int NODE_SIZE = 4;
+    //Number of times the inverse shift is refined.
+    private static final int INVERSE_ITERATIONS = 3;
+
+    //First node, spacing and size of the part of the grid loaded.
+    private final double minEastings, minNorthings;
+    private final double spacing;
+    private final int columns, rows;
+    //Shifts in metres, row by row.
+    private final double[] eastingShifts, northingShifts;
+
+    private GridShift(double minEastings, double minNorthings, double spacing, int columns, int rows) {
+        this.minEastings = minEastings;
+        this.minNorthings = minNorthings;
+        this.spacing = spacing;
+        this.columns = columns;
+        this.rows = rows;
+        eastingShifts = new double[columns * rows];
+        northingShifts = new double[columns * rows];
+    }
+
+    //Reads the nodes of the grid file needed for the area (ETRS89 projected eastings and
+    //northings) from the stream.  Returns null if the grid doesn't cover any of the area.
+    public static GridShift read(InputStream is, double minE, double minN, double maxE, double maxN)
+            throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a grid shift file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported grid shift file version: " + version);
+        }
+        int fileMinE = in.readInt();
+        int fileMinN = in.readInt();
+        int spacing = in.readInt();
+        int fileColumns = in.readInt();
+        int fileRows = in.readInt();
+        double baseEastingShift = in.readInt() / 1000.0;
+        double baseNorthingShift = in.readInt() / 1000.0;
+        if (spacing <= 0 || fileColumns < 2 || fileRows < 2) {
+            throw new IOException("Invalid grid shift file");
+        }
+
+        //Nodes around the area.
+        int firstColumn = Math.max(0, (int) Math.floor((minE - fileMinE) / spacing));
+        int lastColumn = Math.min(fileColumns - 1, (int) Math.ceil((maxE - fileMinE) / spacing));
+        int firstRow = Math.max(0, (int) Math.floor((minN - fileMinN) / spacing));
+        int lastRow = Math.min(fileRows - 1, (int) Math.ceil((maxN - fileMinN) / spacing));
+        if (lastColumn <= firstColumn || lastRow <= firstRow) {
+            return null;
+        }
+
+        int columns = lastColumn - firstColumn + 1;
+        int rows = lastRow - firstRow + 1;
+        GridShift gridShift = new GridShift(fileMinE + (double) firstColumn * spacing,
+                fileMinN + (double) firstRow * spacing, spacing, columns, rows);
+
+        skip(in, ((long) firstRow * fileColumns + firstColumn) * NODE_SIZE);
+        int i = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                gridShift.eastingShifts[i] = baseEastingShift + in.readShort() / 1000.0;
+                gridShift.northingShifts[i] = baseNorthingShift + in.readShort() / 1000.0;
+                i++;
+            }
+            if (row < rows - 1) {
+                skip(in, (long) (fileColumns - columns) * NODE_SIZE);
+            }
+        }
+        return gridShift;
+    }
+
+    private static void skip(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new IOException("Grid shift file too short");
+            }
+            bytes -= skipped;
+        }
+    }
+
+    //True if the projected point is within the loaded part of the grid.
+    public boolean contains(double eastings, double northings) {
+        return eastings >= minEastings && eastings <= minEastings + (columns - 1) * spacing &&
+                northings >= minNorthings && northings <= minNorthings + (rows - 1) * spacing;
+    }
+
+    //Adds the shift to a projected (ETRS89) point to give the OS grid ref.  Returns false
+    //(and leaves osGridRef alone) if the point isn't within the grid.
+    public boolean apply(double eastings, double northings, OSGridRef osGridRef) {
+        if (!contains(eastings, northings)) {
+            return false;
+        }
+        osGridRef.Eastings = eastings + interpolate(eastingShifts, eastings, northings);
+        osGridRef.Northings = northings + interpolate(northingShifts, eastings, northings);
+        return true;
+    }
+
+    //Removes the shift from an OS grid ref to give the projected (ETRS89) point.  The shift
+    //is looked up at the grid ref and then at the point found, which converges to well
+    //under a millimetre as the shifts change slowly.  Returns false if the point isn't
+    //within the grid.
+    public boolean remove(double eastings, double northings, OSGridRef projected) {
+        double e = eastings;
+        double n = northings;
+        for (int i = 0; i < INVERSE_ITERATIONS; i++) {
+            if (!contains(e, n)) {
+                return false;
+            }
+            double shiftE = interpolate(eastingShifts, e, n);
+            double shiftN = interpolate(northingShifts, e, n);
+            e = eastings - shiftE;
+            n = northings - shiftN;
+        }
+        projected.Eastings = e;
+        projected.Northings = n;
+        return true;
+    }
+
+    private double interpolate(double[] shifts, double eastings, double northings) {
+        double x = (eastings - minEastings) / spacing;
+        double y = (northings - minNorthings) / spacing;
+        int column = (int) x;
+        int row = (int) y;
+        //Points on the top / right edge use the last cell.
+        if (column == columns - 1) {
+            column--;
+        }
+        if (row == rows - 1) {
+            row--;
+        }
+        double fx = x - column;
+        double fy = y - row;
+
+        int i = row * columns + column;
+        int j = i + columns;
+        double bottom = shifts[i] + fx * (shifts[i + 1] - shifts[i]);
+        double top = shifts[j] + fx * (shifts[j + 1] - shifts[j]);
+        return bottom + fy * (top - bottom);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: LookupGrid
+ *
+ * desc: LookupGrid speeds up WGS84 to OS grid conversion over a small area (a map).
+ * Exact conversions (OSGBTransform) are done once at the nodes of a lat / long lattice
+ * covering the area and points inside it are then bilinearly interpolated from the four
+ * nodes around them - a few multiplies instead of the full Helmert and projection.
+ *
+ * The error of bilinear interpolation is at most (h^2 / 8) * |f''| in each direction,
+ * where h is the node spacing.  When the grid is built the second differences of the node
+ * values (which are h^2 * f'') are used to work out this bound (doubled to allow for
+ * f'' varying within a cell) and the lattice is made finer until the bound is within
+ * the tolerance.  Over a map of a few kilometres this only takes a handful of cells.
+ * For a very large area the tolerance may not be met within MAX_CELLS - check
+ * getErrorBound before using the grid.
+ *
+ * The grid isn't changed once built so it can be used from any thread.
+ */
+
+package geo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class LookupGrid {
+
+    //Default tolerance in metres.
+    public static final double DEFAULT_TOLERANCE = 0.01;
+    //Initial and maximum number of cells along each side.  64 x 64 cells is around 66K of
+    //node values.
+    private static final int MIN_CELLS = 4;
+    private static final int MAX_CELLS = 64;
+
+    private final double minLat, minLon, maxLat, maxLon;
+    private int latCells, lonCells;
+    private double latStep, lonStep;
+    //Node values, row (latitude) by row.  (latCells + 1) * (lonCells + 1) of each.
+    private double[] eastings, northings;
+    //Error bound (metres) of the interpolation.
+    private double errorBound;
+
+    public LookupGrid(OSGBTransform transform, double minLat, double maxLat,
+            double minLon, double maxLon, double tolerance) {
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+
+        int cells = MIN_CELLS;
+        build(transform, cells, cells);
+        while (errorBound > tolerance && cells < MAX_CELLS) {
+            cells = cells * 2;
+            build(transform, cells, cells);
+        }
+    }
+
+    private LookupGrid(double minLat, double maxLat, double minLon, double maxLon) {
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+    }
+
+    //Writes the grid so that it can be read back without doing the exact conversions
+    //again (RegistrationFile).
+    public void write(DataOutputStream out) throws IOException {
+        out.writeDouble(minLat);
+        out.writeDouble(maxLat);
+        out.writeDouble(minLon);
+        out.writeDouble(maxLon);
+        out.writeInt(latCells);
+        out.writeInt(lonCells);
+        out.writeDouble(errorBound);
+        for (int i = 0; i < eastings.length; i++) {
+            out.writeDouble(eastings[i]);
+            out.writeDouble(northings[i]);
+        }
+    }
+
+    public static LookupGrid read(DataInputStream in) throws IOException {
+        LookupGrid grid = new LookupGrid(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        grid.latCells = in.readInt();
+        grid.lonCells = in.readInt();
+        if (grid.latCells < 1 || grid.latCells > MAX_CELLS || grid.lonCells < 1 || grid.lonCells > MAX_CELLS) {
+            throw new IOException("Bad lookup grid size");
+        }
+        grid.errorBound = in.readDouble();
+        grid.latStep = (grid.maxLat - grid.minLat) / grid.latCells;
+        grid.lonStep = (grid.maxLon - grid.minLon) / grid.lonCells;
+        int nodes = (grid.latCells + 1) * (grid.lonCells + 1);
+        grid.eastings = new double[nodes];
+        grid.northings = new double[nodes];
+        for (int i = 0; i < nodes; i++) {
+            grid.eastings[i] = in.readDouble();
+            grid.northings[i] = in.readDouble();
+        }
+        return grid;
+    }
+
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    public int getCellCount() {
+        return latCells * lonCells;
+    }
+
+    public boolean contains(double lat, double lng) {
+        return lat >= minLat && lat <= maxLat && lng >= minLon && lng <= maxLon;
+    }
+
+    //Interpolates the grid ref of lat / long.  Returns false (and leaves osGridRef alone)
+    //if the point isn't covered by the grid.
+    public boolean toOSGridRef(double lat, double lng, OSGridRef osGridRef) {
+        if (!contains(lat, lng)) {
+            return false;
+        }
+        double y = (lat - minLat) / latStep;
+        double x = (lng - minLon) / lonStep;
+        int row = (int) y;
+        int col = (int) x;
+        //Points on the top / right edge use the last cell.
+        if (row == latCells) {
+            row--;
+        }
+        if (col == lonCells) {
+            col--;
+        }
+        double fy = y - row;
+        double fx = x - col;
+
+        int i = row * (lonCells + 1) + col;
+        int j = i + lonCells + 1;
+        osGridRef.Eastings = interpolate(eastings, i, j, fx, fy);
+        osGridRef.Northings = interpolate(northings, i, j, fx, fy);
+        return true;
+    }
+
+    //Bilinear interpolation within the cell with corners i, i + 1 (bottom) and j, j + 1 (top).
+    private static double interpolate(double[] values, int i, int j, double fx, double fy) {
+        double bottom = values[i] + fx * (values[i + 1] - values[i]);
+        double top = values[j] + fx * (values[j + 1] - values[j]);
+        return bottom + fy * (top - bottom);
+    }
+
+    private void build(OSGBTransform transform, int latCells, int lonCells) {
+        this.latCells = latCells;
+        this.lonCells = lonCells;
+        latStep = (maxLat - minLat) / latCells;
+        lonStep = (maxLon - minLon) / lonCells;
+
+        int rowLength = lonCells + 1;
+        int nodes = (latCells + 1) * rowLength;
+        double[] lats = new double[nodes];
+        double[] lons = new double[nodes];
+        for (int row = 0; row <= latCells; row++) {
+            for (int col = 0; col <= lonCells; col++) {
+                lats[row * rowLength + col] = minLat + row * latStep;
+                lons[row * rowLength + col] = minLon + col * lonStep;
+            }
+        }
+        eastings = new double[nodes];
+        northings = new double[nodes];
+        transform.toOSGridRefExact(lats, lons, eastings, northings, 0, nodes);
+
+        //Largest second differences along and across the rows.
+        double maxLonDiff = 0;
+        double maxLatDiff = 0;
+        for (int row = 0; row <= latCells; row++) {
+            for (int col = 0; col <= lonCells; col++) {
+                int i = row * rowLength + col;
+                if (col > 0 && col < lonCells) {
+                    maxLonDiff = Math.max(maxLonDiff, secondDifference(i - 1, i, i + 1));
+                }
+                if (row > 0 && row < latCells) {
+                    maxLatDiff = Math.max(maxLatDiff, secondDifference(i - rowLength, i, i + rowLength));
+                }
+            }
+        }
+        errorBound = 2 * (maxLonDiff + maxLatDiff) / 8;
+    }
+
+    //Size (metres) of the second difference of the node values at a, b, c.
+    private double secondDifference(int a, int b, int c) {
+        double e = eastings[a] - 2 * eastings[b] + eastings[c];
+        double n = northings[a] - 2 * northings[b] + northings[c];
+        return Math.sqrt(e * e + n * n);
+    }
+}
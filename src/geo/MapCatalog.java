@@ -0,0 +1,285 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: MapCatalog
+ *
+ * desc: MapCatalog keeps the grid bounds of every registered map image in a set of
+ * folders so the map covering a position can be found without loading any of them.
+ * A map is included if it has a settings file (same name as the image, see
+ * SettingsXMLReader) with at least two control points.  The control points are taken
+ * from the map's registration file (RegistrationFile) if it is up to date, otherwise
+ * from the settings file.  Its bounds are found by fitting the control points
+ * (GeoImage.getGridBounds) to the image size read from the image header (ImageInfo) so
+ * the image itself isn't decoded.
+ *
+ * The bounds are kept sorted by minimum eastings.  A position can only be in maps
+ * starting at most the widest map's width to the west of it so a lookup is a binary
+ * search and a short scan back over the maps which could contain it.
+ */
+
+package geo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import xml.SettingsXMLReader;
+
+public class MapCatalog {
+
+    private static final String[] IMAGE_TYPES = {"bmp", "png", "jpg"};
+    private static final int INITIAL_SIZE = 8;
+    
+    //Map image file names and bounds (metres) in order of minEastings.
+    private String[] imageFiles = new String[INITIAL_SIZE];
+    private double[] minEastings = new double[INITIAL_SIZE];
+    private double[] minNorthings = new double[INITIAL_SIZE];
+    private double[] maxEastings = new double[INITIAL_SIZE];
+    private double[] maxNorthings = new double[INITIAL_SIZE];
+    private int size;
+    //Widest map (eastings) in the catalog.
+    private double maxWidth;
+    
+    public MapCatalog() {
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            imageFiles[i] = null;
+        }
+        size = 0;
+        maxWidth = 0;
+    }
+    
+    //Adds the registered maps in dir (a file URL ending in '/').  Returns the number added.
+    //The folder is read without holding the lock so lookups carry on while it's scanned.
+    public int addFolder(String dir) throws IOException {
+        FileConnection dirConn = null;
+        Hashtable fileNames = new Hashtable();
+        try {
+            dirConn = (FileConnection) Connector.open(dir, Connector.READ);
+            if (!dirConn.exists() || !dirConn.isDirectory()) {
+                return 0;
+            }
+            Enumeration e = dirConn.list();
+            while (e.hasMoreElements()) {
+                String fileName = (String) e.nextElement();
+                fileNames.put(fileName.toLowerCase(), fileName);
+            }
+        } finally {
+            if (dirConn != null) {
+                dirConn.close();
+            }
+        }
+        
+        int added = 0;
+        double[] bounds = new double[4];
+        Enumeration e = fileNames.elements();
+        while (e.hasMoreElements()) {
+            String fileName = (String) e.nextElement();
+            int dot = fileName.lastIndexOf('.');
+            if (dot < 0 || !isImageType(fileName.substring(dot + 1))) {
+                continue;
+            }
+            if (!fileNames.containsKey(fileName.substring(0, dot).toLowerCase() + ".xml")) {
+                continue;
+            }
+            try {
+                if (readBounds(dir + fileName, bounds)) {
+                    add(dir + fileName, bounds[0], bounds[1], bounds[2], bounds[3]);
+                    added++;
+                }
+            } catch (IOException ex) {
+                //Unreadable map - leave it out.
+            } catch (RuntimeException ex) {
+                //Badly formed settings file - leave it out.
+            }
+        }
+        return added;
+    }
+    
+    private static boolean isImageType(String extension) {
+        for (int i = 0; i < IMAGE_TYPES.length; i++) {
+            if (IMAGE_TYPES[i].equalsIgnoreCase(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    //Adds (or replaces) a map.
+    public synchronized void add(String imageFile, double minE, double minN, double maxE, double maxN) {
+        remove(imageFile);
+        if (size == imageFiles.length) {
+            int newSize = size * 2;
+            String[] newImageFiles = new String[newSize];
+            System.arraycopy(imageFiles, 0, newImageFiles, 0, size);
+            imageFiles = newImageFiles;
+            minEastings = grow(minEastings, newSize);
+            minNorthings = grow(minNorthings, newSize);
+            maxEastings = grow(maxEastings, newSize);
+            maxNorthings = grow(maxNorthings, newSize);
+        }
+        //Move maps starting further east up one.
+        int i = size;
+        while (i > 0 && minEastings[i - 1] > minE) {
+            imageFiles[i] = imageFiles[i - 1];
+            minEastings[i] = minEastings[i - 1];
+            minNorthings[i] = minNorthings[i - 1];
+            maxEastings[i] = maxEastings[i - 1];
+            maxNorthings[i] = maxNorthings[i - 1];
+            i--;
+        }
+        imageFiles[i] = imageFile;
+        minEastings[i] = minE;
+        minNorthings[i] = minN;
+        maxEastings[i] = maxE;
+        maxNorthings[i] = maxN;
+        size++;
+        maxWidth = Math.max(maxWidth, maxE - minE);
+    }
+    
+    private static double[] grow(double[] values, int newSize) {
+        double[] newValues = new double[newSize];
+        System.arraycopy(values, 0, newValues, 0, values.length);
+        return newValues;
+    }
+    
+    public synchronized boolean remove(String imageFile) {
+        int index = indexOf(imageFile);
+        if (index < 0) {
+            return false;
+        }
+        size--;
+        int moved = size - index;
+        System.arraycopy(imageFiles, index + 1, imageFiles, index, moved);
+        System.arraycopy(minEastings, index + 1, minEastings, index, moved);
+        System.arraycopy(minNorthings, index + 1, minNorthings, index, moved);
+        System.arraycopy(maxEastings, index + 1, maxEastings, index, moved);
+        System.arraycopy(maxNorthings, index + 1, maxNorthings, index, moved);
+        imageFiles[size] = null;
+        //maxWidth is left as it is - it only needs to be no less than the widest map.
+        return true;
+    }
+    
+    private int indexOf(String imageFile) {
+        for (int i = 0; i < size; i++) {
+            if (imageFiles[i].equals(imageFile)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    //Distance (metres) from the position to the nearest edge of the map, negative if the
+    //position is outside it.  NaN if the map isn't in the catalog.
+    public synchronized double inset(String imageFile, double eastings, double northings) {
+        int index = indexOf(imageFile);
+        if (index < 0) {
+            return Double.NaN;
+        }
+        return inset(index, eastings, northings);
+    }
+    
+    private double inset(int index, double eastings, double northings) {
+        return Math.min(Math.min(eastings - minEastings[index], maxEastings[index] - eastings),
+                Math.min(northings - minNorthings[index], maxNorthings[index] - northings));
+    }
+    
+    //The map (other than exclude, which may be null) the position is furthest inside.
+    //Maps the position is up to margin metres outside of are included so the next map can
+    //be found before reaching the edge of the current one.  Null if there isn't one.
+    public synchronized String find(double eastings, double northings, double margin, String exclude) {
+        //First map starting east of the position (plus margin).
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (minEastings[mid] <= eastings + margin) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        
+        String best = null;
+        double bestInset = -margin;
+        double westLimit = eastings - margin - maxWidth;
+        for (int i = low - 1; i >= 0 && minEastings[i] >= westLimit; i--) {
+            double inset = inset(i, eastings, northings);
+            if (inset >= bestInset && !imageFiles[i].equals(exclude)) {
+                best = imageFiles[i];
+                bestInset = inset;
+            }
+        }
+        return best;
+    }
+    
+    //Reads the bounds of a map from its image header and its control points - from the
+    //registration file if it's up to date, otherwise the settings file.  False if it
+    //hasn't got enough control points to be registered.
+    public static boolean readBounds(String imageFile, double[] bounds) throws IOException {
+        int width;
+        int height;
+        FileConnection fileConn = null;
+        InputStream is = null;
+        try {
+            fileConn = (FileConnection) Connector.open(imageFile, Connector.READ);
+            is = fileConn.openInputStream();
+            ImageInfo ii = new ImageInfo();
+            ii.setInput(is);
+            if (!ii.check()) {
+                return false;
+            }
+            width = ii.getWidth();
+            height = ii.getHeight();
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+            if (fileConn != null) {
+                fileConn.close();
+            }
+        }
+        
+        GeoImage map = new GeoImage();
+        map.setBackground();
+        map.setFilename(imageFile);
+        if (!RegistrationFile.readControlPoints(map, width, height)) {
+            SettingsXMLReader settingsXMLReader = new SettingsXMLReader(map);
+            if (!settingsXMLReader.fileExists()) {
+                return false;
+            }
+            settingsXMLReader.readPoints();
+        }
+        if (map.getControlPoints().size() < 2) {
+            return false;
+        }
+        return map.getGridBounds(width, height, bounds);
+    }
+}
@@ -28,22 +28,70 @@
 
 package geo;
 
-import java.util.Vector;
-
 public class NMEAParser
 {
   private String nmeaPrefix = "GP";
   public final static short NMEA_MAX_CHARS = 80;  //This doesn't include the EOS
   public final static String NMEA_EOS = "\r\n";
   public final static double KNOTS_TO_MPS=0.51444;
+
+  //Speed, course, height and DOP fields are read as fixed point numbers with this many
+  //decimal places (see NMEASentence.getFixed) i.e. to the nearest 0.001 knot, degree or metre.
+  //Lat / long use NMEASentence.getDegrees.
+  private final static int FIXED_DECIMALS = 3;
+  private final static double FIXED_SCALE = 1000.0;
+
+  //Talker ids handlers are registered against.  GP = GPS, GN = multi constellation,
+  //GL = GLONASS, GA = Galileo, GB/BD = BeiDou, GQ = QZSS.
+  public final static String[] TALKER_IDS = {"GP", "GN", "GL", "GA", "GB", "BD", "GQ"};
+
+  //Size of the handler table - must be a power of 2 and comfortably bigger than the
+  //number of sentence types * talker ids.
+  private final static int HANDLER_TABLE_SIZE = 64;
   
-  private CoordSys coordSys = new CoordSys();
+  //Reused for every sentence so that parsing doesn't create any objects.
+  private NMEASentence nmeaSentence = new NMEASentence();
+
+  //Number of sentences thrown away because they failed the checksum.
+  private int checksumFailures = 0;
+  //Number of sentences ignored because there is no handler for them e.g. GSV.
+  private int skippedSentences = 0;
+
+  //Open addressed hash table of packed sentence id (see NMEASentence.getPackedId) to handler.
+  //A key of 0 marks an empty slot.
+  private int[] handlerIds = new int[HANDLER_TABLE_SIZE];
+  private NMEASentenceHandler[] handlers = new NMEASentenceHandler[HANDLER_TABLE_SIZE];
 
   private GPSInfo gpsInfo;
+
+  //Handlers add their values to the epoch assembler which updates gpsInfo once per fix.
+  private EpochAssembler epochAssembler;
   
   //Constructor
   public NMEAParser(GPSInfo gpsInfo) {
       this.gpsInfo = gpsInfo;
+      this.epochAssembler = new EpochAssembler(gpsInfo);
+
+      setHandler("RMC", new NMEASentenceHandler() {
+          public void parse(NMEASentence s) throws NMEAParseException {
+              parseRMC(s);
+          }
+      });
+      setHandler("GGA", new NMEASentenceHandler() {
+          public void parse(NMEASentence s) throws NMEAParseException {
+              parseGGA(s);
+          }
+      });
+      setHandler("GSA", new NMEASentenceHandler() {
+          public void parse(NMEASentence s) throws NMEAParseException {
+              parseGSA(s);
+          }
+      });
+      setHandler("VTG", new NMEASentenceHandler() {
+          public void parse(NMEASentence s) throws NMEAParseException {
+              parseVTG(s);
+          }
+      });
   }
 
   public String getNMEAPrefix()
@@ -52,182 +100,256 @@ public class NMEAParser
   public void setNMEAPrefix(String s)
   { this.nmeaPrefix = s; }
 
-  private static Vector splitString(String s, String delimiter) {
-      
-      Vector returnVector = new Vector();
-      
-      while(s.indexOf(delimiter) != -1) {
-          returnVector.addElement(s.substring(0, s.indexOf(delimiter)));
-          s = s.substring(s.indexOf(delimiter) + 1);
+  public int getChecksumFailures()
+  { return this.checksumFailures; }
+
+  public int getSkippedSentences()
+  { return this.skippedSentences; }
+
+  //Registers handler for the sentence type (e.g. RMC) from every talker in TALKER_IDS.
+  //Replaces any handler already registered for the type.
+  public void setHandler(String sentenceType, NMEASentenceHandler handler) {
+      for (int i = 0; i < TALKER_IDS.length; i++) {
+          setHandler(NMEASentence.packId(TALKER_IDS[i] + sentenceType), handler);
       }
-      returnVector.addElement(s.substring(0));
-      
-      return returnVector;
   }
-  
-  public void throwNMEAParseException(String s) throws NMEAParseException {
-      //This is called from SerialGPS when NMEA sentence length is exceeded
-      throw new NMEAParseException(s, NMEAParseException.MINOR);      
+
+  private void setHandler(int id, NMEASentenceHandler handler) {
+      if (id <= 0) {
+          throw new IllegalArgumentException("Invalid NMEA sentence id: " + id);
+      }
+      int slot = hash(id);
+      for (int i = 0; i < HANDLER_TABLE_SIZE; i++) {
+          if (handlerIds[slot] == 0 || handlerIds[slot] == id) {
+              handlerIds[slot] = id;
+              handlers[slot] = handler;
+              return;
+          }
+          slot = (slot + 1) & (HANDLER_TABLE_SIZE - 1);
+      }
+      throw new IllegalStateException("NMEA handler table full");
   }
-  
-  public void parseNMEASentence(String s) throws NMEAParseException {
+
+  private NMEASentenceHandler getHandler(int id) {
+      if (id <= 0) {
+          return null;
+      }
+      int slot = hash(id);
+      for (int i = 0; i < HANDLER_TABLE_SIZE; i++) {
+          if (handlerIds[slot] == id) {
+              return handlers[slot];
+          } else if (handlerIds[slot] == 0) {
+              return null;
+          }
+          slot = (slot + 1) & (HANDLER_TABLE_SIZE - 1);
+      }
+      return null;
+  }
+
+  private static int hash(int id) {
+      //Fibonacci hashing - the top 6 bits of the product index the 64 slot table.
+      return (id * 0x9E3779B1) >>> 26;
+  }
+
+  //Publishes any partly assembled epoch to GPSInfo.  Returns true if there was one.
+  public boolean endOfEpoch() {
+      int epochs = epochAssembler.getEpochCount();
+      epochAssembler.flush();
+      return epochAssembler.getEpochCount() != epochs;
+  }
+
+  public boolean parseNMEASentence(String s) throws NMEAParseException {
+      nmeaSentence.load(s);
+      return parseNMEASentence(nmeaSentence);
+  }
+
+  //Called from SerialGPS with a sentence which has been framed straight from the GPS stream.
+  //Returns true if the sentence caused a fix (epoch) to be published to GPSInfo.
+  //Returns false if it didn't, or if the sentence was rejected because of a bad checksum or
+  //skipped because nothing reads that sentence type.
+  public boolean parseNMEASentence(NMEASentence sentence) throws NMEAParseException {
       
-    //Need to check for valid NMEASentence here....should use checksum.
-    //For now extract portion of string between $ (include) and * (ignore).
+    //Sentences corrupted in transit (e.g. over bluetooth) are dropped here before any field
+    //is read.  This is the cheap path - no exception and no strings - and it stops garbage
+    //reaching GPSInfo.
+    if (!sentence.isChecksumValid()) {
+        checksumFailures++;
+        return false;
+    }
+
+    //Receivers output many sentences we don't use (GSV, GLL etc.).  These are common
+    //so are skipped quietly rather than by throwing an exception.
+    NMEASentenceHandler handler = getHandler(sentence.getPackedId());
+    if (handler == null || sentence.getFieldCount() < 2) {
+        skippedSentences++;
+        return false;
+    }
       
-    //Check for number of fields returned by split string in each parser.
+    //Check for number of fields returned by the tokenizer in each parser.
     //If incorrect throw an error that is caught by SerialGPS.
-      
-      
-    String nmeaType = "";
-    String nmeaSentence = "";
     
+    int epochs = epochAssembler.getEpochCount();
     try {
-        //Check to to see if * follows $ and that $ and * are present
-        if (s.indexOf("*") < s.indexOf("$") || s.indexOf("*") == -1 || s.indexOf("$") == -1) {
-            throw new NMEAParseException("Invalid NMEA sentence: " + s, NMEAParseException.MINOR);
-        }
-        nmeaSentence = s.substring(s.indexOf("$"), s.indexOf("*"));    
-
-        if (nmeaSentence.indexOf(",") != -1) {
-            nmeaType = nmeaSentence.substring(3, nmeaSentence.indexOf(",", 3));
-            if (nmeaType.equals("RMC")) {
-                gpsInfo.type = GPSInfo.NMEA_RMC;
-                parseRMC(nmeaSentence);
-            } else if (nmeaType.equals("GGA")) {
-                gpsInfo.type = GPSInfo.NMEA_GGA;
-                parseGGA(nmeaSentence);
-            } else {
-                //Unknown NMEA type.
-                throw new NMEAParseException("Unrecognised NMEA type: " + nmeaSentence, NMEAParseException.MINOR);
-            }     
-        }
+        handler.parse(sentence);
+        epochAssembler.endSentence();
     } catch (NMEAParseException e) {
         //Catch and re-throw this error so that it get's caught by SerialGPS.
         //Otherwise it get's caught by the more general Exception clause below
         //and is re-thrown as an important error.
-        throw new NMEAParseException("Unrecognised NMEA type: " + nmeaSentence, NMEAParseException.MINOR);        
+        throw e;
     } catch (Exception e) {
-        throw new NMEAParseException(e.toString() + ".  Parsing failed: " + nmeaSentence, NMEAParseException.IMPORTANT);
+        throw new NMEAParseException(e.toString() + ".  Parsing failed: " + sentence, NMEAParseException.IMPORTANT);
     }
-
+    return epochAssembler.getEpochCount() != epochs;
   }
   
-  private void parseGGA(String s) throws NMEAParseException {
+  private void parseGGA(NMEASentence s) throws NMEAParseException {
     /* e.g.
      * $GPGGA,140859.986,5300.2694,N,00216.1674,W,1,07,1.0,267.4,M,48.5,M,0.0,0000*60
      */
-     Vector nmeaFields = new Vector();
-     nmeaFields = splitString(s, ",");
-     
-     if(nmeaFields.size() != 15) {
+     if(s.getFieldCount() != 15) {
         throw new NMEAParseException("Invalid no fields for NMEA type GGA: " + s, NMEAParseException.IMPORTANT);
      }
+     gpsInfo.type = GPSInfo.NMEA_GGA;
      
-     int fixQuality = Integer.parseInt(nmeaFields.elementAt(6).toString());
+     int fixQuality = s.getInt(6);
+     epochAssembler.startSentence(GPSInfo.NMEA_GGA, getTime(s, 1));
      
      if (fixQuality > 0) {
-       gpsInfo.setFix(true);
-
-       double l = Double.parseDouble(nmeaFields.elementAt(2).toString());
-       String latSgn = nmeaFields.elementAt(3).toString();
-       double g = Double.parseDouble(nmeaFields.elementAt(4).toString());
-       String lonSgn = nmeaFields.elementAt(5).toString();
-
-       int intL = (int)l/100;    
-       double m = ((l/100.0)-intL) * 100.0;
-       m *= (100.0/60.0);
-       l = intL + (m/100.0);
-       if (latSgn.equals("S")) l *= -1.0;
-
-       int intG = (int)g/100;
-       m = ((g/100.0)-intG) * 100.0;
-       m *= (100.0/60.0);
-       g = intG + (m/100.0);
-       if (lonSgn.equals("W")) g *= -1.0;
+       double l = s.getDegrees(2);
+       if (s.fieldEquals(3, 'S')) l *= -1.0;
+
+       double g = s.getDegrees(4);
+       if (s.fieldEquals(5, 'W')) g *= -1.0;
        
-       double h = Double.parseDouble(nmeaFields.elementAt(9).toString());
-       double gh = Double.parseDouble(nmeaFields.elementAt(11).toString());
-       gpsInfo.setTime(nmeaFields.elementAt(1).toString());       
-       int noSats = Integer.parseInt(nmeaFields.elementAt(7).toString());
+       double h = s.getFixed(9, FIXED_DECIMALS) / FIXED_SCALE;
+       double gh = s.getFixed(11, FIXED_DECIMALS) / FIXED_SCALE;
+       setTime(s, 1);
+       int noSats = s.getInt(7);
        
-       gpsInfo.setLatLong(l, g);
-       gpsInfo.setHeight(h);
-       gpsInfo.geoidHgt = gh;
-       gpsInfo.numSats = noSats;
-
-       gpsInfo.setOSGridRef(coordSys.getOSGridRef(l, g));
+       epochAssembler.setPosition(l, g);
+       epochAssembler.setHeight(h, gh, noSats);
 
      } else {
-       gpsInfo.setFix(false);
+       epochAssembler.setNoFix();
      }
   }  
   
-  private void parseRMC(String s) throws NMEAParseException {
+  private void parseRMC(NMEASentence s) throws NMEAParseException {
     /* e.g.
      * $GPRMC,004007,A,3748.410,N,12226.632,W,000.0,360.0,130102,015.7,E*6F
     */
-    Vector nmeaFields = new Vector();
-    nmeaFields = splitString(s, ",");
     
     //13 fields as of NMEA release 2.3.  Prior to this there was 12.
-    if(nmeaFields.size() < 12  || nmeaFields.size() > 13) {
+    if(s.getFieldCount() < 12  || s.getFieldCount() > 13) {
         throw new NMEAParseException("Invalid no fields for NMEA type RMC: " + s, NMEAParseException.IMPORTANT);
     }    
+    gpsInfo.type = GPSInfo.NMEA_RMC;
+    epochAssembler.startSentence(GPSInfo.NMEA_RMC, getTime(s, 1));
     
-    String voidFix = nmeaFields.elementAt(2).toString();
-
-    if (voidFix.equals("A")) {
+    if (s.fieldEquals(2, 'A')) {
          
-       gpsInfo.setFix(true);
-       double l = Double.parseDouble(nmeaFields.elementAt(3).toString());
-       String latSgn = nmeaFields.elementAt(4).toString();
-       double g = Double.parseDouble(nmeaFields.elementAt(5).toString());
-       String lonSgn = nmeaFields.elementAt(6).toString();
-     
-       int intL = (int)l/100;    
-       double m = ((l/100.0)-intL) * 100.0;
-       m *= (100.0/60.0);
-       l = intL + (m/100.0);
-       if (latSgn.equals("S")) l *= -1.0;
+       double l = s.getDegrees(3);
+       if (s.fieldEquals(4, 'S')) l *= -1.0;
   
-       int intG = (int)g/100;
-       m = ((g/100.0)-intG) * 100.0;
-       m *= (100.0/60.0);
-       g = intG + (m/100.0);
-       if (lonSgn.equals("W")) g *= -1.0;
+       double g = s.getDegrees(5);
+       if (s.fieldEquals(6, 'W')) g *= -1.0;
        
        //The speed field may not be present e.g. N95 internal GPS receiver.
        //If it is missing assign the undefined value.
        //If the speed is undefined it is not used in any trip computer calculation (GPSInfo.updateStats).
-       if (!nmeaFields.elementAt(7).toString().equals("")) {
-           double sp = Double.parseDouble(nmeaFields.elementAt(7).toString());
+       double sp = GPSInfo.UNDEFINED;
+       if (!s.isEmpty(7)) {
+           sp = s.getFixed(7, FIXED_DECIMALS) / FIXED_SCALE;
            //Speed in RMC sentence is expressed in knots - convert to metres per second.
            sp = sp * KNOTS_TO_MPS;           
-           gpsInfo.setSpeed(sp);       
-       } else {
-           gpsInfo.setSpeed(GPSInfo.UNDEFINED);
        }
        
         //The heading field may not always be populated with a value.
-        if (!nmeaFields.elementAt(8).toString().equals("")) {
-            double h = Double.parseDouble(nmeaFields.elementAt(8).toString());
-            gpsInfo.setHeading(h);
-        } else {
-            gpsInfo.setHeading(GPSInfo.UNDEFINED);
+        double h = GPSInfo.UNDEFINED;
+        if (!s.isEmpty(8)) {
+            h = s.getFixed(8, FIXED_DECIMALS) / FIXED_SCALE;
         }
        
-       gpsInfo.setTime(nmeaFields.elementAt(1).toString());
-       gpsInfo.setDate(nmeaFields.elementAt(9).toString());
+       setTime(s, 1);
+       setDate(s, 9);
        
-       gpsInfo.setLatLong(l, g);
-       
-       gpsInfo.setOSGridRef(coordSys.getOSGridRef(l, g));
+       epochAssembler.setCourse(sp, h, true);
+       epochAssembler.setPosition(l, g);
               
     } else {
-       gpsInfo.setFix(false);
+       epochAssembler.setNoFix();
     }
  
   } 
   
+  private void parseGSA(NMEASentence s) throws NMEAParseException {
+    /* e.g.
+     * $GPGSA,A,3,04,05,,09,12,,,24,,,,,2.5,1.3,2.1*39
+     */
+
+    //18 fields.  NMEA 4.1 adds the GNSS system id as a 19th.
+    if(s.getFieldCount() < 18  || s.getFieldCount() > 19) {
+        throw new NMEAParseException("Invalid no fields for NMEA type GSA: " + s, NMEAParseException.IMPORTANT);
+    }
+    gpsInfo.type = GPSInfo.NMEA_GSA;
+    epochAssembler.startSentence(GPSInfo.NMEA_GSA, EpochAssembler.NO_TIME);
+
+    int fixType = s.isEmpty(2) ? 1 : s.getInt(2);
+    double pdop = s.isEmpty(15) ? GPSInfo.UNDEFINED : s.getFixed(15, FIXED_DECIMALS) / FIXED_SCALE;
+    double hdop = s.isEmpty(16) ? GPSInfo.UNDEFINED : s.getFixed(16, FIXED_DECIMALS) / FIXED_SCALE;
+    double vdop = s.isEmpty(17) ? GPSInfo.UNDEFINED : s.getFixed(17, FIXED_DECIMALS) / FIXED_SCALE;
+    epochAssembler.setDop(fixType, pdop, hdop, vdop);
+  }
+
+  private void parseVTG(NMEASentence s) throws NMEAParseException {
+    /* e.g.
+     * $GPVTG,054.7,T,034.4,M,005.5,N,010.2,K*48
+     */
+
+    //9 fields.  NMEA 2.3 adds the mode indicator as a 10th.
+    if(s.getFieldCount() < 9  || s.getFieldCount() > 10) {
+        throw new NMEAParseException("Invalid no fields for NMEA type VTG: " + s, NMEAParseException.IMPORTANT);
+    }
+    gpsInfo.type = GPSInfo.NMEA_VTG;
+    epochAssembler.startSentence(GPSInfo.NMEA_VTG, EpochAssembler.NO_TIME);
+
+    //Mode N means the data isn't valid.
+    if (s.getFieldCount() == 10 && s.fieldEquals(9, 'N')) {
+        return;
+    }
+
+    //Course over ground (true) - empty when not moving.
+    double h = GPSInfo.UNDEFINED;
+    if (!s.isEmpty(1)) {
+        h = s.getFixed(1, FIXED_DECIMALS) / FIXED_SCALE;
+    }
+
+    //Speed in knots - convert to metres per second.
+    double sp = GPSInfo.UNDEFINED;
+    if (!s.isEmpty(5)) {
+        sp = s.getFixed(5, FIXED_DECIMALS) / FIXED_SCALE * KNOTS_TO_MPS;
+    }
+    epochAssembler.setCourse(sp, h, false);
+  }
+  
+  private int getTime(NMEASentence s, int field) {
+    //hhmmss.sss as an integer, including the fraction, used to group sentences into epochs.
+    //The time is empty on some receivers until there is a fix.
+    if (s.isEmpty(field)) {
+        return EpochAssembler.NO_TIME;
+    }
+    return (int)s.getFixed(field, 3);
+  }
+  
+  private void setTime(NMEASentence s, int field) {
+    //hhmmss.sss - any fraction of a second is ignored.
+    epochAssembler.setTime(s.getDigits(field, 0, 2), s.getDigits(field, 2, 2), s.getDigits(field, 4, 2));
+  }
+  
+  private void setDate(NMEASentence s, int field) {
+    //ddmmyy
+    epochAssembler.setDate(s.getDigits(field, 0, 2), s.getDigits(field, 2, 2), s.getDigits(field, 4, 2));
+  }
+  
 }
\ No newline at end of file
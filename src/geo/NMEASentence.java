@@ -0,0 +1,355 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: NMEASentence
+ *
+ * desc: NMEASentence holds a single NMEA sentence in a reusable byte buffer.
+ * Rather than splitting the sentence into substrings the start and end offset of
+ * each comma separated field is recorded.  Fields are then read in place so
+ * parsing a sentence does not create any objects (other than on the error path).
+ *
+ * Field 0 is the address field without the $ e.g. GPRMC.  The checksum
+ * (* and the characters following it) is not part of any field.
+ *
+ * The checksum (XOR of the characters between $ and *) is worked out as each byte
+ * is appended so checking it doesn't need another pass over the sentence.
+ *
+ * NMEA sentences are ASCII so each character is held in a single byte.  This allows
+ * SentenceFramer to append bytes straight from the GPS stream and the sentence to be
+ * written to the NMEA log without creating a string.
+ */
+
+package geo;
+
+import java.io.PrintStream;
+
+public class NMEASentence {
+
+    //GSA has the most fields of the sentences we read (18).  Allow some spare.
+    public final static int MAX_FIELDS = 32;
+
+    //Length of the address field i.e. 2 character talker id + 3 character sentence type.
+    public final static int ID_LENGTH = 5;
+
+    //getFixed stops before value * 10 can overflow a long.
+    private final static long MAX_FIXED = Long.MAX_VALUE / 10 - 9;
+
+    //Lat / long minutes are read in units of 10^-7 minutes.  DEGREE_UNITS is the scaled
+    //value of ddmm.mmmm which holds one degree (100 * 10^7) and MINUTES_PER_DEGREE_UNITS
+    //the number of these units in a degree (60 * 10^7).
+    public final static int MINUTE_DECIMALS = 7;
+    private final static long DEGREE_UNITS = 1000000000L;
+    private final static double MINUTES_PER_DEGREE_UNITS = 600000000.0;
+
+    private final byte[] buffer = new byte[NMEAParser.NMEA_MAX_CHARS * 3];
+    private int length;
+
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fieldCount;
+
+    //True if the sentence has a $ followed (somewhere) by a *.
+    private boolean delimited;
+
+    //Offsets of the first $ and first * (-1 if not found) and the running checksum.
+    private int dollar = -1;
+    private int star = -1;
+    private int checksum;
+
+    public NMEASentence() {
+    }
+
+    public boolean load(String s) {
+        //Copy the string into the buffer a character at a time so no objects are created.
+        int n = s.length();
+        if (n > buffer.length) {
+            n = buffer.length;
+        }
+        clear();
+        for (int i = 0; i < n; i++) {
+            append((byte) s.charAt(i));
+        }
+        return tokenize();
+    }
+
+    //clear, append and end are used to build the sentence a byte at a time
+    //as it is read from the GPS stream.
+    public void clear() {
+        length = 0;
+        fieldCount = 0;
+        delimited = false;
+        dollar = -1;
+        star = -1;
+        checksum = 0;
+    }
+
+    //Returns false if the buffer is full i.e. the sentence is over length.
+    public boolean append(byte b) {
+        if (length == buffer.length) {
+            return false;
+        }
+        if (b == '$' && dollar == -1) {
+            dollar = length;
+        } else if (b == '*' && star == -1) {
+            star = length;
+        } else if (dollar != -1 && star == -1) {
+            checksum ^= b;
+        }
+        buffer[length++] = b;
+        return true;
+    }
+
+    public boolean end() {
+        return tokenize();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private boolean tokenize() {
+        fieldCount = 0;
+        delimited = false;
+
+        //Check to to see if * follows $ and that $ and * are present
+        if (dollar == -1 || star == -1 || star < dollar) {
+            return false;
+        }
+        delimited = true;
+
+        //Record the offsets of each field between the $ and the *.
+        int start = dollar + 1;
+        for (int i = start; i <= star; i++) {
+            if (i == star || buffer[i] == ',') {
+                if (fieldCount < MAX_FIELDS) {
+                    fieldStart[fieldCount] = start;
+                    fieldEnd[fieldCount] = i;
+                }
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    public boolean isDelimited() {
+        return delimited;
+    }
+
+    //True if the two hex digits after the * match the checksum of the sentence.
+    public boolean isChecksumValid() {
+        if (!delimited || length < star + 3) {
+            return false;
+        }
+        int high = hexValue(buffer[star + 1]);
+        int low = hexValue(buffer[star + 2]);
+        return high != -1 && low != -1 && (high << 4 | low) == checksum;
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public int getFieldLength(int field) {
+        return fieldEnd[field] - fieldStart[field];
+    }
+
+    public boolean isEmpty(int field) {
+        return fieldEnd[field] == fieldStart[field];
+    }
+
+    public char charAt(int field, int index) {
+        return (char) buffer[fieldStart[field] + index];
+    }
+
+    //True if the field consists of the single character c e.g. the A in a valid RMC sentence.
+    public boolean fieldEquals(int field, char c) {
+        return getFieldLength(field) == 1 && buffer[fieldStart[field]] == c;
+    }
+
+    //Packs the address field (e.g. GPRMC) into an int, 6 bits per character, so that
+    //the sentence type can be looked up without creating a string.
+    //Returns -1 if the address field isn't ID_LENGTH characters long.
+    public int getPackedId() {
+        if (fieldCount == 0 || getFieldLength(0) != ID_LENGTH) {
+            return -1;
+        }
+        int id = 0;
+        int start = fieldStart[0];
+        for (int i = start; i < start + ID_LENGTH; i++) {
+            int c = buffer[i] - ' ';
+            if (c < 0 || c > 63) {
+                return -1;
+            }
+            id = id << 6 | c;
+        }
+        return id;
+    }
+
+    //Same packing as getPackedId for a sentence id such as GPRMC.
+    public static int packId(String id) {
+        if (id.length() != ID_LENGTH) {
+            return -1;
+        }
+        int packed = 0;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int c = id.charAt(i) - ' ';
+            if (c < 0 || c > 63) {
+                return -1;
+            }
+            packed = packed << 6 | c;
+        }
+        return packed;
+    }
+
+    //Reads count digits starting at index within the field as an integer
+    //e.g. the minutes of an hhmmss time field.
+    public int getDigits(int field, int index, int count) {
+        int value = 0;
+        int start = fieldStart[field] + index;
+        if (index + count > getFieldLength(field)) {
+            throw new NumberFormatException("Field too short: " + getField(field));
+        }
+        for (int i = start; i < start + count; i++) {
+            int c = buffer[i];
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid digit: " + getField(field));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    public int getInt(int field) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        int value = 0;
+        boolean negative = false;
+
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Invalid integer: " + getField(field));
+        }
+        for (; i < end; i++) {
+            int c = buffer[i];
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid integer: " + getField(field));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    //Decimal number read in place as a long scaled by 10^decimals e.g. 267.45 read with
+    //3 decimals is 267450.  Digits past the scale are rounded so the result is within half
+    //a unit of the scale (0.5 * 10^-decimals) of the field value.
+    public long getFixed(int field, int decimals) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        long value = 0;
+        int scale = -1;  //Decimal places read so far (-1 before the point).
+        boolean negative = false;
+        boolean digits = false;
+        boolean roundUp = false;
+
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        for (; i < end; i++) {
+            int c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (scale < decimals) {
+                    if (value > MAX_FIXED) {
+                        throw new NumberFormatException("Number too big: " + getField(field));
+                    }
+                    value = value * 10 + (c - '0');
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else if (scale == decimals) {
+                    //First digit past the scale decides the rounding.  The rest are dropped.
+                    roundUp = c >= '5';
+                    scale++;
+                }
+            } else if (c == '.' && scale == -1) {
+                scale = 0;
+            } else {
+                throw new NumberFormatException("Invalid number: " + getField(field));
+            }
+        }
+        if (!digits) {
+            throw new NumberFormatException("Invalid number: " + getField(field));
+        }
+
+        //Pad out to the scale if the field has fewer decimal places.
+        for (int j = scale < 0 ? 0 : scale; j < decimals; j++) {
+            value = value * 10;
+        }
+        if (roundUp) {
+            value++;
+        }
+        return negative ? -value : value;
+    }
+
+    //Reads a latitude (ddmm.mmmm) or longitude (dddmm.mmmm) field as decimal degrees.
+    //The degrees and minutes are read as integers with the minutes rounded to
+    //MINUTE_DECIMALS places, so the result is within 0.5 * 10^-7 minutes (less than 1e-9
+    //degrees, about 0.1 mm) of the field value.  The one division at the end adds no
+    //more than double rounding error.
+    public double getDegrees(int field) {
+        long value = getFixed(field, MINUTE_DECIMALS);
+        long degrees = value / DEGREE_UNITS;
+        long minutes = value % DEGREE_UNITS;
+        return degrees + minutes / MINUTES_PER_DEGREE_UNITS;
+    }
+
+    public void writeTo(PrintStream ps) {
+        ps.write(buffer, 0, length);
+    }
+
+    //Creates a string - only use this for error messages.
+    public String getField(int field) {
+        return new String(buffer, fieldStart[field], getFieldLength(field));
+    }
+
+    //Creates a string - only use this for error messages and logging.
+    public String toString() {
+        return new String(buffer, 0, length);
+    }
+}
@@ -21,19 +21,17 @@
 /*
  * author: mglynn
  *
- * classname: Pixel
+ * classname: NMEASentenceHandler
  *
- * desc: Pixel stores pixel dimensions.
+ * desc: NMEASentenceHandler is implemented by anything that reads one type of NMEA
+ * sentence (e.g. RMC).  Handlers are registered with NMEAParser against the sentence
+ * type and the parser passes each matching sentence to the handler.
  */
 
 package geo;
 
-public class Pixel {
+public interface NMEASentenceHandler {
+
+    public void parse(NMEASentence s) throws NMEAParseException;
 
-    public double Height;
-    public double Width;
-    
-    public Pixel() {
-    }
-    
 }
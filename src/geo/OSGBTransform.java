@@ -0,0 +1,328 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: OSGBTransform
+ *
+ * desc: OSGBTransform is the context for WGS84 - OS Grid (OSGB36) conversions.
+ * The ellipsoid, Helmert and Transverse Mercator projection constants (including the
+ * rotations in radians and the meridional arc coefficients) are worked out once when
+ * the transform is created so each conversion only does the work which depends on the
+ * point.  Results are written into a caller supplied OSGridRef / LatLong.
+ *
+ * The formulas are those previously in CoordSys (based on the Ordnance Survey's
+ * "A guide to coordinate systems in Great Britain").  The transform holds no
+ * per-point state so the shared instance can be used from any thread.
+ *
+ * The latitude solves (meridional arc and cartesian to latitude) iterate until the
+ * change is within the tolerance on the ground (0.1 mm by default) or MAX_ITERATIONS
+ * is reached.  The number of iterations used is counted so this can be checked -
+ * typically 2 or 3 per solve.
+ *
+ * The batch methods convert arrays of points in place without creating anything per
+ * point.  Ranges of the arrays which don't overlap can be converted on different
+ * threads at the same time e.g. by splitting a big array with fork/join when run on
+ * Java SE.
+ *
+ * If a LookupGrid has been set (see GeoImage.registerImage) points which it covers are
+ * interpolated from it rather than converted in full.  The ...Exact methods always do
+ * the full conversion.
+ *
+ * If a GridShift has been set points which it covers are converted by projecting them
+ * on the GRS80 ellipsoid and adding the interpolated shifts (OSTN15 style) rather than
+ * by the Helmert transformation.  This is both quicker and more accurate.
+ */
+
+package geo;
+
+public class OSGBTransform {
+
+    private static final double WGS84_SEMI_MAJOR = 6378137;
+    private static final double WGS84_SEMI_MINOR = 6356752.3141;
+
+    private static final double AIRY1830_SEMI_MAJOR = 6377563.396;
+    private static final double AIRY1830_SEMI_MINOR = 6356256.910;
+
+    //WGS84 to Airy 1830 helmert transformation parameters
+    //Rotation angles in degrees, translations in metres.
+    //Airy 1830 to WGS84 uses the same values with the opposite sign.
+    private static final double WGS84_Airy1830Rx = -0.00004172222;
+    private static final double WGS84_Airy1830Ry = -0.00006861111;
+    private static final double WGS84_Airy1830Rz = -0.00023391666;
+    private static final double WGS84_Airy1830Tx = -446.448;
+    private static final double WGS84_Airy1830Ty = 125.157;
+    private static final double WGS84_Airy1830Tz = -542.060;
+    //Scale factor (not ppm).
+    private static final double WGS84_Airy1830s = 0.0000204894;
+
+    //Default tolerance for the latitude solves in metres.
+    public static final double DEFAULT_TOLERANCE = 0.0001;
+    private static final int MAX_ITERATIONS = 10;
+
+    public static final OSGBTransform WGS84_OSGB36 = new OSGBTransform();
+
+    //Ellipsoids
+    private final double wgs84EccentricitySq;
+    private final double wgs84OneMinusEccSq;
+    private final double airyEccentricitySq;
+    private final double airyOneMinusEccSq;
+
+    //Helmert transformations.  Rotations in radians.
+    private final double toAiryRx, toAiryRy, toAiryRz;
+    private final double toWGS84Rx, toWGS84Ry, toWGS84Rz;
+
+    //National Grid projection on the Airy 1830 (OSGB36) and GRS80 (ETRS89) ellipsoids.
+    private final TransverseMercator airyProjection;
+    private final TransverseMercator grs80Projection;
+
+    //Tolerance in metres and as an angle (radians) of latitude.
+    private double tolerance;
+    private double angularTolerance;
+
+    //Number of latitude solves and the iterations they used.  Only a guide if the
+    //transform is used from more than one thread at once.
+    private int solveCount;
+    private long iterationCount;
+
+    //Grid for the current map or null.
+    private volatile LookupGrid lookupGrid;
+    //Grid shift for the current map or null.
+    private volatile GridShift gridShift;
+    //Incremented when a change is made that alters the results (see CoordSys caches).
+    private volatile int generation;
+
+    public OSGBTransform() {
+        wgs84EccentricitySq = ((WGS84_SEMI_MAJOR * WGS84_SEMI_MAJOR) - (WGS84_SEMI_MINOR * WGS84_SEMI_MINOR)) /
+                (WGS84_SEMI_MAJOR * WGS84_SEMI_MAJOR);
+        wgs84OneMinusEccSq = 1 - wgs84EccentricitySq;
+        airyEccentricitySq = ((AIRY1830_SEMI_MAJOR * AIRY1830_SEMI_MAJOR) - (AIRY1830_SEMI_MINOR * AIRY1830_SEMI_MINOR)) /
+                (AIRY1830_SEMI_MAJOR * AIRY1830_SEMI_MAJOR);
+        airyOneMinusEccSq = 1 - airyEccentricitySq;
+
+        toAiryRx = Math.toRadians(WGS84_Airy1830Rx);
+        toAiryRy = Math.toRadians(WGS84_Airy1830Ry);
+        toAiryRz = Math.toRadians(WGS84_Airy1830Rz);
+        toWGS84Rx = -toAiryRx;
+        toWGS84Ry = -toAiryRy;
+        toWGS84Rz = -toAiryRz;
+
+        airyProjection = new TransverseMercator(this, AIRY1830_SEMI_MAJOR, AIRY1830_SEMI_MINOR);
+        grs80Projection = new TransverseMercator(this, WGS84_SEMI_MAJOR, WGS84_SEMI_MINOR);
+
+        setTolerance(DEFAULT_TOLERANCE);
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    //Tolerance (metres on the ground) at which the latitude solves stop.
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+        //A metre of latitude is at least 1 / semi-major axis radians.
+        this.angularTolerance = tolerance / WGS84_SEMI_MAJOR;
+        generation++;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public int getSolveCount() {
+        return solveCount;
+    }
+
+    public long getIterationCount() {
+        return iterationCount;
+    }
+
+    public void resetCounts() {
+        solveCount = 0;
+        iterationCount = 0;
+    }
+
+    void countSolve(int iterations) {
+        solveCount++;
+        iterationCount += iterations;
+    }
+
+    public LookupGrid getLookupGrid() {
+        return lookupGrid;
+    }
+
+    //Sets the grid used for points within it (null for none).
+    public void setLookupGrid(LookupGrid lookupGrid) {
+        this.lookupGrid = lookupGrid;
+    }
+
+    public GridShift getGridShift() {
+        return gridShift;
+    }
+
+    //Sets the grid shift used for points within it (null to always use Helmert).
+    public void setGridShift(GridShift gridShift) {
+        if (gridShift != this.gridShift) {
+            this.gridShift = gridShift;
+            generation++;
+        }
+    }
+
+    public OSGridRef toOSGridRef(double wgs84_lat, double wgs84_lng, OSGridRef osGridRef) {
+        LookupGrid grid = lookupGrid;
+        if (grid != null && grid.toOSGridRef(wgs84_lat, wgs84_lng, osGridRef)) {
+            return osGridRef;
+        }
+        return toOSGridRefExact(wgs84_lat, wgs84_lng, osGridRef);
+    }
+
+    public OSGridRef toOSGridRefExact(double wgs84_lat, double wgs84_lng, OSGridRef osGridRef) {
+        double phi = Math.toRadians(wgs84_lat);
+        double lamda = Math.toRadians(wgs84_lng);
+
+        GridShift shift = gridShift;
+        if (shift != null) {
+            grs80Projection.project(phi, lamda, osGridRef);
+            if (shift.apply(osGridRef.Eastings, osGridRef.Northings, osGridRef)) {
+                return osGridRef;
+            }
+        }
+
+        //Convert latitude and longitude into cartesian coordinates (height 0).
+        double sinPhi = Math.sin(phi);
+        double v = WGS84_SEMI_MAJOR / Math.sqrt(1 - (wgs84EccentricitySq * sinPhi * sinPhi));
+        double vCosPhi = v * Math.cos(phi);
+        double x = vCosPhi * Math.cos(lamda);
+        double y = vCosPhi * Math.sin(lamda);
+        double z = wgs84OneMinusEccSq * v * sinPhi;
+
+        //Convert wgs84 to airy1830 cartesian.
+        double airyX = WGS84_Airy1830Tx + x + (WGS84_Airy1830s * x) - (toAiryRz * y) + (toAiryRy * z);
+        double airyY = WGS84_Airy1830Ty + (toAiryRz * x) + y + (WGS84_Airy1830s * y) - (toAiryRx * y);
+        double airyZ = WGS84_Airy1830Tz - (toAiryRy * x) + (toAiryRx * y) + z + (WGS84_Airy1830s * z);
+
+        //Convert airy1830 cartesian to ellipsoidal longitude and latitude.
+        lamda = CoordSys.atan2(airyY, airyX);
+        phi = latitude(airyX, airyY, airyZ, AIRY1830_SEMI_MAJOR, airyEccentricitySq);
+
+        //Convert Airy 1830 lat long into grid eastings and northings
+        airyProjection.project(phi, lamda, osGridRef);
+        return osGridRef;
+    }
+
+    //Converts count points from offset in lat / lng into eastings / northings.
+    public void toOSGridRef(double[] lat, double[] lng, double[] eastings, double[] northings,
+            int offset, int count) {
+        OSGridRef osGridRef = new OSGridRef();
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            toOSGridRef(lat[i], lng[i], osGridRef);
+            eastings[i] = osGridRef.Eastings;
+            northings[i] = osGridRef.Northings;
+        }
+    }
+
+    public void toOSGridRefExact(double[] lat, double[] lng, double[] eastings, double[] northings,
+            int offset, int count) {
+        OSGridRef osGridRef = new OSGridRef();
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            toOSGridRefExact(lat[i], lng[i], osGridRef);
+            eastings[i] = osGridRef.Eastings;
+            northings[i] = osGridRef.Northings;
+        }
+    }
+
+    public LatLong toWGS84(double eastings, double northings, LatLong latLong) {
+        return toWGS84(eastings, northings, latLong, gridShift != null ? new OSGridRef() : null);
+    }
+
+    //projected is somewhere to hold the ETRS89 projected point if there is a grid shift.
+    private LatLong toWGS84(double eastings, double northings, LatLong latLong, OSGridRef projected) {
+        GridShift shift = gridShift;
+        if (shift != null && projected != null && shift.remove(eastings, northings, projected)) {
+            grs80Projection.unproject(projected.Eastings, projected.Northings, latLong);
+            latLong.Latitude = Math.toDegrees(latLong.Latitude);
+            latLong.Longitude = Math.toDegrees(latLong.Longitude);
+            return latLong;
+        }
+
+        //Grid eastings and northings to Airy 1830 lat long (radians).
+        airyProjection.unproject(eastings, northings, latLong);
+        double phi = latLong.Latitude;
+        double lamda = latLong.Longitude;
+
+        //Convert airy1830 latitude and longitude to cartesian coordinates (height 0).
+        double sinPhi = Math.sin(phi);
+        double v = AIRY1830_SEMI_MAJOR / Math.sqrt(1 - (airyEccentricitySq * sinPhi * sinPhi));
+        double vCosPhi = v * Math.cos(phi);
+        double airyX = vCosPhi * Math.cos(lamda);
+        double airyY = vCosPhi * Math.sin(lamda);
+        double airyZ = airyOneMinusEccSq * v * sinPhi;
+
+        //Convert airy1830 to wgs84 cartesian.
+        double x = -WGS84_Airy1830Tx + airyX - (WGS84_Airy1830s * airyX) - (toWGS84Rz * airyY) + (toWGS84Ry * airyZ);
+        double y = -WGS84_Airy1830Ty + (toWGS84Rz * airyX) + airyY - (WGS84_Airy1830s * airyY) - (toWGS84Rx * airyY);
+        double z = -WGS84_Airy1830Tz - (toWGS84Ry * airyX) + (toWGS84Rx * airyY) + airyZ - (WGS84_Airy1830s * airyZ);
+
+        //Convert wgs84 cartesian coordinates to ellipsoidal latitude and longitude
+        lamda = CoordSys.atan2(y, x);
+        phi = latitude(x, y, z, WGS84_SEMI_MAJOR, wgs84EccentricitySq);
+
+        latLong.Latitude = Math.toDegrees(phi);
+        latLong.Longitude = Math.toDegrees(lamda);
+        return latLong;
+    }
+
+    //Converts count points from offset in eastings / northings into lat / lng.
+    public void toWGS84(double[] eastings, double[] northings, double[] lat, double[] lng,
+            int offset, int count) {
+        LatLong latLong = new LatLong();
+        OSGridRef projected = new OSGridRef();
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            toWGS84(eastings[i], northings[i], latLong, projected);
+            lat[i] = latLong.Latitude;
+            lng[i] = latLong.Longitude;
+        }
+    }
+
+    //Ellipsoidal latitude (radians) of cartesian coordinates on the ellipsoid with semi-major
+    //axis a and eccentricity squared eccSq.
+    private double latitude(double x, double y, double z, double a, double eccSq) {
+        double p = Math.sqrt((x * x) + (y * y));
+        double phi = CoordSys.atan(z / (p * (1 - eccSq)));
+        int i = 0;
+        while (i < MAX_ITERATIONS) {
+            double sinPhi = Math.sin(phi);
+            double v = a / Math.sqrt(1 - (eccSq * sinPhi * sinPhi));
+            double newPhi = CoordSys.atan((z + (eccSq * v * sinPhi)) / p);
+            double d_phi = Math.abs(newPhi - phi);
+            phi = newPhi;
+            i++;
+            if (d_phi < angularTolerance) {
+                break;
+            }
+        }
+        countSolve(i);
+        return phi;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: PixelPolynomial
+ *
+ * desc: PixelPolynomial maps WGS84 lat / long straight to image pixels for a registered
+ * map, skipping the OS grid conversion.  Over a map of a few kilometres the conversion
+ * (and the registration, which is linear in eastings and northings) is very nearly a
+ * quadratic in lat / long so
+ *   x = c0 + c1 u + c2 v + c3 u^2 + c4 u v + c5 v^2
+ * (and the same for y) is fitted by least squares to sample points worked out the slow
+ * way.  u and v are the latitude and longitude scaled to -1..1 across the map which keeps
+ * the normal equations well conditioned.
+ *
+ * The residual is the largest difference (pixels) between the polynomial and the slow
+ * way over the points it has been checked against (see fit and check).  GeoImage only
+ * uses the polynomial if this is small.
+ */
+
+package geo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class PixelPolynomial {
+
+    private static final int TERMS = 6;
+
+    private final double midLat, midLon, latScale, lonScale;
+    private final double[] xCoeffs = new double[TERMS];
+    private final double[] yCoeffs = new double[TERMS];
+    private final double minLat, maxLat, minLon, maxLon;
+    private double residual;
+
+    public PixelPolynomial(double minLat, double maxLat, double minLon, double maxLon) {
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        midLat = (minLat + maxLat) / 2;
+        midLon = (minLon + maxLon) / 2;
+        latScale = 2 / (maxLat - minLat);
+        lonScale = 2 / (maxLon - minLon);
+    }
+
+    //Writes the fitted polynomial so that it can be read back without fitting it again
+    //(RegistrationFile).
+    public void write(DataOutputStream out) throws IOException {
+        out.writeDouble(minLat);
+        out.writeDouble(maxLat);
+        out.writeDouble(minLon);
+        out.writeDouble(maxLon);
+        for (int i = 0; i < TERMS; i++) {
+            out.writeDouble(xCoeffs[i]);
+            out.writeDouble(yCoeffs[i]);
+        }
+        out.writeDouble(residual);
+    }
+
+    public static PixelPolynomial read(DataInputStream in) throws IOException {
+        PixelPolynomial polynomial = new PixelPolynomial(in.readDouble(), in.readDouble(),
+                in.readDouble(), in.readDouble());
+        for (int i = 0; i < TERMS; i++) {
+            polynomial.xCoeffs[i] = in.readDouble();
+            polynomial.yCoeffs[i] = in.readDouble();
+        }
+        polynomial.residual = in.readDouble();
+        return polynomial;
+    }
+
+    public double getResidual() {
+        return residual;
+    }
+
+    public boolean contains(double lat, double lon) {
+        return lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon;
+    }
+
+    //Fits the polynomial to the first count sample points.  Returns false if there aren't
+    //enough points to fix the coefficients.
+    public boolean fit(double[] lat, double[] lon, double[] x, double[] y, int count) {
+        //Normal equations (A^T A) c = A^T x for both x and y.
+        double[] normal = new double[TERMS * TERMS];
+        double[] rhsX = new double[TERMS];
+        double[] rhsY = new double[TERMS];
+        double[] terms = new double[TERMS];
+
+        for (int i = 0; i < count; i++) {
+            terms(lat[i], lon[i], terms);
+            for (int j = 0; j < TERMS; j++) {
+                for (int k = 0; k < TERMS; k++) {
+                    normal[j * TERMS + k] += terms[j] * terms[k];
+                }
+                rhsX[j] += terms[j] * x[i];
+                rhsY[j] += terms[j] * y[i];
+            }
+        }
+
+        if (!solve(normal, rhsX, rhsY)) {
+            return false;
+        }
+        for (int j = 0; j < TERMS; j++) {
+            xCoeffs[j] = rhsX[j];
+            yCoeffs[j] = rhsY[j];
+        }
+
+        residual = 0;
+        check(lat, lon, x, y, count);
+        return true;
+    }
+
+    //Widens the residual to cover the first count points.  Used with points between
+    //the samples as the fit is bound to be good at the samples themselves.
+    public double check(double[] lat, double[] lon, double[] x, double[] y, int count) {
+        for (int i = 0; i < count; i++) {
+            double dx = getX(lat[i], lon[i]) - x[i];
+            double dy = getY(lat[i], lon[i]) - y[i];
+            residual = Math.max(residual, Math.sqrt(dx * dx + dy * dy));
+        }
+        return residual;
+    }
+
+    public double getX(double lat, double lon) {
+        double u = (lat - midLat) * latScale;
+        double v = (lon - midLon) * lonScale;
+        double[] c = xCoeffs;
+        return c[0] + u * (c[1] + c[3] * u + c[4] * v) + v * (c[2] + c[5] * v);
+    }
+
+    public double getY(double lat, double lon) {
+        double u = (lat - midLat) * latScale;
+        double v = (lon - midLon) * lonScale;
+        double[] c = yCoeffs;
+        return c[0] + u * (c[1] + c[3] * u + c[4] * v) + v * (c[2] + c[5] * v);
+    }
+
+    private void terms(double lat, double lon, double[] terms) {
+        double u = (lat - midLat) * latScale;
+        double v = (lon - midLon) * lonScale;
+        terms[0] = 1;
+        terms[1] = u;
+        terms[2] = v;
+        terms[3] = u * u;
+        terms[4] = u * v;
+        terms[5] = v * v;
+    }
+
+    //Gaussian elimination with partial pivoting.  The solutions are left in rhsX and rhsY.
+    private static boolean solve(double[] a, double[] rhsX, double[] rhsY) {
+        for (int col = 0; col < TERMS; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < TERMS; row++) {
+                if (Math.abs(a[row * TERMS + col]) > Math.abs(a[pivot * TERMS + col])) {
+                    pivot = row;
+                }
+            }
+            if (Math.abs(a[pivot * TERMS + col]) < 1e-12) {
+                return false;
+            }
+            if (pivot != col) {
+                for (int k = 0; k < TERMS; k++) {
+                    swap(a, pivot * TERMS + k, col * TERMS + k);
+                }
+                swap(rhsX, pivot, col);
+                swap(rhsY, pivot, col);
+            }
+            for (int row = col + 1; row < TERMS; row++) {
+                double f = a[row * TERMS + col] / a[col * TERMS + col];
+                for (int k = col; k < TERMS; k++) {
+                    a[row * TERMS + k] -= f * a[col * TERMS + k];
+                }
+                rhsX[row] -= f * rhsX[col];
+                rhsY[row] -= f * rhsY[col];
+            }
+        }
+        for (int row = TERMS - 1; row >= 0; row--) {
+            double sumX = rhsX[row];
+            double sumY = rhsY[row];
+            for (int k = row + 1; k < TERMS; k++) {
+                sumX -= a[row * TERMS + k] * rhsX[k];
+                sumY -= a[row * TERMS + k] * rhsY[k];
+            }
+            rhsX[row] = sumX / a[row * TERMS + row];
+            rhsY[row] = sumY / a[row * TERMS + row];
+        }
+        return true;
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double t = values[i];
+        values[i] = values[j];
+        values[j] = t;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: RegistrationFile
+ *
+ * desc: RegistrationFile keeps a binary copy of a map's settings (control and guidance
+ * points) together with the registration worked out from them, so loading a map
+ * doesn't mean parsing the settings xml and registering the image again (the lat / long
+ * corners, lookup grid and pixel polynomial all need exact conversions).
+ *
+ * The file has the same name as the image with EXTENSION.  It is stamped with the size
+ * and an Adler-32 checksum of the settings file, the modification time of the grid shift
+ * file (which the lat / long parts depend on) and the image size.  If any of them have
+ * changed the file is ignored and rebuilt after reading the xml.  The checksum is worked
+ * out by reading the xml bytes (not parsing them) so an edit is noticed even if the size
+ * and the file time don't change, and a map folder copied elsewhere keeps its
+ * registration.  The xml is still the master copy - the registration file can always be
+ * deleted, and is ignored if there's no xml.
+ *
+ * The file is binary (big endian, as written by DataOutputStream):
+ *   int    MAGIC
+ *   int    VERSION
+ *   long   settings file size, long settings file Adler-32 checksum
+ *   long   grid shift file modification time (0 if there isn't one)
+ *   long   image width, height
+ *   int    control points, each int x, y, double eastings, northings
+ *   int    guidance points, each int x, y, double eastings, northings,
+ *          UTF wav file, boolean user defined
+ *   boolean registered, if so
+ *     double affine transformation (E0, Ex, Ey, N0, Nx, Ny - see GeoImage)
+ *     double minLat, maxLat, minLon, maxLon
+ *     boolean lookup grid, if so LookupGrid.write
+ *     double pixel residual, boolean pixel polynomial, if so PixelPolynomial.write
+ */
+
+package geo;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import javax.microedition.lcdui.Image;
+
+public class RegistrationFile {
+
+    public static final String EXTENSION = ".reg";
+    //"GJRG"
+    private static final int MAGIC = 0x474A5247;
+    private static final int VERSION = 2;
+    private static final int STAMP_SIZE = 5;
+    private static final int BUFFER_SIZE = 512;
+    //Largest prime below 2^16, and the most bytes that can be summed before the Adler-32
+    //sums can overflow an int (zlib's 5552 is for unsigned ints).
+    private static final int ADLER_BASE = 65521;
+    private static final int ADLER_MAX_BLOCK = 3854;
+
+    private RegistrationFile() {
+    }
+
+    //Sets up the image from its registration file if there's one up to date with the
+    //settings file.  Returns false, leaving the image alone, if there isn't.
+    public static boolean read(GeoImage gimage) {
+        FileConnection fileConn = null;
+        DataInputStream in = null;
+        try {
+            long[] stamp = stamp(gimage);
+            if (stamp == null) {
+                return false;
+            }
+            fileConn = (FileConnection) Connector.open(gimage.getRegistrationFilename(), Connector.READ);
+            in = open(fileConn, stamp);
+            if (in == null) {
+                return false;
+            }
+            gimage.readRegistration(in);
+            return true;
+        } catch (IOException e) {
+            //Unreadable (or half written) file - the xml will be used instead.
+            return false;
+        } finally {
+            close(fileConn, in, null);
+        }
+    }
+
+    //Sets just the control points of a map which isn't loaded (so the image size is
+    //passed in) if its registration file is up to date.  Returns false if it isn't.
+    public static boolean readControlPoints(GeoImage gimage, int width, int height) {
+        FileConnection fileConn = null;
+        DataInputStream in = null;
+        try {
+            long[] stamp = stamp(gimage, width, height);
+            if (stamp == null) {
+                return false;
+            }
+            fileConn = (FileConnection) Connector.open(gimage.getRegistrationFilename(), Connector.READ);
+            in = open(fileConn, stamp);
+            if (in == null) {
+                return false;
+            }
+            gimage.readControlPointsOnly(in);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(fileConn, in, null);
+        }
+    }
+
+    //Opens the file and reads past the header.  Null if there isn't a file or it doesn't
+    //match the stamp.
+    private static DataInputStream open(FileConnection fileConn, long[] stamp) throws IOException {
+        if (!fileConn.exists()) {
+            return null;
+        }
+        DataInputStream in = fileConn.openDataInputStream();
+        boolean match = in.readInt() == MAGIC && in.readInt() == VERSION;
+        for (int i = 0; i < STAMP_SIZE && match; i++) {
+            match = in.readLong() == stamp[i];
+        }
+        if (!match) {
+            in.close();
+            return null;
+        }
+        return in;
+    }
+
+    //Writes the image's points and registration.  Called after the settings file has been
+    //written so the stamp matches it.  Nothing is written if there's no settings file.
+    public static void write(GeoImage gimage) throws IOException {
+        FileConnection fileConn = null;
+        DataOutputStream out = null;
+        try {
+            long[] stamp = stamp(gimage);
+            if (stamp == null) {
+                return;
+            }
+            fileConn = (FileConnection) Connector.open(gimage.getRegistrationFilename(), Connector.READ_WRITE);
+            if (fileConn.exists()) {
+                fileConn.delete();
+            }
+            fileConn.create();
+            out = fileConn.openDataOutputStream();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (int i = 0; i < STAMP_SIZE; i++) {
+                out.writeLong(stamp[i]);
+            }
+            gimage.writeRegistration(out);
+        } finally {
+            close(fileConn, null, out);
+        }
+    }
+
+    private static long[] stamp(GeoImage gimage) throws IOException {
+        Image image = gimage.getImage();
+        return image == null ? stamp(gimage, 0, 0) : stamp(gimage, image.getWidth(), image.getHeight());
+    }
+
+    //Null if there's no settings file.
+    private static long[] stamp(GeoImage gimage, int width, int height) throws IOException {
+        long[] stamp = new long[STAMP_SIZE];
+        FileConnection fileConn = null;
+        InputStream in = null;
+        try {
+            fileConn = (FileConnection) Connector.open(gimage.getXMLFilename(), Connector.READ);
+            if (!fileConn.exists()) {
+                return null;
+            }
+            stamp[0] = fileConn.fileSize();
+            in = fileConn.openInputStream();
+            stamp[1] = checksum(in);
+            in.close();
+            in = null;
+            fileConn.close();
+            fileConn = (FileConnection) Connector.open(gimage.getDirname() + GeoImage.GRID_SHIFT_FILE, Connector.READ);
+            if (fileConn.exists()) {
+                stamp[2] = fileConn.lastModified();
+            }
+        } finally {
+            close(fileConn, in, null);
+        }
+        stamp[3] = width;
+        stamp[4] = height;
+        return stamp;
+    }
+
+    //Adler-32 (as java.util.zip.Adler32, which CLDC doesn't have) of the rest of the
+    //stream, read in blocks.  The sums are only reduced once a block as they can't
+    //overflow in ADLER_MAX_BLOCK bytes.
+    private static long checksum(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int a = 1;
+        int b = 0;
+        int unreduced = 0;
+        int count;
+        while ((count = in.read(buffer, 0, BUFFER_SIZE)) != -1) {
+            for (int i = 0; i < count; i++) {
+                a += buffer[i] & 0xff;
+                b += a;
+            }
+            unreduced += count;
+            if (unreduced > ADLER_MAX_BLOCK - BUFFER_SIZE) {
+                a %= ADLER_BASE;
+                b %= ADLER_BASE;
+                unreduced = 0;
+            }
+        }
+        a %= ADLER_BASE;
+        b %= ADLER_BASE;
+        return ((long) b << 16) | a;
+    }
+
+    private static void close(FileConnection fileConn, InputStream in, OutputStream out) {
+        try {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+            if (fileConn != null) {
+                fileConn.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
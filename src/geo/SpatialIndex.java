@@ -0,0 +1,182 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: SpatialIndex
+ *
+ * desc: SpatialIndex holds points (any object with an OS grid position) in square cells
+ * of the grid so that the points in a rectangle (e.g. the part of the map on screen) or
+ * within a distance of the current position can be found without looking at every
+ * point.  The work done by a query depends on the number of cells it covers and the
+ * points in them, not on the total number of points.
+ *
+ * Cells are hashed into a fixed number of buckets so the index takes the same space
+ * whatever the extent of the points.  Each entry records its cell so a bucket shared by
+ * two cells of a query doesn't give the same point twice.
+ *
+ * Methods are synchronized as points are added (e.g. by GPXReader) while other threads
+ * are querying.
+ */
+
+package geo;
+
+import java.util.Vector;
+
+public class SpatialIndex {
+
+    //Number of buckets (a power of 2).
+    private static final int BUCKETS = 1024;
+
+    private final double cellSize;
+    private final Vector[] buckets = new Vector[BUCKETS];
+    private int size;
+
+    private static class Entry {
+        Object item;
+        double eastings, northings;
+        int cellX, cellY;
+    }
+
+    //cellSize in metres - around the size of a typical query works best.
+    public SpatialIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void add(Object item, double eastings, double northings) {
+        Entry entry = new Entry();
+        entry.item = item;
+        entry.eastings = eastings;
+        entry.northings = northings;
+        entry.cellX = cell(eastings);
+        entry.cellY = cell(northings);
+
+        int b = bucket(entry.cellX, entry.cellY);
+        if (buckets[b] == null) {
+            buckets[b] = new Vector();
+        }
+        buckets[b].addElement(entry);
+        size++;
+    }
+
+    //Removes the item, which must be at the position it was added with.
+    public synchronized boolean remove(Object item, double eastings, double northings) {
+        Vector bucket = buckets[bucket(cell(eastings), cell(northings))];
+        if (bucket != null) {
+            for (int i = 0; i < bucket.size(); i++) {
+                if (((Entry) bucket.elementAt(i)).item == item) {
+                    bucket.removeElementAt(i);
+                    size--;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = null;
+        }
+        size = 0;
+    }
+
+    //Puts the items inside the rectangle into result (which is cleared first).
+    public synchronized void query(double minEastings, double minNorthings,
+            double maxEastings, double maxNorthings, Vector result) {
+        search(minEastings, minNorthings, maxEastings, maxNorthings, -1, 0, 0, result);
+    }
+
+    //Puts the items within radius metres of the point into result (which is cleared first).
+    public synchronized void queryRadius(double eastings, double northings, double radius, Vector result) {
+        search(eastings - radius, northings - radius, eastings + radius, northings + radius,
+                radius, eastings, northings, result);
+    }
+
+    //Rectangle search, also limited to the circle about (eastings, northings) if
+    //radius >= 0.
+    private void search(double minEastings, double minNorthings, double maxEastings, double maxNorthings,
+            double radius, double eastings, double northings, Vector result) {
+        result.removeAllElements();
+        if (size == 0 || maxEastings < minEastings || maxNorthings < minNorthings) {
+            return;
+        }
+        int minCellX = cell(minEastings);
+        int maxCellX = cell(maxEastings);
+        int minCellY = cell(minNorthings);
+        int maxCellY = cell(maxNorthings);
+
+        if ((double) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > BUCKETS) {
+            //Covers more cells than there are buckets - quicker to look at every bucket once.
+            for (int b = 0; b < BUCKETS; b++) {
+                addMatches(buckets[b], minEastings, minNorthings, maxEastings, maxNorthings,
+                        radius, eastings, northings, Integer.MIN_VALUE, 0, result);
+            }
+            return;
+        }
+        for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                addMatches(buckets[bucket(cellX, cellY)], minEastings, minNorthings, maxEastings, maxNorthings,
+                        radius, eastings, northings, cellX, cellY, result);
+            }
+        }
+    }
+
+    //Adds the entries of the bucket in the cell (any cell if cellX is Integer.MIN_VALUE)
+    //which are inside the rectangle (and circle).
+    private static void addMatches(Vector bucket, double minEastings, double minNorthings,
+            double maxEastings, double maxNorthings, double radius, double eastings, double northings,
+            int cellX, int cellY, Vector result) {
+        if (bucket == null) {
+            return;
+        }
+        double radiusSq = radius * radius;
+        for (int i = 0; i < bucket.size(); i++) {
+            Entry entry = (Entry) bucket.elementAt(i);
+            if (cellX != Integer.MIN_VALUE && (entry.cellX != cellX || entry.cellY != cellY)) {
+                continue;
+            }
+            if (entry.eastings < minEastings || entry.eastings > maxEastings ||
+                    entry.northings < minNorthings || entry.northings > maxNorthings) {
+                continue;
+            }
+            if (radius >= 0) {
+                double de = entry.eastings - eastings;
+                double dn = entry.northings - northings;
+                if (de * de + dn * dn > radiusSq) {
+                    continue;
+                }
+            }
+            result.addElement(entry.item);
+        }
+    }
+
+    private int cell(double metres) {
+        return (int) Math.floor(metres / cellSize);
+    }
+
+    private static int bucket(int cellX, int cellY) {
+        return (cellX * 73856093 ^ cellY * 19349663) & (BUCKETS - 1);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: TrackStore
+ *
+ * desc: TrackStore holds the points of an imported route (OS grid refs) in growable int
+ * arrays of decimetres rather than as an OSGridRef object per point.  This takes 8 bytes
+ * a point (plus 4 for the index below) so much longer routes fit in the heap.  Points
+ * are read by index so going through them doesn't create any objects.
+ *
+ * Like SpatialIndex the points can be looked up by rectangle or radius.  The index is
+ * the point numbers sorted by cell (CELL_SIZE metre squares hashed into buckets) with
+ * the start of each bucket, built when the first query after points are added is made.
+ * Queries return the number of points found and put their numbers in the caller's
+ * array.
+ *
+ * Methods are synchronized as points are added by GPXReader while other threads are
+ * querying.
+ */
+
+package geo;
+
+public class TrackStore {
+
+    public static final int UNITS_PER_METRE = 10;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int CELL_SIZE = 250;
+    private static final int CELL_UNITS = CELL_SIZE * UNITS_PER_METRE;
+    //At least this many buckets and on average no more than BUCKET_POINTS points in each.
+    private static final int MIN_BUCKETS = 64;
+    private static final int BUCKET_POINTS = 4;
+
+    private int[] eastings = new int[INITIAL_CAPACITY];
+    private int[] northings = new int[INITIAL_CAPACITY];
+    private int size;
+
+    //Number of points indexed (-1 if the index needs building), point numbers in bucket
+    //order and the start of each bucket in it.
+    private int indexedSize = -1;
+    private int[] order;
+    private int[] bucketStart;
+    private int bucketMask;
+
+    public TrackStore() {
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void add(double pointEastings, double pointNorthings) {
+        if (size == eastings.length) {
+            int[] newEastings = new int[size * 2];
+            int[] newNorthings = new int[size * 2];
+            System.arraycopy(eastings, 0, newEastings, 0, size);
+            System.arraycopy(northings, 0, newNorthings, 0, size);
+            eastings = newEastings;
+            northings = newNorthings;
+        }
+        eastings[size] = toUnits(pointEastings);
+        northings[size] = toUnits(pointNorthings);
+        size++;
+        indexedSize = -1;
+    }
+
+    public synchronized void clear() {
+        //Give the space back rather than keeping arrays sized for the last route.
+        eastings = new int[INITIAL_CAPACITY];
+        northings = new int[INITIAL_CAPACITY];
+        size = 0;
+        order = null;
+        bucketStart = null;
+        indexedSize = -1;
+    }
+
+    public synchronized double getEastings(int index) {
+        return eastings[index] / (double) UNITS_PER_METRE;
+    }
+
+    public synchronized double getNorthings(int index) {
+        return northings[index] / (double) UNITS_PER_METRE;
+    }
+
+    //Finds the points inside the rectangle.  Returns the number found; the first
+    //result.length of their numbers are put in result (which may be null).
+    public synchronized int query(double minEastings, double minNorthings,
+            double maxEastings, double maxNorthings, int[] result) {
+        return search(minEastings, minNorthings, maxEastings, maxNorthings, -1, 0, 0, result);
+    }
+
+    //Finds the points within radius metres of the point - see query.
+    public synchronized int queryRadius(double pointEastings, double pointNorthings, double radius, int[] result) {
+        return search(pointEastings - radius, pointNorthings - radius, pointEastings + radius,
+                pointNorthings + radius, radius, pointEastings, pointNorthings, result);
+    }
+
+    private int search(double minEastings, double minNorthings, double maxEastings, double maxNorthings,
+            double radius, double pointEastings, double pointNorthings, int[] result) {
+        if (size == 0 || maxEastings < minEastings || maxNorthings < minNorthings) {
+            return 0;
+        }
+        if (indexedSize != size) {
+            buildIndex();
+        }
+
+        //Everything in units.
+        double minE = minEastings * UNITS_PER_METRE;
+        double minN = minNorthings * UNITS_PER_METRE;
+        double maxE = maxEastings * UNITS_PER_METRE;
+        double maxN = maxNorthings * UNITS_PER_METRE;
+        double e = pointEastings * UNITS_PER_METRE;
+        double n = pointNorthings * UNITS_PER_METRE;
+        double radiusSq = radius * radius * UNITS_PER_METRE * UNITS_PER_METRE;
+
+        int minCellX = (int) Math.floor(minE / CELL_UNITS);
+        int maxCellX = (int) Math.floor(maxE / CELL_UNITS);
+        int minCellY = (int) Math.floor(minN / CELL_UNITS);
+        int maxCellY = (int) Math.floor(maxN / CELL_UNITS);
+        boolean scanAll = (double) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > bucketMask + 1;
+
+        int count = 0;
+        int cellX = minCellX;
+        int cellY = minCellY;
+        while (true) {
+            int start, end;
+            if (scanAll) {
+                //Covers more cells than there are buckets - quicker to look at every point once.
+                start = 0;
+                end = size;
+            } else {
+                int b = bucket(cellX, cellY);
+                start = bucketStart[b];
+                end = bucketStart[b + 1];
+            }
+            for (int k = start; k < end; k++) {
+                int p = order[k];
+                int pe = eastings[p];
+                int pn = northings[p];
+                if (pe < minE || pe > maxE || pn < minN || pn > maxN) {
+                    continue;
+                }
+                //Buckets are shared by several cells.
+                if (!scanAll && (cell(pe) != cellX || cell(pn) != cellY)) {
+                    continue;
+                }
+                if (radius >= 0 && (pe - e) * (pe - e) + (pn - n) * (pn - n) > radiusSq) {
+                    continue;
+                }
+                if (result != null && count < result.length) {
+                    result[count] = p;
+                }
+                count++;
+            }
+
+            if (scanAll || (cellX == maxCellX && cellY == maxCellY)) {
+                break;
+            }
+            if (cellX < maxCellX) {
+                cellX++;
+            } else {
+                cellX = minCellX;
+                cellY++;
+            }
+        }
+        return count;
+    }
+
+    private void buildIndex() {
+        //Counting sort of the point numbers by bucket.
+        int buckets = MIN_BUCKETS;
+        while (buckets * BUCKET_POINTS < size) {
+            buckets = buckets << 1;
+        }
+        bucketMask = buckets - 1;
+        if (bucketStart == null || bucketStart.length != buckets + 1) {
+            bucketStart = new int[buckets + 1];
+        } else {
+            for (int b = 0; b <= buckets; b++) {
+                bucketStart[b] = 0;
+            }
+        }
+        if (order == null || order.length < size) {
+            order = new int[eastings.length];
+        }
+
+        for (int p = 0; p < size; p++) {
+            bucketStart[bucket(cell(eastings[p]), cell(northings[p])) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        //Fill each bucket using bucketStart as the next free slot, then move the starts back.
+        for (int p = 0; p < size; p++) {
+            int b = bucket(cell(eastings[p]), cell(northings[p]));
+            order[bucketStart[b]++] = p;
+        }
+        for (int b = buckets; b > 0; b--) {
+            bucketStart[b] = bucketStart[b - 1];
+        }
+        bucketStart[0] = 0;
+        indexedSize = size;
+    }
+
+    private static int toUnits(double metres) {
+        return (int) Math.floor(metres * UNITS_PER_METRE + 0.5);
+    }
+
+    //Cell of a coordinate in units, rounding down for negative values too.
+    private static int cell(int units) {
+        int cell = units / CELL_UNITS;
+        if (units < 0 && cell * CELL_UNITS != units) {
+            cell--;
+        }
+        return cell;
+    }
+
+    private int bucket(int cellX, int cellY) {
+        return (cellX * 73856093 ^ cellY * 19349663) & bucketMask;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: TransverseMercator
+ *
+ * desc: TransverseMercator projects latitude and longitude on an ellipsoid to grid
+ * eastings and northings and back, using the National Grid projection formulas (true
+ * origin 49N 2W, false origin -100km N 400km E).  The constants for the ellipsoid are
+ * worked out when it is created.  OSGBTransform uses one on the Airy 1830 ellipsoid
+ * (OSGB36) and one on the GRS80 / WGS84 ellipsoid (ETRS89) for grid shifts.
+ *
+ * Latitudes and longitudes are in radians.  The meridional arc solve in unproject uses
+ * the tolerance of, and is counted by, the OSGBTransform which owns the projection.
+ */
+
+package geo;
+
+class TransverseMercator {
+
+    private static final double OSGB_ORIGIN_E = 400000;
+    private static final double OSGB_ORIGIN_N = -100000;
+    private static final double OSGB_SCALE_FACTOR = 0.9996012717;
+    private static final double OSGB_ORIGIN_LAT = 49;
+    private static final double OSGB_ORIGIN_LNG = -2;
+
+    private static final int MAX_ITERATIONS = 10;
+
+    private final OSGBTransform transform;
+    private final double eccentricitySq;
+    private final double originPhi, originLamda;
+    private final double aF0, aF0OneMinusEccSq, bF0;
+    //Meridional arc coefficients (n = (a - b) / (a + b)).
+    private final double m0, m1, m2, m3;
+
+    //National Grid projection on the ellipsoid with semi-major / minor axes a and b.
+    TransverseMercator(OSGBTransform transform, double a, double b) {
+        this.transform = transform;
+        eccentricitySq = ((a * a) - (b * b)) / (a * a);
+
+        originPhi = Math.toRadians(OSGB_ORIGIN_LAT);
+        originLamda = Math.toRadians(OSGB_ORIGIN_LNG);
+        aF0 = a * OSGB_SCALE_FACTOR;
+        aF0OneMinusEccSq = aF0 * (1 - eccentricitySq);
+        bF0 = b * OSGB_SCALE_FACTOR;
+
+        double n = (a - b) / (a + b);
+        double n2 = n * n;
+        double n3 = n2 * n;
+        m0 = 1 + n + (5.0/4.0 * n2) + (5.0/4.0 * n3);
+        m1 = (3 * n) + (3 * n2) + (21.0/8.0 * n3);
+        m2 = (15.0/8.0 * n2) + (15.0/8.0 * n3);
+        m3 = 35.0/24.0 * n3;
+    }
+
+    void project(double phi, double lamda, OSGridRef osGridRef) {
+        double sinPhi = Math.sin(phi);
+        double cosPhi = Math.cos(phi);
+        double tanSq = (sinPhi / cosPhi) * (sinPhi / cosPhi);
+        double k = 1 - eccentricitySq * sinPhi * sinPhi;
+        double v = aF0 / Math.sqrt(k);
+        double rho = aF0OneMinusEccSq / (k * Math.sqrt(k));
+        double eta_sq = v / rho - 1;
+        double cos3 = cosPhi * cosPhi * cosPhi;
+        double cos5 = cos3 * cosPhi * cosPhi;
+
+        double I = meridionalArc(phi) + OSGB_ORIGIN_N;
+        double II = (v / 2.0) * sinPhi * cosPhi;
+        double III = (v / 24.0) * sinPhi * cos3 * (5 - tanSq + (9 * eta_sq));
+        double IIIA = (v / 720.0) * sinPhi * cos5 * (61 - (58 * tanSq) + tanSq * tanSq);
+        double IV = v * cosPhi;
+        double V = (v / 6.0) * cos3 * ((v / rho) - tanSq);
+        double VI = (v / 120.0) * cos5 *
+                (5 - (18 * tanSq) + tanSq * tanSq + (14 * eta_sq) - (58 * tanSq * eta_sq));
+
+        double dl = lamda - originLamda;
+        double dlSq = dl * dl;
+        osGridRef.Eastings = OSGB_ORIGIN_E + dl * (IV + dlSq * (V + dlSq * VI));
+        osGridRef.Northings = I + dlSq * (II + dlSq * (III + dlSq * IIIA));
+    }
+
+    //Writes the latitude and longitude in radians (not degrees) to latLong.
+    void unproject(double eastings, double northings, LatLong latLong) {
+        //Find the latitude for the meridional arc of the northings.
+        double tolerance = transform.getTolerance();
+        double phi = ((northings - OSGB_ORIGIN_N) / aF0) + originPhi;
+        double M = meridionalArc(phi);
+        int i = 0;
+        while (i < MAX_ITERATIONS && Math.abs(northings - OSGB_ORIGIN_N - M) >= tolerance) {
+            phi = ((northings - OSGB_ORIGIN_N - M) / aF0) + phi;
+            M = meridionalArc(phi);
+            i++;
+        }
+        transform.countSolve(i);
+
+        double sinPhi = Math.sin(phi);
+        double cosPhi = Math.cos(phi);
+        double tanPhi = sinPhi / cosPhi;
+        double tanSq = tanPhi * tanPhi;
+        double tan4 = tanSq * tanSq;
+        double k = 1 - eccentricitySq * sinPhi * sinPhi;
+        double v = aF0 / Math.sqrt(k);
+        double rho = aF0OneMinusEccSq / (k * Math.sqrt(k));
+        double eta_sq = v / rho - 1;
+        double v3 = v * v * v;
+        double v5 = v3 * v * v;
+        double v7 = v5 * v * v;
+        double secPhi = 1 / cosPhi;
+
+        double VII = tanPhi / (2.0 * rho * v);
+        double VIII = (tanPhi / (24.0 * rho * v3)) * (5 + (3 * tanSq) + eta_sq - (9 * tanSq * eta_sq));
+        double IX = (tanPhi / (720.0 * rho * v5)) * (61 + (90 * tanSq) + (45 * tan4));
+        double X = secPhi / v;
+        double XI = (secPhi / (6.0 * v3)) * (v / rho + (2 * tanSq));
+        double XII = (secPhi / (120.0 * v5)) * (5 + (28 * tanSq) + (24 * tan4));
+        double XIIA = (secPhi / (5040.0 * v7)) * (61 + (662 * tanSq) + (1320 * tan4) + (720 * tan4 * tanSq));
+
+        double de = eastings - OSGB_ORIGIN_E;
+        double deSq = de * de;
+        latLong.Latitude = phi - deSq * (VII - deSq * (VIII - deSq * IX));
+        latLong.Longitude = originLamda + de * (X - deSq * (XI - deSq * (XII - deSq * XIIA)));
+    }
+
+    //Meridional arc (scaled by F0) from the true origin's latitude to phi.
+    private double meridionalArc(double phi) {
+        double dPhi = phi - originPhi;
+        double sPhi = phi + originPhi;
+        return bF0 * ((m0 * dPhi) -
+                (m1 * Math.sin(dPhi) * Math.cos(sPhi)) +
+                (m2 * Math.sin(2 * dPhi) * Math.cos(2 * sPhi)) -
+                (m3 * Math.sin(3 * dPhi) * Math.cos(3 * sPhi)));
+    }
+}
@@ -32,6 +32,7 @@ package gpsjake;
 import javax.microedition.lcdui.*;
 import geo.ControlPoint;
 import geo.GeoImage;
+import geo.OSGridRef;
 
 public class ControlPointScreen extends Form implements CommandListener {
     
@@ -50,13 +51,13 @@ public class ControlPointScreen extends Form implements CommandListener {
     private final StringItem imageYStringItem;
     private final StringItem eastingsStringItem;
     private final StringItem northingsStringItem;
-    private final StringItem diffFromMeanPixelWidthStringItem;
-    private final StringItem diffFromMeanPixelHeightStringItem;
+    private final StringItem residualEastingsStringItem;
+    private final StringItem residualNorthingsStringItem;
     private final TextField eastingsTextField;
     private final TextField northingsTextField;            
     private int image_x, image_y;
     private double eastings, northings;
-    private double diffFromMeanPixelWidth, diffFromMeanPixelHeight;
+    private double residualEastings, residualNorthings;
     private final static int NO_GPS_READS=50;
     
     //This constructor is called when adding a control point
@@ -73,8 +74,8 @@ public class ControlPointScreen extends Form implements CommandListener {
         //Initialise but don't add to form
         eastingsStringItem = new StringItem("", "");
         northingsStringItem = new StringItem("", "");
-        diffFromMeanPixelWidthStringItem = new StringItem("", "");
-        diffFromMeanPixelHeightStringItem = new StringItem("", "");
+        residualEastingsStringItem = new StringItem("", "");
+        residualNorthingsStringItem = new StringItem("", "");
         eastingsTextField = new TextField("Eastings", "", 6, TextField.NUMERIC);
         northingsTextField = new TextField("Northings", "", 6, TextField.NUMERIC);
 
@@ -110,8 +111,8 @@ public class ControlPointScreen extends Form implements CommandListener {
         this.image_y = controlPoint.image_y;
         this.eastings = controlPoint.eastings;
         this.northings = controlPoint.northings;
-        this.diffFromMeanPixelWidth = controlPoint.pixelWidthDiffFromMean;
-        this.diffFromMeanPixelHeight = controlPoint.pixelHeightDiffFromMean;
+        this.residualEastings = controlPoint.residualEastings;
+        this.residualNorthings = controlPoint.residualNorthings;
         
         imageXStringItem = new StringItem("image x:", new Integer(image_x).toString());
         imageYStringItem = new StringItem("image y:", new Integer(image_y).toString());
@@ -119,15 +120,14 @@ public class ControlPointScreen extends Form implements CommandListener {
         eastingsTextField = new TextField("", "", 6, TextField.NUMERIC);
         northingsTextField = new TextField("", "", 6, TextField.NUMERIC);
         if (gimage.registered) {
-            String strDiffFromMeanPixelWidth = new Double(diffFromMeanPixelWidth).toString();
-            String strDiffFromMeanPixelHeight = new Double(diffFromMeanPixelHeight).toString();
-            strDiffFromMeanPixelWidth = strDiffFromMeanPixelWidth.substring(0, (strDiffFromMeanPixelWidth.indexOf(".") + 2));
-            strDiffFromMeanPixelHeight = strDiffFromMeanPixelHeight.substring(0, (strDiffFromMeanPixelHeight.indexOf(".") + 2));
-            diffFromMeanPixelWidthStringItem = new StringItem("Pixel Error Width (m)", strDiffFromMeanPixelWidth);
-            diffFromMeanPixelHeightStringItem = new StringItem("Pixel Error Height (m):", strDiffFromMeanPixelHeight);
+            //Rounded to 0.1m - this also stops very small residuals being shown as e.g. 1.2E-10.
+            String strResidualEastings = new Double(Math.floor(residualEastings * 10 + 0.5) / 10).toString();
+            String strResidualNorthings = new Double(Math.floor(residualNorthings * 10 + 0.5) / 10).toString();
+            residualEastingsStringItem = new StringItem("Residual Eastings (m):", strResidualEastings);
+            residualNorthingsStringItem = new StringItem("Residual Northings (m):", strResidualNorthings);
         } else {
-            diffFromMeanPixelWidthStringItem = new StringItem("", "");
-            diffFromMeanPixelHeightStringItem = new StringItem("", "");
+            residualEastingsStringItem = new StringItem("", "");
+            residualNorthingsStringItem = new StringItem("", "");
         }
         eastingsStringItem = new StringItem("Eastings:", this.midlet.getGPSInfo().getEastingsAsStr(eastings));
         northingsStringItem = new StringItem("Northings:", this.midlet.getGPSInfo().getNorthingsAsStr(northings));
@@ -136,8 +136,8 @@ public class ControlPointScreen extends Form implements CommandListener {
             append(imageYStringItem);
             append(eastingsStringItem);
             append(northingsStringItem);
-            append(diffFromMeanPixelWidthStringItem);
-            append(diffFromMeanPixelHeightStringItem);
+            append(residualEastingsStringItem);
+            append(residualNorthingsStringItem);
             
             deleteCommand = new Command("Delete", Command.ITEM, 1);
             showCommand = new Command("Show", Command.ITEM, 1);            
@@ -200,7 +200,7 @@ public class ControlPointScreen extends Form implements CommandListener {
             } else if (c == showCommand) {
                 midlet.backMap(image_x, image_y);                
             } else if (c == gpsCommand) {
-                if (this.midlet.getGPSInfo().getFix()) {
+                if (this.midlet.getGPSInfo().getCurrentFix().hasFix()) {
                     deleteAll();
                     gauge = new Gauge("Reading GPS...", false, Gauge.INDEFINITE, Gauge.CONTINUOUS_RUNNING);
                     //#ifndef Belle_Emulator
@@ -209,8 +209,10 @@ public class ControlPointScreen extends Form implements CommandListener {
                     
                     //Read GPS 10 times - add to vector and get average
                     for (int i=0; i < NO_GPS_READS; i++) {
-                        totalEastings = totalEastings + this.midlet.getGPSInfo().osGridRef.Eastings;
-                        totalNorthings = totalNorthings + this.midlet.getGPSInfo().osGridRef.Northings;
+                        //Take eastings and northings from the same snapshot.
+                        OSGridRef gridRef = this.midlet.getGPSInfo().getCurrentFix().getOSGridRef();
+                        totalEastings = totalEastings + gridRef.Eastings;
+                        totalNorthings = totalNorthings + gridRef.Northings;
                     }
                     meanEastings = totalEastings / NO_GPS_READS;
                     meanNorthings = totalNorthings / NO_GPS_READS;
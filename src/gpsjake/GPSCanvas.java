@@ -36,10 +36,12 @@ import geo.ImagePoint;
 import geo.GuidancePoint;
 import geo.ControlPoint;
 import geo.OSGridRef;
+import geo.GPSFix;
+import geo.FixListener;
 
 import java.util.Vector;
 
-public class GPSCanvas extends MapCanvas implements CommandListener {
+public class GPSCanvas extends MapCanvas implements CommandListener, FixListener {
 
     private GPSJakeMIDlet midlet;
     private final Command backCommand;
@@ -54,6 +56,8 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
     private final Command guidanceOffCommand;
     private final Command offCourseAlarmOnCommand;
     private final Command offCourseAlarmOffCommand;
+    private final Command mapSwitchingOnCommand;
+    private final Command mapSwitchingOffCommand;
     private final Command zoomOutCommand;
     private final Command zoomInCommand;
     private final Command showClockCommand;
@@ -190,6 +194,8 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
     private String heightString;
     private String geoidHeightString;
     private String numSatsString;
+    //Snapshot of the GPS data taken at the start of each tick.
+    private GPSFix gpsFix;
     private String spdString;
     private GeoImage gimage;
     private ImagePoint gpsPosnImageCoords = new ImagePoint();
@@ -201,7 +207,11 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
     private ControlPoint controlPoint = new ControlPoint();    
     private GuidancePoint guidancePoint = new GuidancePoint();
      */
-    private ImagePoint gpxImagePoint;
+    private ImagePoint gpxImagePoint = new ImagePoint();
+    //Numbers of the gpx points on screen, filled each frame.
+    private int[] visibleGPXPoints = new int[256];
+    //Map to change to at the start of the next tick (MapSwitcher).
+    private GeoImage pendingMap;
     private ControlPoint controlPoint;
     private GuidancePoint guidancePoint;
     private int keyStates;
@@ -232,6 +242,7 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
         
         this.midlet = midlet;
         this.gimage = gimage;
+        this.gpsFix = midlet.getGPSInfo().getCurrentFix();
         
         //Check if touch screen
     	String keyboardType = System.getProperty("com.nokia.keyboard.type");
@@ -362,6 +373,10 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
         allCommands.addElement(offCourseAlarmOnCommand);
         offCourseAlarmOffCommand = new Command("Offcourse alarm off", Command.ITEM, 15);
         allCommands.addElement(offCourseAlarmOffCommand);
+        mapSwitchingOnCommand = new Command("Map switching on", Command.ITEM, 15);
+        allCommands.addElement(mapSwitchingOnCommand);
+        mapSwitchingOffCommand = new Command("Map switching off", Command.ITEM, 15);
+        allCommands.addElement(mapSwitchingOffCommand);
         qlCommand = new Command("Map Image Quicklist", Command.ITEM, 16);
         allCommands.addElement(qlCommand);
         showCompassCommand = new Command("Show Compass", Command.ITEM, 17);
@@ -442,6 +457,14 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
 	                    }
                     }
 
+                    if (gimage.registered) {
+	                    if (midlet.isMapSwitchingOn()) {
+	                        visibleCommands.addElement(mapSwitchingOffCommand);
+	                    } else {
+	                        visibleCommands.addElement(mapSwitchingOnCommand);
+	                    }
+                    }
+
                     if (gimage.registered) {
 	                    if (guidanceOn) {
 	                        visibleCommands.addElement(guidanceOffCommand);
@@ -536,8 +559,52 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
         }
     }
 
+    public synchronized void start() {
+        super.start();
+        //Redraw as soon as there is a new fix (or it is lost) rather than waiting for the next tick.
+        //start can be called again without a stop so don't add the listener twice.
+        midlet.getGPSInfo().removeFixListener(this);
+        midlet.getGPSInfo().addFixListener(this, FixListener.NEW_FIX | FixListener.FIX_LOST, 0);
+    }
+
+    public synchronized void stop() {
+        midlet.getGPSInfo().removeFixListener(this);
+        super.stop();
+    }
+
+    public void fixEvent(int event, GPSFix fix) {
+        wakeUp();
+    }
+    
+    //The map is changed by tick rather than straight away so it doesn't change during a draw.
+    public void requestMapSwitch(GeoImage map) {
+        synchronized (this) {
+            pendingMap = map;
+        }
+        wakeUp();
+    }
+    
+    private void switchMap() {
+        GeoImage map;
+        synchronized (this) {
+            map = pendingMap;
+            pendingMap = null;
+        }
+        if (map != null) {
+            midlet.switchMap(map);
+            super.resetImage();
+            //The switch follows the position so keep the position on screen.
+            moveWithGPSMode = gimage.registered;
+            if (!moveWithGPSMode) {
+                super.centreImage();
+            }
+            refreshCommands();
+        }
+    }
+
     public void commandAction(Command c, Displayable d) {
         try {
+            wakeUp();
             if (c == backCommand) {
                 midlet.backMainMenu();
             } else if (c == addControlPointCommand) {
@@ -562,6 +629,13 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
             } else if (c == offCourseAlarmOffCommand) {
                 offCourseAlarmOn = false;
                 midlet.stopOffCourseAlarm();
+            } else if (c == mapSwitchingOnCommand) {
+                midlet.startMapSwitching();
+            } else if (c == mapSwitchingOffCommand) {
+                midlet.stopMapSwitching();
+                synchronized (this) {
+                    pendingMap = null;
+                }
             } else if (c == guidanceOnCommand) {
                 guidanceOn = true;
                 midlet.startGuidance();
@@ -684,8 +758,25 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
                 }
 
                 //Draw any gpx points that have been imported.
-                for (int i = 0; i < gimage.gpxPoints.size(); i++) {
-                	gpxImagePoint = gimage.osGridRefAsImagePoint((OSGridRef) gimage.gpxPoints.elementAt(i));
+                int visibleCount = gimage.getGPXPointsInImageRect(canvasX2imageX(0) - 1, canvasY2imageY(0) - 1,
+                        canvasX2imageX(canvasWidth) + 1, canvasY2imageY(canvasHeight) + 1, visibleGPXPoints);
+                if (visibleCount > visibleGPXPoints.length) {
+                    visibleGPXPoints = new int[visibleCount * 2];
+                    visibleCount = gimage.getGPXPointsInImageRect(canvasX2imageX(0) - 1, canvasY2imageY(0) - 1,
+                            canvasX2imageX(canvasWidth) + 1, canvasY2imageY(canvasHeight) + 1, visibleGPXPoints);
+                }
+                //Image positions are worked out once rather than every frame.
+                int projected = gimage.projectGPXPoints();
+                int[] gpxImageX = gimage.getGPXImageX();
+                int[] gpxImageY = gimage.getGPXImageY();
+                for (int i = 0; i < visibleCount && i < visibleGPXPoints.length; i++) {
+                    int p = visibleGPXPoints[i];
+                    if (p >= projected || p >= gpxImageX.length) {
+                        //Added (or route cleared) since projectGPXPoints - drawn next frame.
+                        continue;
+                    }
+                    gpxImagePoint.image_x = gpxImageX[p];
+                    gpxImagePoint.image_y = gpxImageY[p];
                     if (super.inCanvas(gpxImagePoint.image_x, gpxImagePoint.image_y)) {
                         super.drawImage(gpxImage,
                                 imageX2canvasX(gpxImagePoint.image_x) - (gpxImageWidth / 2),
@@ -705,7 +796,7 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
             }
 
             //If we have GPS fix show draw position marker
-            if (this.midlet.getGPSInfo().getFix()) {
+            if (gpsFix.hasFix()) {
                 if (gimage.registered) {
                     if (super.inCanvas(gpsPosnImageCoords.image_x, gpsPosnImageCoords.image_y)) {
                         super.drawImage(posnImage,
@@ -726,7 +817,7 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
             }
             
             if (showGPSStatus) {
-                if (this.midlet.getGPSInfo().getFix()) {
+                if (gpsFix.hasFix()) {
                     super.drawImage(fixImage, super.canvasWidth - noFixImageWidth, 0);
                 } else {
                     super.drawImage(noFixImage, super.canvasWidth - fixImageWidth, 0);
@@ -779,8 +870,8 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
                         
                         if (!headingString.startsWith("-")) {
                             
-                            pointer_end_x = pointer_start_x + (int) (Math.sin(Math.toRadians(midlet.getGPSInfo().getHeading())) * pointer_length);
-                            pointer_end_y = pointer_start_y - (int) (Math.cos(Math.toRadians(midlet.getGPSInfo().getHeading())) * pointer_length);
+                            pointer_end_x = pointer_start_x + (int) (Math.sin(Math.toRadians(gpsFix.getHeading())) * pointer_length);
+                            pointer_end_y = pointer_start_y - (int) (Math.cos(Math.toRadians(gpsFix.getHeading())) * pointer_length);
                             
                             super.drawLine(pointer_start_x, pointer_start_y, pointer_end_x, pointer_end_y);
                         }
@@ -896,10 +987,16 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
     public void tick() {
         try {
             keyStates = getKeyStates();
+            if (keyStates != 0) {
+                wakeUp();
+            }
+            
+            switchMap();
 
             //Get GPS coord/ date and time if there's a fix
-            if (this.midlet.getGPSInfo().getFix()) {
-                gpsPosnImageCoords = gimage.osGridRefAsImagePoint(this.midlet.getGPSInfo().osGridRef);
+            gpsFix = midlet.getGPSInfo().getCurrentFix();
+            if (gpsFix.hasFix()) {
+                gimage.fixAsImagePoint(gpsFix, gpsPosnImageCoords);
                 dateString = midlet.getGPSInfo().getDateDDMMYY();
                 timeString = midlet.getGPSInfo().getTimeHHMMSS();
             }         
@@ -931,9 +1028,9 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
                     } else if (((keyStates & DOWN_PRESSED) != 0) && ((keyStates & UP_PRESSED) == 0)) {
                         super.moveImage(DOWN);
                         moveWithGPSMode = false;
-                    } else if ((keyStates & FIRE_PRESSED) != 0 && this.midlet.getGPSInfo().getFix() && gimage.registered) {
+                    } else if ((keyStates & FIRE_PRESSED) != 0 && gpsFix.hasFix() && gimage.registered) {
                         moveWithGPSMode = true;
-                    } else if ((keyStates & FIRE_PRESSED) != 0 && (!this.midlet.getGPSInfo().getFix() || !gimage.registered)) {
+                    } else if ((keyStates & FIRE_PRESSED) != 0 && (!gpsFix.hasFix() || !gimage.registered)) {
                         super.centreImage();
                         moveWithGPSMode = false;
                     }
@@ -956,18 +1053,18 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
                 }
             }
 
-            latString = midlet.getGPSInfo().getLatInDegMinDec();
-            lngString = midlet.getGPSInfo().getLngInDegMinDec();
-            eastingsString = midlet.getGPSInfo().getEastingsAsStr();
-            northingsString = midlet.getGPSInfo().getNorthingsAsStr();
-            headingString = midlet.getGPSInfo().getHeadingDegMinDec();            
-            heightString = midlet.getGPSInfo().getHgtM();
-            geoidHeightString = midlet.getGPSInfo().getGeoidHgtM();
-            numSatsString = midlet.getGPSInfo().getNumSats();          
+            latString = midlet.getGPSInfo().getLatInDegMinDec(gpsFix);
+            lngString = midlet.getGPSInfo().getLngInDegMinDec(gpsFix);
+            eastingsString = midlet.getGPSInfo().getEastingsAsStr(gpsFix);
+            northingsString = midlet.getGPSInfo().getNorthingsAsStr(gpsFix);
+            headingString = midlet.getGPSInfo().getHeadingDegMinDec(gpsFix);            
+            heightString = midlet.getGPSInfo().getHgtM(gpsFix);
+            geoidHeightString = midlet.getGPSInfo().getGeoidHgtM(gpsFix);
+            numSatsString = midlet.getGPSInfo().getNumSats(gpsFix);          
             
             if (!paused) {
                 if (imperial) {
-                    spdString = midlet.getGPSInfo().getSpdMph();                                
+                    spdString = midlet.getGPSInfo().getSpdMph(gpsFix);                                
                     distanceString = midlet.getGPSInfo().getTotalDistMiles();
                     distanceNoFixString = midlet.getGPSInfo().getNoFixDistMiles();           
                     aveSpeedString = midlet.getGPSInfo().getAveSpdMph();       
@@ -975,7 +1072,7 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
                     heightGainedString = midlet.getGPSInfo().getHgtGainedFt();
                     heightLostString = midlet.getGPSInfo().getHgtLostFt();
                 } else {
-                    spdString = midlet.getGPSInfo().getSpdKph();
+                    spdString = midlet.getGPSInfo().getSpdKph(gpsFix);
                     distanceString = midlet.getGPSInfo().getTotalDistKm();
                     distanceNoFixString = midlet.getGPSInfo().getNoFixDistKm();           
                     aveSpeedString = midlet.getGPSInfo().getAveSpdKph();       
@@ -1011,7 +1108,7 @@ public class GPSCanvas extends MapCanvas implements CommandListener {
     		//if pointer is released in the gps fix image then set moveWithGPSMode
         	if (pointerX >= super.canvasWidth - noFixImageWidth && pointerX <= super.canvasWidth
         			&& pointerY >= 0 && pointerY <= noFixImageHeight
-        			&& fixImagePressed && this.midlet.getGPSInfo().getFix() && gimage.registered
+        			&& fixImagePressed && gpsFix.hasFix() && gimage.registered
         			) {
         		moveWithGPSMode = true;
         	} else if (pointerX >= zoomInImageCanvasX && pointerX <= zoomInImageCanvasX + zoomInImageWidth
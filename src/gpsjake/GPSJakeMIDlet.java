@@ -76,6 +76,7 @@ import geo.ControlPoint;
 import geo.GeoImage;
 import geo.GPSInfo;
 import geo.GuidancePoint;
+import geo.RegistrationFile;
 import serialgps.*;
 
 import bluetooth.BTComms;
@@ -141,6 +142,7 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
     private final String ALERT_RES="/res/Beep.wav";
     private MaintainGuidance maintainGuidance;
     private OffCourseAlarm offCourseAlarm;
+    private MapSwitcher mapSwitcher;
     public Vector guidancePlayers = new Vector();
     public String gpsSource = "";    
     public Vector imgQLContents = new Vector();
@@ -161,6 +163,9 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
     
     //Distance at which to GPX points are display every
     private int GPXDist = 10;
+
+    //Speed NMEA files are replayed at (FileGPS.REPLAY_SPEEDS).
+    private int replaySpeed = 1;
     
     public Image splashImage;
     
@@ -264,6 +269,76 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
         }
     }    
     
+    void startMapSwitching() {
+        try {
+            //Maps are switched between those in the folders of the current map and the
+            //quicklist maps.
+            Vector folders = new Vector();
+            addFolder(folders, geoImage.getFilename());
+            for (int i = 0; i < imgQLContents.size(); i++) {
+                addFolder(folders, (String) imgQLContents.elementAt(i));
+            }
+            mapSwitcher = new MapSwitcher(this, geoImage, folders);
+            mapSwitcher.start();
+        } catch (Exception e) {
+            importantError("GPSJakeMIDlet:startMapSwitching " + e.toString(), "Couldn't start map switching.");
+        }
+    }
+    
+    boolean isMapSwitchingOn() {
+        return mapSwitcher != null;
+    }
+    
+    private void addFolder(Vector folders, String imageFile) {
+        if (imageFile != null && imageFile.lastIndexOf('/') > 0) {
+            String folder = imageFile.substring(0, imageFile.lastIndexOf('/') + 1);
+            if (!folders.contains(folder)) {
+                folders.addElement(folder);
+            }
+        }
+    }
+
+    void stopMapSwitching() {
+        try {
+            mapSwitcher.stop();
+            mapSwitcher = null;
+        } catch (Exception e) {
+            importantError("GPSJakeMIDlet:stopMapSwitching " + e.toString(), "Couldn't stop map switching.");
+        }
+    }
+    
+    //Called by MapSwitcher (on its own thread) for the map it will switch to.  The settings
+    //are read and the map registered here so the canvas thread only has to swap it in.
+    GeoImage prepareMap(String imageFile, Image image) {
+        GeoImage map = new GeoImage();
+        map.setBackground();
+        map.setImage(image);
+        map.setFilename(imageFile);
+        readImageSettings(map);
+        return map;
+    }
+    
+    //Called by MapSwitcher when the position has moved onto another map.  The map is
+    //changed by the canvas thread (switchMap) so it isn't changed part way through a draw.
+    void mapSwitchReady(GeoImage map) {
+        GPSCanvas canvas = gpsCanvas;
+        if (canvas != null) {
+            canvas.requestMapSwitch(map);
+            //The record store is written here rather than holding up the canvas thread.
+            lastImageFile = map.getFilename();
+            writeSettingsToRecordStore();
+        }
+    }
+    
+    void switchMap(GeoImage map) {
+        try {
+            geoImage.adopt(map);
+            geoImage.setScaleIndex(1);
+        } catch (Exception e) {
+            fatalError("GPSJakeMIDlet:switchMap " + e.toString());
+        }
+    }
+    
     private synchronized void init() {
         try {
             if (!initDone) {
@@ -287,6 +362,7 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
         stopGPSThreads();
         stopGuidanceThreads();
         stopOffCourseThread();
+        stopMapSwitchThread();
         
         //Stop logging
         if (gpsInfo.isNMEALoggingOn()) {
@@ -499,6 +575,17 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
         }
     } 
     
+    private void stopMapSwitchThread() {
+        try {
+            if (mapSwitcher != null) {
+                mapSwitcher.stop();
+            }
+            mapSwitcher = null;
+        } catch (Exception e) {
+            importantErrorLogOnly("GPSJakeMIDlet:stopMapSwitchThread " + e.toString());
+        }
+    } 
+    
     public void stopGPSThreads() {
         try {
             //Shut down any BT GPS thread.
@@ -678,6 +765,7 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
             gpsSource = "NMEA GPS Sim - " + nmeaFile;                
             
             fileGPS = new FileGPS(this);
+            fileGPS.setReplaySpeed(replaySpeed);
             fileGPS.connect(nmeaFile);
             fileGPS.start();
             serialGPS = fileGPS;
@@ -726,41 +814,63 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
     
     void imageLoaderOK(String filename) {
         try {
-            SettingsXMLReader settingsXMLReader;
+            //Remove any gpx points loaded for a previous image.
+            geoImage.removeAllGPXPoints();
+            loadImageSettings(filename);
             
+            //The new map may be in a folder which hasn't been catalogued.
+            if (mapSwitcher != null) {
+                stopMapSwitching();
+                startMapSwitching();
+            }
+            
+            gpsCanvas = null;
+            gpsCanvas = new GPSCanvas(this, geoImage);
+        } catch (Exception e) {
+            fatalError("GPSJakeMIDlet:imageLoaderOK " + e.toString());
+        }
+    } 
+    
+    private void loadImageSettings(String filename) {
+        try {
             geoImage.setFilename(filename);
 
-            //Remove any control points, guidance points and gpx points
+            //Remove any control points and guidance points
             //loaded/created for a previous image.
             geoImage.removeAllControlPoints();
             geoImage.removeAllGuidancePoints();
-            geoImage.removeAllGPXPoints();
             geoImage.registered = false;
             
             lastImageFile = filename;
             //Write settings to record store
             writeSettingsToRecordStore();            
             
-            try {
-                //Read in settings if a settings file exists.
-                settingsXMLReader = new SettingsXMLReader(this, geoImage);
-                if (settingsXMLReader.fileExists()) {
-                    settingsXMLReader.parseSettingsFile();
-                }
-            } catch (SecurityException e) {
-                //Catch security exception.  Thrown if user answers 'No' to prompt
-                //displayed when checking if the xml settings file exists.
-                //Do nothing.
-            } finally {    
-                settingsXMLReader = null;
-            }        
-            
-            gpsCanvas = null;
-            gpsCanvas = new GPSCanvas(this, geoImage);
+            readImageSettings(geoImage);
         } catch (Exception e) {
-            fatalError("GPSJakeMIDlet:imageLoaderOK " + e.toString());
+            fatalError("GPSJakeMIDlet:loadImageSettings " + e.toString());
         }
     } 
+    
+    private void readImageSettings(GeoImage gimage) {
+        SettingsXMLReader settingsXMLReader;
+        try {
+            //Use the registration file if it's up to date with the settings file,
+            //otherwise read in settings if a settings file exists and write one.
+            if (!RegistrationFile.read(gimage)) {
+                settingsXMLReader = new SettingsXMLReader(this, gimage);
+                if (settingsXMLReader.fileExists()) {
+                    settingsXMLReader.parseSettingsFile();
+                    writeRegistrationFile(gimage);
+                }
+            }
+        } catch (SecurityException e) {
+            //Catch security exception.  Thrown if user answers 'No' to prompt
+            //displayed when checking if the xml settings file exists.
+            //Do nothing.
+        } finally {    
+            settingsXMLReader = null;
+        }        
+    }
 
     void loadImageFromQuicklist(String imageFile) {        
         try {
@@ -1378,11 +1488,22 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
             }            
             xmlWriter.stopWriting();
             xmlWriter = null;
+            writeRegistrationFile(geoImage);
         } catch (Exception e) {
             fatalError("GPSJakeMIDlet:saveXMLSettings " + e.toString());
         }
     }
     
+    private void writeRegistrationFile(GeoImage gimage) {
+        try {
+            RegistrationFile.write(gimage);
+        } catch (SecurityException e) {
+            //User answered 'No' - the settings file is read next time instead.
+        } catch (IOException e) {
+            importantErrorLogOnly("GPSJakeMIDlet:writeRegistrationFile " + e.toString());
+        }
+    }
+    
     public void setGeoImage(Image image) {
         geoImage.setImage(image);
     }
@@ -1525,5 +1646,17 @@ public class GPSJakeMIDlet extends MIDlet implements Runnable {
 	public void setGPXDist(int GPXDist) {
 		this.GPXDist = GPXDist;
 	}
+
+	public int getReplaySpeed() {
+		return replaySpeed;
+	}
+
+	public void setReplaySpeed(int replaySpeed) {
+		this.replaySpeed = replaySpeed;
+		//Applies to a file which is already being read too.
+		if (fileGPS != null) {
+			fileGPS.setReplaySpeed(replaySpeed);
+		}
+	}
     
 }
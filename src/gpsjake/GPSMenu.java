@@ -31,6 +31,8 @@ package gpsjake;
 
 import javax.microedition.lcdui.*;
 
+import serialgps.FileGPS;
+
 import javax.microedition.location.Criteria;
 import javax.microedition.location.LocationException;
 import javax.microedition.location.LocationProvider;
@@ -53,6 +55,7 @@ class GPSMenu extends List implements CommandListener {
             append("Stop current GPS", null);
 
             append("Use internal GPS", null);
+            append(getReplaySpeedLabel(), null);
             
             backCommand = new Command("Back", Command.BACK, 1);
             addCommand(backCommand);
@@ -84,6 +87,9 @@ class GPSMenu extends List implements CommandListener {
                         case 4: //Internal GPS
                         	getInternalGPS();
                         	break;
+                        case 5: //NMEA file replay speed
+                            nextReplaySpeed();
+                            break;
                         default:
                             // can't happen
                             break;
@@ -98,6 +104,23 @@ class GPSMenu extends List implements CommandListener {
     }   
     
 
+    private void nextReplaySpeed() {
+        //Steps through FileGPS.REPLAY_SPEEDS.
+        int i = 0;
+        while (i < FileGPS.REPLAY_SPEEDS.length && FileGPS.REPLAY_SPEEDS[i] != midlet.getReplaySpeed()) {
+            i++;
+        }
+        midlet.setReplaySpeed(FileGPS.REPLAY_SPEEDS[(i + 1) % FileGPS.REPLAY_SPEEDS.length]);
+        set(5, getReplaySpeedLabel(), null);
+    }
+
+    private String getReplaySpeedLabel() {
+        if (midlet.getReplaySpeed() == FileGPS.REPLAY_MAX) {
+            return "NMEA file speed: max";
+        }
+        return "NMEA file speed: " + midlet.getReplaySpeed() + "x";
+    }
+
     private void getInternalGPS() {
 		// Create a Criteria object for defining desired selection criteria
     	midlet.internalGPSConnected();
@@ -33,7 +33,6 @@ package gpsjake;
 
 import java.io.*;
 import geo.OSGridRef;
-import geo.ImagePoint;
 import geo.GeoImage;
 import geo.LatLong;
 import geo.CoordSys;
@@ -58,6 +57,10 @@ class GPXReader extends Form implements CommandListener {
     private LatLong prevLatLong;
     private OSGridRef prevOSGridRef;
     private Gauge gauge;
+    //Track points are converted to OS coords in batches of BATCH_SIZE.
+    private static final int BATCH_SIZE = 256;
+    private double[] batchLats, batchLons, batchEastings, batchNorthings;
+    private int batchCount;
     private long fileSize;
     private long readAmount;
     // The gpx file is read in single bytes.
@@ -107,6 +110,11 @@ class GPXReader extends Form implements CommandListener {
         this.coordSys = new CoordSys();
         this.prevLatLong = new LatLong();
         this.prevOSGridRef = new OSGridRef();
+        batchLats = new double[BATCH_SIZE];
+        batchLons = new double[BATCH_SIZE];
+        batchEastings = new double[BATCH_SIZE];
+        batchNorthings = new double[BATCH_SIZE];
+        batchCount = 0;
         
         if (gimage.getGPXPoints().size() > 0) {
             gimage.removeAllGPXPoints();
@@ -144,6 +152,7 @@ class GPXReader extends Form implements CommandListener {
                 percent = readAmount / (double) fileSize;
                 gauge.setValue((int) (percent * 100));
             }
+            convertBatch();
             
         } catch (XMLParseException e) {
             cleanUp();
@@ -178,9 +187,42 @@ class GPXReader extends Form implements CommandListener {
             coordSys = null;
             prevLatLong = null;
             prevOSGridRef = null;
+            batchLats = batchLons = batchEastings = batchNorthings = null;
         }
     }
     
+    private void convertBatch() {
+        //Converts the queued track points to OS coords in one go and adds those which
+        //aren't within GPXDist of the previous point added.
+        double eastings, northings, dE, dN;
+        
+        coordSys.getOSGridRefs(batchLats, batchLons, batchEastings, batchNorthings, batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            eastings = batchEastings[i];
+            northings = batchNorthings[i];
+            
+            if (prevOSGridRef.Eastings != -9999.99 && prevOSGridRef.Northings != -9999.99) {
+                //If OS Grid Ref is equal to previous don't add
+                if (eastings == prevOSGridRef.Eastings && northings == prevOSGridRef.Northings) {
+                    continue;
+                }
+                
+                //Calculate distance from the previous point.  If distance is less than minimum (size of
+                //route marker) don't add.
+                dE = eastings - prevOSGridRef.Eastings;
+                dN = northings - prevOSGridRef.Northings;
+                if (Math.sqrt(dE * dE + dN * dN) <= midlet.getGPXDist()) {
+                    continue;
+                }
+            }
+            
+            gimage.addGPXPoint(eastings, northings);
+            prevOSGridRef.Eastings = eastings;
+            prevOSGridRef.Northings = northings;
+        }
+        batchCount = 0;
+    }
+    
     private String readLine() {
         String line = "";
         int ch;
@@ -228,11 +270,6 @@ class GPXReader extends Form implements CommandListener {
     
     private void parseTrkPtElement(String element) throws XMLParseException {
         double lat, lon;
-        OSGridRef osGridRef;
-        ImagePoint imagePoint = new ImagePoint();
-        LatLong latLong;
-        boolean withinPrevious = false;
-        double distance;
         String startLatField="lat=";
         String startLonField="lon=";
         try {
@@ -244,7 +281,6 @@ class GPXReader extends Form implements CommandListener {
                     element.indexOf("\"", element.indexOf(startLatField) + startLatField.length() + 1)));
             lon = Double.parseDouble(element.substring(element.indexOf(startLonField) + startLonField.length() + 1,
                     element.indexOf("\"", element.indexOf(startLonField) + startLonField.length() + 1)));
-            latLong = new LatLong(lat, lon);
             
             //Don't use calculated distance.  Use distance between pixels.
             //Use size of marker as threshold.
@@ -252,7 +288,7 @@ class GPXReader extends Form implements CommandListener {
             if (prevLatLong.Latitude != -9999.99 && prevLatLong.Longitude != -9999.99) {
                 //If point is equal to previous point then don't add to
                 //array
-                if (latLong.Latitude == prevLatLong.Latitude && latLong.Longitude == prevLatLong.Longitude) {
+                if (lat == prevLatLong.Latitude && lon == prevLatLong.Longitude) {
                     return;
                 }
             }
@@ -262,32 +298,15 @@ class GPXReader extends Form implements CommandListener {
                 return;
             }
             
-            //Convert GPX track point to OS coords.
-            osGridRef = coordSys.getOSGridRef(lat, lon);
-            
-            if (prevOSGridRef.Eastings != -9999.99 && prevOSGridRef.Northings != -9999.99) {
-                //If OS Grid Ref is equal to previous don't add
-                if (osGridRef.Eastings == prevOSGridRef.Eastings && osGridRef.Northings == prevOSGridRef.Northings) {
-                    return;
-                }
-                
-                //Calculate distance from the previous point.  If distance is less than minimum (size of
-                //route marker) don't add.
-                distance = osGridRef.distanceBetween(prevOSGridRef);
-                if (distance <= midlet.getGPXDist()) {
-                    withinPrevious = true;
-                }
-            }
-            
-            if (!withinPrevious) {
-                gimage.addGPXPointAsOSGridRef(osGridRef);
-                prevOSGridRef.Eastings = osGridRef.Eastings;
-                prevOSGridRef.Northings = osGridRef.Northings;
+            //Queue the point for conversion to OS coords.
+            batchLats[batchCount] = lat;
+            batchLons[batchCount] = lon;
+            batchCount++;
+            if (batchCount == BATCH_SIZE) {
+                convertBatch();
             }
-            osGridRef = null;
-            prevLatLong.Latitude = latLong.Latitude;
-            prevLatLong.Longitude = latLong.Longitude;
-            latLong = null;
+            prevLatLong.Latitude = lat;
+            prevLatLong.Longitude = lon;
             
         } catch (Exception e) {
             midlet.fatalError("GPXReader:parseTrkPtElement " + e.toString());
@@ -32,12 +32,16 @@ package gpsjake;
 import geo.GuidancePoint;
 import geo.GeoImage;
 import geo.OSGridRef;
+import geo.GPSFix;
+import geo.FixListener;
 
+import java.util.Vector;
 import javax.microedition.media.*;
 
-public class Guidance implements Runnable {
+public class Guidance implements Runnable, FixListener {
 
-    private static final int MILLIS_PER_TICK = 1000;
+    //Guidance is checked each time the position moves by this many metres.
+    private static final int MOVE_THRESHOLD = 5;
     private GPSJakeMIDlet midlet;
     private GeoImage gimage;
     private GuidancePoint guidancePnt;
@@ -48,7 +52,14 @@ public class Guidance implements Runnable {
     //Time in milliseconds
     private static final int GUID_TIME_BETWEEN = 10000;
     public volatile Thread guidanceThread;
+    //Latest fix passed in by fixEvent and not yet processed.
+    private GPSFix pendingFix;
     public boolean runGuidance = false;
+    //Guidance points near the current position.  Points a little beyond the maximum
+    //guidance distance are included so that approaching is up to date when they come
+    //into range.
+    private static final int NEAR_MARGIN = MOVE_THRESHOLD * 4;
+    private Vector nearPoints = new Vector();
 
     public Guidance(GPSJakeMIDlet midlet, GeoImage geoImage) {
         this.midlet = midlet;
@@ -77,8 +88,9 @@ public class Guidance implements Runnable {
             
         	OSGridRef guidanceGridRef = new OSGridRef();
 
-            for (int i = 0; i < gimage.guidancePoints.size(); i++) {
-                guidancePnt = (GuidancePoint) gimage.guidancePoints.elementAt(i);
+            gimage.getGuidancePointsNear(gridRef, midlet.getMaxGuidanceDist() + NEAR_MARGIN, nearPoints);
+            for (int i = 0; i < nearPoints.size(); i++) {
+                guidancePnt = (GuidancePoint) nearPoints.elementAt(i);
                 guidanceGridRef.Eastings = guidancePnt.eastings;
                 guidanceGridRef.Northings = guidancePnt.northings;
 
@@ -87,7 +99,8 @@ public class Guidance implements Runnable {
                 //If the point is within the guidance distance range (GPSJakeMIDlet),
                 //we're approaching it and the associated guidance hasn't been
                 //played in the last GUID_TIME_BETWEEN seconds then play the sound
-                long currentTime = System.currentTimeMillis();
+                //GPSInfo's clock follows the log when a NMEA file is replayed.
+                long currentTime = midlet.getGPSInfo().currentTimeMillis();
                 boolean playedRecently = guidancePnt.playedRecently(currentTime, GUID_TIME_BETWEEN);
                 boolean approachingGP = guidancePnt.approaching(distance);
 
@@ -127,6 +140,7 @@ public class Guidance implements Runnable {
         try {
             guidanceThread = new Thread(this);
             guidanceThread.start();
+            midlet.getGPSInfo().addFixListener(this, FixListener.MOVED, MOVE_THRESHOLD);
         } catch (Exception e) {
             midlet.fatalError("Guidance:start " + e.toString());
         }
@@ -134,33 +148,40 @@ public class Guidance implements Runnable {
 
     public synchronized void stop() {
         try {
+            midlet.getGPSInfo().removeFixListener(this);
             guidanceThread = null;
+            notify();
         } catch (Exception e) {
             midlet.fatalError("Guidance:stop " + e.toString());
         }
     }
 
+    public synchronized void fixEvent(int event, GPSFix fix) {
+        pendingFix = fix;
+        notify();
+    }
+
     public void run() {
         try {
             Thread currentThread = Thread.currentThread();
 
             while (guidanceThread == currentThread) {
-                long startTime = System.currentTimeMillis();
+                GPSFix gpsFix;
+                //Wait until GPSInfo tells us the position has moved (or we are stopped).
+                synchronized (this) {
+                    while (pendingFix == null && guidanceThread == currentThread) {
+                        wait();
+                    }
+                    gpsFix = pendingFix;
+                    pendingFix = null;
+                }
                 //If we've got a fix and there's some guidance points then
                 //run guidance maintenance.
-                if (midlet.getGPSInfo().getFix() && gimage.guidancePoints.size() > 0 && gimage.registered && !runGuidance) {
+                if (gpsFix != null && gimage.guidancePoints.size() > 0 && gimage.registered && !runGuidance) {
                     runGuidance = true;
-                    runGuidance(midlet.getGPSInfo().osGridRef);
+                    runGuidance(gpsFix.getOSGridRef());
                     runGuidance = false;
                 }
-                long timeTaken = System.currentTimeMillis() - startTime;
-                if (timeTaken < MILLIS_PER_TICK) {
-                    synchronized (this) {
-                        wait(MILLIS_PER_TICK - timeTaken);
-                    }
-                } else {
-                    Thread.yield();
-                }
             }
 
             stop();
@@ -31,15 +31,20 @@ package gpsjake;
 
 import geo.GeoImage;
 import geo.OSGridRef;
+import geo.GPSFix;
+import geo.FixListener;
 import geo.GuidancePoint;
 import java.util.Vector;
 import javax.microedition.media.*;
 import java.io.*;
 
-public class MaintainGuidance implements Runnable {
+public class MaintainGuidance implements Runnable, FixListener {
 
     public volatile Thread maintainGuidanceThread;
-    private static final int MILLIS_PER_TICK = 1000;
+    //Latest fix passed in by fixEvent and not yet processed.
+    private GPSFix pendingFix;
+    //The players are maintained each time the position moves by this many metres.
+    private static final int MOVE_THRESHOLD = 20;
     //Threshold distance for loading guidance players (metres)
     private static final int RANGE = 200;
     //Maximum number of guidance players to keep loaded
@@ -48,6 +53,8 @@ public class MaintainGuidance implements Runnable {
     private GPSJakeMIDlet midlet;
     private GeoImage gimage;
     private boolean maintainPlayers = false;
+    //Guidance points within RANGE of the current position.
+    private Vector nearPoints = new Vector();
 
     public MaintainGuidance(GPSJakeMIDlet midlet, GeoImage geoImage) {
         this.midlet = midlet;
@@ -69,9 +76,11 @@ public class MaintainGuidance implements Runnable {
             
             boolean promptBeingAdded;
             
-            for (i = 0; i < gimage.guidancePoints.size(); i++) {
+            //Only the guidance points near the position are looked at.
+            gimage.getGuidancePointsNear(gridRef, RANGE, nearPoints);
+            for (i = 0; i < nearPoints.size(); i++) {
 
-                guidancePnt = (GuidancePoint) gimage.guidancePoints.elementAt(i);
+                guidancePnt = (GuidancePoint) nearPoints.elementAt(i);
                 guidanceGridRef.Eastings = guidancePnt.eastings;
                 guidanceGridRef.Northings = guidancePnt.northings;
                 
@@ -83,12 +92,15 @@ public class MaintainGuidance implements Runnable {
                     } else {
                         withinRangeResPrompts.addElement(guidancePnt.wavFileName);
                     }
-                } else {
-                    outOfRange.addElement(guidancePnt.wavFileName);
                 }
                       
             }
             
+            //Any other player is for a guidance point out of range.
+            for (i = 0; i < midlet.guidancePlayers.size(); i++) {
+                outOfRange.addElement(((GuidancePlayer) midlet.guidancePlayers.elementAt(i)).getFileName());
+            }
+            
             //For each guidance point within the player distance threshold
             //check that it has a player added.
             for (i = 0; i < withinRangeUserDefined.size(); i++) {
@@ -188,6 +200,7 @@ public class MaintainGuidance implements Runnable {
             //maintainPlayerList(midlet.getGPSInfo().osGridRef);
             maintainGuidanceThread = new Thread(this);
             maintainGuidanceThread.start();
+            midlet.getGPSInfo().addFixListener(this, FixListener.MOVED, MOVE_THRESHOLD);
         } catch (Exception e) {
             midlet.importantErrorLogOnly("MaintainGuidance:start " + e.toString());
         }
@@ -195,31 +208,38 @@ public class MaintainGuidance implements Runnable {
 
     public synchronized void stop() {
         try {
+            midlet.getGPSInfo().removeFixListener(this);
             maintainGuidanceThread = null;
+            notify();
         } catch (Exception e) {
             midlet.importantErrorLogOnly("MaintainGuidance:stop " + e.toString());
         }
     }
 
+    public synchronized void fixEvent(int event, GPSFix fix) {
+        pendingFix = fix;
+        notify();
+    }
+
     public void run() {
         try {
             Thread currentThread = Thread.currentThread();
 
             while (maintainGuidanceThread == currentThread) {
-                long startTime = System.currentTimeMillis();
-                if (!maintainPlayers && midlet.getGPSInfo().getFix() && gimage.guidancePoints.size() > 0 && gimage.registered) {
+                GPSFix gpsFix;
+                //Wait until GPSInfo tells us the position has moved (or we are stopped).
+                synchronized (this) {
+                    while (pendingFix == null && maintainGuidanceThread == currentThread) {
+                        wait();
+                    }
+                    gpsFix = pendingFix;
+                    pendingFix = null;
+                }
+                if (!maintainPlayers && gpsFix != null && gimage.guidancePoints.size() > 0 && gimage.registered) {
                     maintainPlayers = true;
-                    maintainPlayers(midlet.getGPSInfo().osGridRef);
+                    maintainPlayers(gpsFix.getOSGridRef());
                     maintainPlayers = false;
                 }
-                long timeTaken = System.currentTimeMillis() - startTime;
-                if (timeTaken < MILLIS_PER_TICK) {
-                    synchronized (this) {
-                        wait(MILLIS_PER_TICK - timeTaken);
-                    }
-                } else {
-                    Thread.yield();
-                }
             }
 
             stop();
@@ -37,6 +37,13 @@ import geo.GeoImage;
 class MapCanvas extends GameCanvas implements Runnable {
     
     private static final int MILLIS_PER_TICK = 25;
+    //When there have been no key presses or pointer events for IDLE_TICKS ticks the
+    //canvas is redrawn every IDLE_MILLIS_PER_TICK instead.  wakeUp() (called on input
+    //and by GPSCanvas when there is a new fix) redraws straight away and goes back to
+    //the normal rate.
+    private static final int IDLE_MILLIS_PER_TICK = 200;
+    private static final int IDLE_TICKS = 40;
+    private volatile int ticksSinceInput = 0;
     public static final float ZOOM_INCREMENT = 0.25f;
     private Graphics g;
     public int canvasWidth;
@@ -320,6 +327,13 @@ class MapCanvas extends GameCanvas implements Runnable {
         // reinit level
     }
     
+    //Called when geoImage has been given a different image.
+    void resetImage() {
+        srcImageWidth = imageWidth = geoImage.getImage().getWidth();
+        srcImageHeight = imageHeight = geoImage.getImage().getHeight();
+        rgbImageData = null;
+    }
+    
     public synchronized void start() {
         try {
             animationThread = new Thread(this);
@@ -332,6 +346,12 @@ class MapCanvas extends GameCanvas implements Runnable {
     public synchronized void stop() {
         animationThread = null;
     }
+
+    //Redraw now and go back to the normal tick rate.
+    public synchronized void wakeUp() {
+        ticksSinceInput = 0;
+        notify();
+    }
     
     public void run() {
         Thread currentThread = Thread.currentThread();
@@ -350,9 +370,15 @@ class MapCanvas extends GameCanvas implements Runnable {
                     flushGraphics();
                 }
                 long timeTaken = System.currentTimeMillis() - startTime;
-                if (timeTaken < MILLIS_PER_TICK) {
+                int millisPerTick = MILLIS_PER_TICK;
+                if (ticksSinceInput < IDLE_TICKS) {
+                    ticksSinceInput++;
+                } else {
+                    millisPerTick = IDLE_MILLIS_PER_TICK;
+                }
+                if (timeTaken < millisPerTick) {
                     synchronized (this) {
-                        wait(MILLIS_PER_TICK - timeTaken);
+                        wait(millisPerTick - timeTaken);
                     }
                 } else {
                     Thread.yield();
@@ -368,6 +394,9 @@ class MapCanvas extends GameCanvas implements Runnable {
     void tick() {
         try {
             int keyStates = getKeyStates();
+            if (keyStates != 0) {
+                wakeUp();
+            }
             
             if (((keyStates & LEFT_PRESSED) != 0) && ((keyStates & RIGHT_PRESSED) == 0)) {
                 moveImage(LEFT);
@@ -383,10 +412,16 @@ class MapCanvas extends GameCanvas implements Runnable {
         }
     }
     
+    protected void keyPressed(int keyCode) {
+        //Game keys are suppressed and read in tick, this catches the rest.
+        wakeUp();
+    }
+    
     protected void pointerPressed(int pointerX, int pointerY) {
     	try {
 	    	lastPointerX = pointerX;
 	    	lastPointerY = pointerY;
+	    	wakeUp();
 	    } catch (Exception e) {
 	        midlet.fatalError("MapCanvas:pointerPressed " + e.toString());
 	    }	    
@@ -397,6 +432,7 @@ class MapCanvas extends GameCanvas implements Runnable {
 	    	lastPointerX = -1;
 	    	lastPointerY = -1;
 	    	lastDragX = 0;
+	    	wakeUp();
 	    } catch (Exception e) {
 	        midlet.fatalError("MapCanvas:pointerReleased " + e.toString());
 	    }	    	
@@ -408,6 +444,7 @@ class MapCanvas extends GameCanvas implements Runnable {
 	    	lastDragX = -(lastPointerX - pointerX);
 	    	lastPointerX = pointerX;
 	    	lastPointerY = pointerY;
+	    	wakeUp();
 	    } catch (Exception e) {
 	        midlet.fatalError("MapCanvas:pointerDragged " + e.toString());
 	    }	
@@ -0,0 +1,217 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: MapSwitcher
+ *
+ * desc: Class sets up a thread which changes to another map when the position goes
+ * off the edge of the current one.  The registered maps in the folders of the current
+ * map and the quicklist maps are put in a MapCatalog when the thread starts.  When
+ * the position comes within PRELOAD_MARGIN metres of the edge of the current map the
+ * map which will cover it next is decoded, and its settings read and registered, in the
+ * background so that when the position leaves the current map the canvas only has to
+ * swap it in (GPSCanvas.requestMapSwitch).
+ */
+
+package gpsjake;
+
+import geo.GeoImage;
+import geo.GPSFix;
+import geo.FixListener;
+import geo.MapCatalog;
+import geo.OSGridRef;
+
+import java.io.InputStream;
+import java.util.Vector;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import javax.microedition.lcdui.Image;
+
+public class MapSwitcher implements Runnable, FixListener {
+
+    //The map is checked each time the position moves by this many metres.
+    private static final int MOVE_THRESHOLD = 25;
+    //Distance (metres) from the edge of the current map at which the next map is loaded.
+    private static final double PRELOAD_MARGIN = 250;
+    private GPSJakeMIDlet midlet;
+    private GeoImage gimage;
+    private MapCatalog catalog = new MapCatalog();
+    private Vector folders;
+    public volatile Thread mapSwitcherThread;
+    //Latest fix passed in by fixEvent and not yet processed.
+    private GPSFix pendingFix;
+    //Next map got ready ahead of being needed (GPSJakeMIDlet.prepareMap).
+    private String preloadedFile;
+    private GeoImage preloadedMap;
+    //Map which couldn't be loaded.  It isn't tried again until another map is used.
+    private String failedFile;
+
+    public MapSwitcher(GPSJakeMIDlet midlet, GeoImage geoImage, Vector folders) {
+        this.midlet = midlet;
+        this.gimage = geoImage;
+        this.folders = folders;
+    }
+
+    public void runMapSwitcher(OSGridRef gridRef) {
+        try {
+            String currentFile = gimage.getFilename();
+            double inset = catalog.inset(currentFile, gridRef.Eastings, gridRef.Northings);
+            if (!gimage.registered || Double.isNaN(inset)) {
+                //Not a catalogued map so any map covering the position is better.
+                inset = Double.NEGATIVE_INFINITY;
+            }
+            if (inset >= PRELOAD_MARGIN) {
+                //Well inside the current map.
+                releasePreloaded();
+                return;
+            }
+            
+            String nextFile = catalog.find(gridRef.Eastings, gridRef.Northings, PRELOAD_MARGIN, currentFile);
+            if (nextFile == null || nextFile.equals(failedFile)
+                    || catalog.inset(nextFile, gridRef.Eastings, gridRef.Northings) <= inset) {
+                return;
+            }
+            if (!nextFile.equals(preloadedFile)) {
+                releasePreloaded();
+                Image image = loadImage(nextFile);
+                if (image == null) {
+                    failedFile = nextFile;
+                    return;
+                }
+                preloadedMap = midlet.prepareMap(nextFile, image);
+                preloadedFile = nextFile;
+            }
+            //Only switch once the position is off the current map (and on the next one) so
+            //wandering about near the edge doesn't keep changing map.
+            if (inset < 0 && catalog.inset(nextFile, gridRef.Eastings, gridRef.Northings) >= 0) {
+                midlet.mapSwitchReady(preloadedMap);
+                preloadedFile = null;
+                preloadedMap = null;
+                failedFile = null;
+            }
+        } catch (Exception e) {
+            midlet.fatalError("MapSwitcher:runMapSwitcher " + e.toString());
+        }
+    }
+    
+    private void releasePreloaded() {
+        preloadedFile = null;
+        preloadedMap = null;
+    }
+
+    private Image loadImage(String imageFile) {
+        FileConnection fileConn = null;
+        InputStream fis = null;
+        try {
+            fileConn = (FileConnection) Connector.open(imageFile, Connector.READ);
+            fis = fileConn.openInputStream();
+            //Run the garbage collector to free some memory
+            Runtime.getRuntime().gc();
+            return Image.createImage(fis);
+        } catch (OutOfMemoryError e) {
+            //Two maps don't fit in memory.
+            midlet.importantErrorLogOnly("MapSwitcher:loadImage Out of memory " + imageFile);
+            return null;
+        } catch (Exception e) {
+            midlet.importantErrorLogOnly("MapSwitcher:loadImage " + e.toString());
+            return null;
+        } finally {
+            try {
+                if (fis != null) {
+                    fis.close();
+                }
+                if (fileConn != null) {
+                    fileConn.close();
+                }
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+    
+    private void buildCatalog() {
+        catalog.clear();
+        for (int i = 0; i < folders.size(); i++) {
+            try {
+                catalog.addFolder((String) folders.elementAt(i));
+            } catch (SecurityException e) {
+                //User said no to reading the folder.
+            } catch (Exception e) {
+                midlet.importantErrorLogOnly("MapSwitcher:buildCatalog " + e.toString());
+            }
+        }
+    }
+
+    public synchronized void start() {
+        try {
+            mapSwitcherThread = new Thread(this);
+            mapSwitcherThread.start();
+            midlet.getGPSInfo().addFixListener(this, FixListener.MOVED, MOVE_THRESHOLD);
+        } catch (Exception e) {
+            midlet.fatalError("MapSwitcher:start " + e.toString());
+        }
+    } 
+
+    public synchronized void stop() {
+        try {
+            midlet.getGPSInfo().removeFixListener(this);
+            mapSwitcherThread = null;
+            notify();
+        } catch (Exception e) {
+            midlet.fatalError("MapSwitcher:stop " + e.toString());
+        }
+    }
+
+    public synchronized void fixEvent(int event, GPSFix fix) {
+        pendingFix = fix;
+        notify();
+    }
+
+    public void run() {
+        try {
+            Thread currentThread = Thread.currentThread();
+            
+            //Reading the folders can take a while so it's done here rather than in start.
+            buildCatalog();
+
+            while (mapSwitcherThread == currentThread) {
+                GPSFix gpsFix;
+                //Wait until GPSInfo tells us the position has moved (or we are stopped).
+                synchronized (this) {
+                    while (pendingFix == null && mapSwitcherThread == currentThread) {
+                        wait();
+                    }
+                    gpsFix = pendingFix;
+                    pendingFix = null;
+                }
+                if (gpsFix != null && gpsFix.hasFix() && catalog.size() > 0
+                        && mapSwitcherThread == currentThread) {
+                    runMapSwitcher(gpsFix.getOSGridRef());
+                }
+            }
+
+            releasePreloaded();
+            stop();
+        } catch (Exception e) {
+            midlet.fatalError("MapSwitcher:run " + e.toString());
+        }
+    }
+}
@@ -32,14 +32,16 @@ package gpsjake;
 import geo.ImagePoint;
 import geo.GeoImage;
 import geo.OSGridRef;
+import geo.GPSFix;
+import geo.FixListener;
 
 import java.io.InputStream;
 import javax.microedition.media.*;
 
-public class OffCourseAlarm implements Runnable {
+public class OffCourseAlarm implements Runnable, FixListener {
 
-    //Thread interval is every 10 seconds.
-    private static final int MILLIS_PER_TICK = 10000;
+    //The alarm is checked each time the position moves by this many metres.
+    private static final int MOVE_THRESHOLD = 10;
     private GPSJakeMIDlet midlet;
     private GeoImage gimage;
 
@@ -47,6 +49,8 @@ public class OffCourseAlarm implements Runnable {
     private static final int OFFCOURSE_THRESHOLD = 20;
     private final String OFFCOURSE_ALARM_RES="/res/Radio.wav";    
     public volatile Thread offCourseAlarmThread;
+    //Latest fix passed in by fixEvent and not yet processed.
+    private GPSFix pendingFix;
     public boolean offCourseAlarm = false;
 
     private Player offCourseAlarmPlayer;
@@ -58,20 +62,8 @@ public class OffCourseAlarm implements Runnable {
 
     public void runOffCourseAlarm(OSGridRef gridRef) {
         try {
-            double distance;
-
-            OSGridRef gpxImagePoint;                
-            int withinRangeCount=0;
-
-            for (int i = 0; i < gimage.gpxPoints.size(); i++) {
-                gpxImagePoint = (OSGridRef) gimage.gpxPoints.elementAt(i);
-                distance = gpxImagePoint.distanceBetween(gridRef);
-                if (distance <= midlet.getOffCourseDist()) {
-                    withinRangeCount++;
-                }
-            }
-            
-            if (withinRangeCount < 1) {
+            //Only the gpx points within the off course distance are looked at.
+            if (gimage.getGPXPointsNear(gridRef, midlet.getOffCourseDist(), null) < 1) {
                soundOffCourseAlarm();
             }
             
@@ -107,6 +99,7 @@ public class OffCourseAlarm implements Runnable {
             
             offCourseAlarmThread = new Thread(this);
             offCourseAlarmThread.start();
+            midlet.getGPSInfo().addFixListener(this, FixListener.MOVED, MOVE_THRESHOLD);
         } catch (Exception e) {
             midlet.fatalError("OffCourseAlarm:start " + e.toString());
         }
@@ -114,33 +107,40 @@ public class OffCourseAlarm implements Runnable {
 
     public synchronized void stop() {
         try {
+            midlet.getGPSInfo().removeFixListener(this);
             offCourseAlarmThread = null;
+            notify();
         } catch (Exception e) {
             midlet.fatalError("OffCourseAlarm:stop " + e.toString());
         }
     }
 
+    public synchronized void fixEvent(int event, GPSFix fix) {
+        pendingFix = fix;
+        notify();
+    }
+
     public void run() {
         try {
             Thread currentThread = Thread.currentThread();
 
             while (offCourseAlarmThread == currentThread) {
-                long startTime = System.currentTimeMillis();
+                GPSFix gpsFix;
+                //Wait until GPSInfo tells us the position has moved (or we are stopped).
+                synchronized (this) {
+                    while (pendingFix == null && offCourseAlarmThread == currentThread) {
+                        wait();
+                    }
+                    gpsFix = pendingFix;
+                    pendingFix = null;
+                }
                 //If we've got a fix and there's some guidance points then
                 //run guidance maintenance.
-                if (midlet.getGPSInfo().getFix() && gimage.gpxPoints.size() > 0 && gimage.registered && !offCourseAlarm) {
+                if (gpsFix != null && gimage.gpxPoints.size() > 0 && gimage.registered && !offCourseAlarm) {
                     offCourseAlarm = true;
-                    runOffCourseAlarm(midlet.getGPSInfo().osGridRef);
+                    runOffCourseAlarm(gpsFix.getOSGridRef());
                     offCourseAlarm = false;
                 }
-                long timeTaken = System.currentTimeMillis() - startTime;
-                if (timeTaken < MILLIS_PER_TICK) {
-                    synchronized (this) {
-                        wait(MILLIS_PER_TICK - timeTaken);
-                    }
-                } else {
-                    Thread.yield();
-                }
             }
 
             stop();
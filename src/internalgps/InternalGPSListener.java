@@ -25,8 +25,11 @@
  *
  * desc: This class is used to communicate with an internal GPS receiver.
  * The processUpdate method of the UpdateHandler class populates the GPSInfo structure
- * (with a call to the NMEAParser) and needs to call the same methods called in SerialGPS.run
- * to ensure positions are logged (GPX and NMEA) etc.
+ * and needs to call the same methods called in SerialGPS.run to ensure positions are
+ * logged (GPX and NMEA) etc.
+ * By default GPSInfo is filled straight from the Location object (LocationUpdater) and the
+ * NMEA text is only read if NMEA logging is on.  Setting useLocationDirectly to false
+ * parses the NMEA text instead (NMEAParser) as before.
  * To use the internal GPS receiver on the phone (N95) I only enabled Assisted GPS and Integrated GPS
  * in Phone Settings->General->Positioning->Positioning Methods
  */
@@ -50,6 +53,10 @@ public class InternalGPSListener implements LocationListener {
     private boolean done;
     public final GPSJakeMIDlet midlet;
     public NMEAParser nmeaParser;
+    //True to update GPSInfo from the Location values rather than parsing the NMEA text.
+    public boolean useLocationDirectly = true;
+    private LocationUpdater locationUpdater;
+    private JSR179LocationData locationData = new JSR179LocationData();
     /** Selected criteria */
     private Criteria criteria = null;
     /** Array of free Criterias. */
@@ -84,6 +91,7 @@ public class InternalGPSListener implements LocationListener {
         this.midlet = midlet;
         try {
             nmeaParser = new NMEAParser(midlet.getGPSInfo());
+            locationUpdater = new LocationUpdater(midlet.getGPSInfo());
 
             //locationProvider = LocationProvider.getInstance(criteria);
             locationProvider = autoSearch();
@@ -207,7 +215,47 @@ public class InternalGPSListener implements LocationListener {
             //This method get's called (fingers crossed) every second.
             //This is determined by the interval parameter passed to setLocationListener.
             //This is assigned in the class constructor.
-            
+            if (useLocationDirectly) {
+                processLocation(update);
+            } else {
+                processNMEA(update);
+            }
+        }
+
+        private void processLocation(Location update) {
+            try {
+                locationData.setLocation(update);
+
+                //The NMEA text is only read for the log.  LocationUpdater then takes the
+                //height from it as well.
+                String nmeaStrings = null;
+                if (midlet.getGPSInfo().isNMEALoggingOn()) {
+                    nmeaStrings = locationData.getNMEA();
+                    if (nmeaStrings != null && nmeaStrings.indexOf("$") > -1) {
+                        if (nmeaStrings.indexOf(NMEAParser.NMEA_EOS) < 0) {
+                            nmeaStrings = insert_NMEA_EOS(nmeaStrings);
+                        }
+                        midlet.getGPSInfo().getNMEAPrintStream().print(nmeaStrings);
+                    }
+                }
+
+                //Write GPX point if we have a fix, logging is turned on and we have travelled the required
+                //minimum distance (reduces number of points written to file).
+                if (midlet.getGPSInfo().isGPXLoggingOn() && midlet.getGPSInfo().getCurrentFix().hasFix()
+                                && midlet.getGPSInfo().getDistance() >= GPSInfo.GPX_EXPORT_THRESHOLD) {
+
+                    midlet.getGPSInfo().getGPXXMLWriter().writeTrackPoint();
+
+                }
+
+                locationUpdater.update(locationData, nmeaStrings);
+            } catch (Exception e) {
+                midlet.fatalError("InternalGPSListener:UpdateHandler:processLocation" + e.toString() +
+                        ". Error reading GPS.");
+            }
+        }
+
+        private void processNMEA(Location update) {
             String bufferAsString = "";
             String nmeaStrings;
             
@@ -236,21 +284,16 @@ public class InternalGPSListener implements LocationListener {
                 
                         //Write GPX point if we have a fix, logging is turned on and we have travelled the required
                         //minimum distance (reduces number of points written to file).
-                        if (midlet.getGPSInfo().isGPXLoggingOn() && midlet.getGPSInfo().getFix()
+                        if (midlet.getGPSInfo().isGPXLoggingOn() && midlet.getGPSInfo().getCurrentFix().hasFix()
                                         && midlet.getGPSInfo().getDistance() >= GPSInfo.GPX_EXPORT_THRESHOLD) {
 
                             midlet.getGPSInfo().getGPXXMLWriter().writeTrackPoint();
 
                         }
 
+                        //GPSInfo (including the trip stats) is updated by the parser once all the
+                        //sentences for a fix have been read.
                         nmeaParser.parseNMEASentence(bufferAsString);
-
-                        if (midlet.getGPSInfo().type == GPSInfo.NMEA_RMC) {
-                            midlet.getGPSInfo().updateStats();
-                            //May have to pause thread here?
-                            //long elapsedTime = System.currentTimeMillis() - startTime;
-                            //sleepThread(elapsedTime);
-                        }                        
                         
                     } catch (NMEAParseException e) {
                         if (e.severity == NMEAParseException.IMPORTANT) {
@@ -262,10 +305,14 @@ public class InternalGPSListener implements LocationListener {
                         nmeaStrings = nmeaStrings.substring(nmeaStrings.indexOf(NMEAParser.NMEA_EOS) + NMEAParser.NMEA_EOS.length());
                     }
                 }
+                //Each location update holds one fix so publish it now rather than waiting
+                //for the next update.
+                nmeaParser.endOfEpoch();
             } catch (NMEAParseException e) {
                 midlet.importantErrorLogOnly(e.toString());
                 midlet.getGPSInfo().setFix(false);
                 midlet.getGPSInfo().updateStats();
+                midlet.getGPSInfo().publishFix();
             } catch (Exception e) {
                 midlet.fatalError("InternalGPSListener:UpdateHandler:processUpdate" + e.toString() +
                         ". Error reading GPS: "  + bufferAsString);
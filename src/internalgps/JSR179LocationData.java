@@ -0,0 +1,78 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: JSR179LocationData
+ *
+ * desc: JSR179LocationData provides LocationData from a JSR-179 Location.
+ * One instance is reused for every update.
+ */
+
+package internalgps;
+
+import javax.microedition.location.Location;
+import javax.microedition.location.QualifiedCoordinates;
+
+public class JSR179LocationData implements LocationData {
+
+    public final static String NMEA_MIME_TYPE = "application/X-jsr179-location-nmea";
+
+    private Location location;
+    private QualifiedCoordinates coordinates;
+
+    public void setLocation(Location location) {
+        this.location = location;
+        this.coordinates = location.getQualifiedCoordinates();
+    }
+
+    public boolean isValid() {
+        return location.isValid() && coordinates != null;
+    }
+
+    public double getLatitude() {
+        return coordinates.getLatitude();
+    }
+
+    public double getLongitude() {
+        return coordinates.getLongitude();
+    }
+
+    public float getAltitude() {
+        return coordinates.getAltitude();
+    }
+
+    public float getSpeed() {
+        return location.getSpeed();
+    }
+
+    public float getCourse() {
+        return location.getCourse();
+    }
+
+    public long getTimestamp() {
+        return location.getTimestamp();
+    }
+
+    public String getNMEA() {
+        return location.getExtraInfo(NMEA_MIME_TYPE);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: LocationData
+ *
+ * desc: LocationData is the position data LocationUpdater needs from an internal GPS
+ * receiver.  JSR179LocationData provides it from a javax.microedition.location.Location.
+ * Keeping LocationUpdater to this interface means it can be run with a stand-in
+ * implementation when there is no location API e.g. on a desktop JVM.
+ */
+
+package internalgps;
+
+public interface LocationData {
+
+    public boolean isValid();
+
+    //Decimal degrees (WGS84).
+    public double getLatitude();
+
+    public double getLongitude();
+
+    //Metres.  NaN if not known.
+    public float getAltitude();
+
+    //Metres per second.  NaN if not known.
+    public float getSpeed();
+
+    //Degrees relative to true north.  NaN if not known.
+    public float getCourse();
+
+    //Milliseconds since midnight 1st Jan 1970 UTC.
+    public long getTimestamp();
+
+    //NMEA sentences for the fix or null if the receiver doesn't provide them.
+    public String getNMEA();
+
+}
@@ -0,0 +1,136 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: LocationUpdater
+ *
+ * desc: LocationUpdater updates GPSInfo straight from the numbers in a LocationData
+ * (position, altitude, speed, course and time) rather than parsing the receiver's
+ * NMEA sentences.  The values go through an EpochAssembler so GPSInfo is updated in
+ * the same way as for NMEA - one grid reference conversion, trip stats and a new fix
+ * snapshot per update.
+ *
+ * JSR-179 gives the altitude above the WGS84 ellipsoid, not above sea level.  The
+ * ellipsoid height is handed to the EpochAssembler, which only shows it if the geoid model
+ * covers the fix.  The NMEA text is only read (by InternalGPSListener) when NMEA logging is
+ * on.  If it has been read for the log the height above sea level, geoid height and
+ * satellite count are taken from its GGA sentence instead.
+ */
+
+package internalgps;
+
+import geo.EpochAssembler;
+import geo.GPSInfo;
+import geo.NMEASentence;
+
+public class LocationUpdater {
+
+    private final static long MILLIS_PER_DAY = 86400000L;
+
+    private EpochAssembler epochAssembler;
+    //Reused for the GGA sentence in each location's NMEA.
+    private final NMEASentence gga = new NMEASentence();
+
+    public LocationUpdater(GPSInfo gpsInfo) {
+        epochAssembler = new EpochAssembler(gpsInfo);
+    }
+
+    //nmea is the location's NMEA text if it has already been read for the log, otherwise
+    //null.  It isn't read here.
+    public void update(LocationData location, String nmea) {
+        if (location.isValid()) {
+            epochAssembler.setPosition(location.getLatitude(), location.getLongitude());
+
+            float altitude = location.getAltitude();
+            if (!setHeightFromGGA(nmea) && !Float.isNaN(altitude)) {
+                epochAssembler.setHeight(altitude);
+            }
+
+            //Speed and course are NaN if the receiver doesn't know them.
+            float speed = location.getSpeed();
+            float course = location.getCourse();
+            epochAssembler.setCourse(Float.isNaN(speed) ? GPSInfo.UNDEFINED : speed,
+                    Float.isNaN(course) ? GPSInfo.UNDEFINED : course, true);
+
+            long timestamp = location.getTimestamp();
+            if (timestamp > 0) {
+                setTimeAndDate(timestamp);
+            }
+        } else {
+            epochAssembler.setNoFix();
+        }
+        epochAssembler.publishNow();
+    }
+
+    //Returns false if there is no usable GGA sentence in nmea (which may hold several
+    //sentences, one per line).
+    private boolean setHeightFromGGA(String nmea) {
+        if (nmea == null) {
+            return false;
+        }
+        int start = nmea.indexOf("GGA,");
+        if (start < 0) {
+            return false;
+        }
+        start = nmea.lastIndexOf('$', start);
+        if (start < 0) {
+            return false;
+        }
+        int end = nmea.indexOf('\n', start);
+        if (end < 0) {
+            end = nmea.length();
+        }
+        if (!gga.load(nmea.substring(start, end)) || gga.getFieldCount() != 15
+                || gga.isEmpty(9) || gga.isEmpty(11)) {
+            return false;
+        }
+        try {
+            if (gga.getInt(6) == 0) {
+                return false;
+            }
+            epochAssembler.setHeight(gga.getFixed(9, 3) / 1000.0, gga.getFixed(11, 3) / 1000.0, gga.getInt(7));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private void setTimeAndDate(long timestamp) {
+        int millisOfDay = (int) (timestamp % MILLIS_PER_DAY);
+        epochAssembler.setTime(millisOfDay / 3600000, millisOfDay / 60000 % 60, millisOfDay / 1000 % 60);
+
+        //Days since 1st Jan 1970 to day, month and year without creating a Calendar.
+        //The year is counted from 1st March so that the leap day is at the end of it.
+        long z = timestamp / MILLIS_PER_DAY + 719468;
+        long era = z / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthFromMarch = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthFromMarch + 2) / 5 + 1);
+        int month = (int) (monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        //GPSInfo holds a 2 digit year (as NMEA does).
+        epochAssembler.setDate(day, month, (int) (year % 100));
+    }
+}
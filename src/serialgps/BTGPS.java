@@ -45,7 +45,7 @@ public class BTGPS extends SerialGPS {
         try {        
             stream = (StreamConnection) Connector.open(url);
             in = stream.openInputStream();
-            super.reader = new InputStreamReader(in);
+            super.input = in;
         } catch (IOException e) {
             midlet.importantError(e.toString(), "Error reading GPS.");
         }            
@@ -53,7 +53,6 @@ public class BTGPS extends SerialGPS {
 
     public void disconnect() {
         try {
-            super.reader.close();
             in.close();
             stream.close();
         } catch (IOException e) {
@@ -24,6 +24,12 @@
  * classname: FileGPS
  *
  * desc: FileGPS extends SerialGPS for reading GPS data from an NMEA file.
+ *
+ * The file is replayed at a multiple of real time (REPLAY_SPEEDS) or as fast as
+ * possible (REPLAY_MAX).  Whilst replaying GPSInfo's clock is driven by the fix times
+ * in the file rather than the system clock (GPSInfo.setReplayClock) so the trip stats
+ * and guidance timing are the same at any speed.  Each fix is released when the real
+ * time since the start of the replay catches up with the file time divided by the speed.
  */
 
 package serialgps;
@@ -34,9 +40,20 @@ import javax.microedition.io.*;
 import javax.microedition.io.file.*;
 
 public class FileGPS extends SerialGPS {
-    public final static int THREAD_PAUSE=500;
+    //Replay speeds offered to the user.  REPLAY_MAX replays without pausing.
+    public final static int REPLAY_MAX = 0;
+    public final static int[] REPLAY_SPEEDS = {1, 10, 100, REPLAY_MAX};
+    //Gaps in the file longer than this (ms) e.g. when the receiver was switched off
+    //are shortened to it.
+    private final static int MAX_REPLAY_GAP = 10000;
+    //If the replay falls this far (ms) behind e.g. the phone is busy, don't try to catch up.
+    private final static int MAX_REPLAY_LAG = 1000;
     public FileConnection fileConn;
     public InputStream fis;    
+    private volatile int replaySpeed = 1;
+    //File time of the last fix and the system time it is due to be released.
+    private long lastFixTime = -1;
+    private long releaseTime;
     
     public FileGPS(GPSJakeMIDlet midlet) {
         super(midlet);
@@ -46,7 +63,7 @@ public class FileGPS extends SerialGPS {
         try {        
             fileConn = (FileConnection)Connector.open(url, Connector.READ);
             fis = fileConn.openInputStream();   
-            super.reader = new InputStreamReader(fis);            
+            super.input = fis;            
         } catch (IOException e) {
             midlet.importantErrorLogOnly("FileGPS:sleepThread:Error connecting GPS: " + e.toString());
         } catch (Exception e) {
@@ -54,12 +71,54 @@ public class FileGPS extends SerialGPS {
         }            
     }
     
+    public int getReplaySpeed() {
+        return replaySpeed;
+    }
+
+    //Can be changed whilst the file is being read.
+    public void setReplaySpeed(int replaySpeed) {
+        this.replaySpeed = replaySpeed;
+    }
+
+    public synchronized void start() {
+        try {
+            lastFixTime = -1;
+            midlet.getGPSInfo().setReplayClock(true);
+            super.start();
+        } catch (Exception e) {
+            midlet.fatalError("FileGPS:start " + e.toString());
+        }
+    }
+
     public void sleepThread(long millis) {
-        //When reading from a file implement this method.
-        //This is an attempt to ensure around second elapses between each RMC string
-        //when reading from a file.
+        //Called each time a fix has been read from the file.  Pauses until it is time
+        //for the next fix.  millis (the time taken to read this fix) isn't needed as
+        //releaseTime is worked out from the start of the replay.
         try {
-            if (millis < THREAD_PAUSE) Thread.sleep((long)THREAD_PAUSE - millis);
+            long fixTime = midlet.getGPSInfo().currentTimeMillis();
+            long now = System.currentTimeMillis();
+            int speed = replaySpeed;
+
+            if (lastFixTime == -1 || speed == REPLAY_MAX) {
+                releaseTime = now;
+            } else {
+                long gap = fixTime - lastFixTime;
+                if (gap > MAX_REPLAY_GAP) {
+                    gap = MAX_REPLAY_GAP;
+                }
+                releaseTime += gap / speed;
+                if (now - releaseTime > MAX_REPLAY_LAG) {
+                    releaseTime = now;
+                }
+            }
+            lastFixTime = fixTime;
+
+            if (releaseTime > now) {
+                Thread.sleep(releaseTime - now);
+            } else if (speed == REPLAY_MAX) {
+                //Let the display and guidance threads run.
+                Thread.yield();
+            }
         } catch (InterruptedException e) {
             midlet.importantErrorLogOnly("FileGPS:sleepThread:Error delaying next read: " + e.toString());
         } catch (Exception e) {
@@ -69,7 +128,7 @@ public class FileGPS extends SerialGPS {
     
     public void disconnect() {
         try {
-            super.reader.close();
+            midlet.getGPSInfo().setReplayClock(false);
             fis.close();
             fileConn.close();
         } catch (IOException e) {
@@ -0,0 +1,108 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: SentenceFramer
+ *
+ * desc: SentenceFramer splits the GPS input stream into NMEA sentences.
+ * The stream is read in blocks into a fixed size ring buffer and each byte is
+ * appended to a reusable NMEASentence until a CR or LF is found.  No objects are
+ * created per byte or per sentence.
+ */
+
+package serialgps;
+
+import java.io.*;
+import geo.NMEAParseException;
+import geo.NMEASentence;
+
+public class SentenceFramer {
+
+    public static final int CARRIAGE_RETURN = 13;
+    public static final int LINE_FEED = 10;
+    //Enough for several seconds of sentences at 4800 baud.
+    public static final int BUFFER_SIZE = 1024;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    //Position of the next byte to frame and the number of bytes still to frame.
+    private int head = 0;
+    private int count = 0;
+    private boolean endOfStream = false;
+    //Set when a sentence exceeds NMEAParser.NMEA_MAX_CHARS * 3 (the size of the NMEASentence
+    //buffer).  The rest of the line is thrown away.
+    private boolean discarding = false;
+
+    public SentenceFramer(InputStream in) {
+        this.in = in;
+    }
+
+    //Fills sentence with the next line from the stream minus the NMEA line delimiter (\r\n).
+    //Returns false when the end of the stream has been reached.
+    public boolean readSentence(NMEASentence sentence) throws IOException, NMEAParseException {
+        sentence.clear();
+        while (true) {
+            if (count == 0 && !fill()) {
+                //Hand over anything read before the end of the stream.
+                if (sentence.length() > 0 && !discarding) {
+                    sentence.end();
+                    return true;
+                }
+                return false;
+            }
+
+            byte b = buffer[head];
+            head++;
+            if (head == BUFFER_SIZE) {
+                head = 0;
+            }
+            count--;
+
+            if (b == CARRIAGE_RETURN || b == LINE_FEED) {
+                if (discarding) {
+                    discarding = false;
+                } else if (sentence.length() > 0) {
+                    sentence.end();
+                    return true;
+                }
+                //Otherwise this is the LF of a CR/LF pair or a blank line so carry on.
+            } else if (!discarding && !sentence.append(b)) {
+                discarding = true;
+                throw new NMEAParseException("NMEA sentence exceeds max length: " + sentence, NMEAParseException.MINOR);
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+        //The buffer is empty so read as much as will fit between head and the end of the buffer.
+        int read = in.read(buffer, head, BUFFER_SIZE - head);
+        if (read == -1) {
+            endOfStream = true;
+            return false;
+        }
+        count = read;
+        return true;
+    }
+}
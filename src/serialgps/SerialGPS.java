@@ -26,7 +26,7 @@
  * desc: SerialGPS sets up a thread to read a stream.
  * This class is abstract and extended by BTGPS or FileGPS to read from a bluetooth URL or a file
  * respectively.
- * The stream is read in a thread and sent to the parser (NMEAParser).
+ * The stream is read in a thread, split into sentences by SentenceFramer and sent to the parser (NMEAParser).
  * NMEAParser populates the GPSInfo class which contains current GPS data.
  */
 
@@ -35,20 +35,21 @@ package serialgps;
 import gpsjake.*;
 import java.io.*;
 import geo.GPSInfo;
+import geo.GPSFix;
 import geo.NMEAParser;
 import geo.NMEAParseException;
+import geo.NMEASentence;
 import geo.OSGridRef;
 
 public abstract class SerialGPS implements Runnable {
     
     public final GPSJakeMIDlet midlet;
     
-    private String bufferAsString;
     public NMEAParser nmeaParser;
     public volatile Thread gpsReadThread;
-    //InputStreamReader gets instantiated in extended class
-    public InputStreamReader reader;
-    public static final int CARRIAGE_RETURN = 13;
+    //InputStream gets instantiated in extended class
+    public InputStream input;
+    private NMEASentence nmeaSentence = new NMEASentence();
     private OSGridRef gpxPnt;    
     
     SerialGPS(GPSJakeMIDlet midlet) {
@@ -80,51 +81,43 @@ public abstract class SerialGPS implements Runnable {
     }
     
     public void run() {
-        int input = 0;
         long startTime = 0;        
         Thread currentThread = Thread.currentThread();
-        while(gpsReadThread == currentThread  && input != -1) {
+        SentenceFramer framer = new SentenceFramer(input);
+        while(gpsReadThread == currentThread) {
             try {
                 startTime = System.currentTimeMillis();
-                String output = new String();
                 
-                while ((input = reader.read()) != CARRIAGE_RETURN) {
-                    if (input == -1) break;
-                    output += (char) input;
-                    if (output.length() > NMEAParser.NMEA_MAX_CHARS * 3) {
-                        nmeaParser.throwNMEAParseException("NMEA sentence exceeds max length: " + output);
-                    }
+                //nmeaSentence now contains NMEA sentence minus the NMEA line delimiter (\r\n).
+                if (!framer.readSentence(nmeaSentence)) {
+                    break;
                 }
-                //read the new line character.
-                input = reader.read();
-                
-                //bufferString now contains NMEA sentence minus the NMEA line delimiter (\r\n).
-                bufferAsString = output;
                 
-                //If logging is on write the string to the log file
+                //If logging is on write the sentence to the log file
                 if (midlet.getGPSInfo().isNMEALoggingOn()) {
-                    midlet.getGPSInfo().getNMEAPrintStream().print(bufferAsString + NMEAParser.NMEA_EOS);
+                    PrintStream ps = midlet.getGPSInfo().getNMEAPrintStream();
+                    nmeaSentence.writeTo(ps);
+                    ps.print(NMEAParser.NMEA_EOS);
                 }
                 
                 //Write GPX point if we have a fix, logging is turned on and we have travelled the required
                 //minimum distance (reduces number of points written to file).
                 
-                if (midlet.getGPSInfo().isGPXLoggingOn() && midlet.getGPSInfo().getFix()) {
+                GPSFix gpsFix = midlet.getGPSInfo().getCurrentFix();
+                if (midlet.getGPSInfo().isGPXLoggingOn() && gpsFix.hasFix()) {
                     if (gpxPnt == null) {
-                        gpxPnt = new OSGridRef();
-                        gpxPnt = midlet.getGPSInfo().osGridRef;
+                        gpxPnt = gpsFix.getOSGridRef();
                     } else { 
-                        if (gpxPnt.distanceBetween(midlet.getGPSInfo().osGridRef) >= GPSInfo.GPX_EXPORT_THRESHOLD) {
+                        if (gpxPnt.distanceBetween(gpsFix.getOSGridRef()) >= GPSInfo.GPX_EXPORT_THRESHOLD) {
                             midlet.getGPSInfo().getGPXXMLWriter().writeTrackPoint();
-                            gpxPnt = midlet.getGPSInfo().osGridRef;
+                            gpxPnt = gpsFix.getOSGridRef();
                         }
                     }
                 }
                 
-                nmeaParser.parseNMEASentence(bufferAsString);
-                
-                if (midlet.getGPSInfo().type == GPSInfo.NMEA_RMC) {
-                    midlet.getGPSInfo().updateStats();
+                //parseNMEASentence returns true once all the sentences for a fix have been read
+                //and GPSInfo has been updated (including the trip stats).
+                if (nmeaParser.parseNMEASentence(nmeaSentence)) {
                     long elapsedTime = System.currentTimeMillis() - startTime;
                     sleepThread(elapsedTime);
                 }
@@ -144,7 +137,7 @@ public abstract class SerialGPS implements Runnable {
                     midlet.minorError(e.toString());
                 }
             } catch (Exception e) {
-                midlet.fatalError("SerialGPS:run " + e.toString() + ". Error reading GPS: "  + bufferAsString);
+                midlet.fatalError("SerialGPS:run " + e.toString() + ". Error reading GPS: "  + nmeaSentence);
                 break;
             }
         }
@@ -165,6 +158,6 @@ public abstract class SerialGPS implements Runnable {
     }
     
     public String getBufferAsString() {
-        return bufferAsString;
+        return nmeaSentence.toString();
     }
 }
@@ -30,6 +30,7 @@ package xml;
 
 import java.io.*;
 import gpsjake.*;
+import geo.GPSFix;
 
 public class GPXXMLWriter {
 
@@ -57,8 +58,9 @@ public class GPXXMLWriter {
     public void writeTrackPoint() {
         try {
             String xsdDateTime = this.midlet.getGPSInfo().getDateXSD();
-            ps.print("<trkpt lat=\"" + this.midlet.getGPSInfo().getLatitude()
-                        + "\" lon=\"" + this.midlet.getGPSInfo().getLongitude() + "\">" + EOL);
+            GPSFix gpsFix = this.midlet.getGPSInfo().getCurrentFix();
+            ps.print("<trkpt lat=\"" + gpsFix.getLatitude()
+                        + "\" lon=\"" + gpsFix.getLongitude() + "\">" + EOL);
             if (xsdDateTime != null) {
                 ps.print("<time>" + xsdDateTime + "</time>" + EOL);                
             }
@@ -38,6 +38,8 @@ import javax.microedition.io.file.*;
 import geo.*;
 
 public class SettingsXMLReader {
+    //The file is read this many bytes at a time rather than a byte at a time.
+    private static final int BUFFER_SIZE = 512;
     private FileConnection fileConn;
     private InputStream fis;
     private GPSJakeMIDlet midlet;
@@ -53,30 +55,17 @@ public class SettingsXMLReader {
         }
     }
 
+    //Without a midlet errors are thrown rather than reported (e.g. MapCatalog reading
+    //the settings of maps which aren't loaded).
+    public SettingsXMLReader(GeoImage geoImage) throws IOException {
+        this.gimage = geoImage;
+        fileConn = (FileConnection)Connector.open(gimage.getXMLFilename(), Connector.READ);
+    }
+
     public void parseSettingsFile() {
         try {
-            String line;
-            int ch;
-            if (gimage.getControlPoints().size() > 0) {
-                gimage.removeAllControlPoints();
-            }
             try {
-                fis = fileConn.openInputStream();
-                ch = fis.read();
-                while(ch != -1) {
-                    line = "";
-                    while(ch != -1 && ch != '\n') {
-                        line = line + (char)ch;
-                        ch = fis.read();                
-                    }
-                    //Do trim to remove carriage return.
-                    parseLine(line.trim());
-                    ch = fis.read();
-                }
-                fis.close();
-                fileConn.close();
-                fis = null;
-                fileConn = null;
+                readPoints();
             } catch (IOException e) {
                 midlet.fatalError("SettingsXMLReader:parseSettingsFile " + e.toString());
             }
@@ -93,6 +82,39 @@ public class SettingsXMLReader {
         }
     }
     
+    //Reads the control and guidance points into the image without registering it.
+    //A badly formed point throws a RuntimeException.
+    public void readPoints() throws IOException {
+        StringBuffer line = new StringBuffer();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        if (gimage.getControlPoints().size() > 0) {
+            gimage.removeAllControlPoints();
+        }
+        try {
+            fis = fileConn.openInputStream();
+            while ((count = fis.read(buffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] == '\n') {
+                        //Do trim to remove carriage return.
+                        parseLine(line.toString().trim());
+                        line.setLength(0);
+                    } else {
+                        line.append((char)(buffer[i] & 0xff));
+                    }
+                }
+            }
+            parseLine(line.toString().trim());
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+            fileConn.close();
+            fis = null;
+            fileConn = null;
+        }
+    }
+    
     public boolean fileExists() {
         if (fileConn.exists()) {
             return true;
@@ -101,68 +123,64 @@ public class SettingsXMLReader {
     }
     
     private void parseLine(String line) {
-        try {
-            int image_x;
-            int image_y;
-            double eastings;
-            double northings;
-            String strImage_x, strImage_y, strEastings, strNorthings, strWavFile;
-            String startTag, endTag;
-            boolean userDefined = false;
-            
-            if (line.startsWith("<controlPoint>")) {
-                //Add the control point
-                startTag = "<image_x>";
-                endTag = "</image_x>";
-                strImage_x = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                startTag = "<image_y>";
-                endTag = "</image_y>";
-                strImage_y = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                startTag = "<eastings>";
-                endTag = "</eastings>";
-                strEastings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                startTag = "<northings>";
-                endTag = "</northings>";
-                strNorthings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                eastings = Double.parseDouble(strEastings);
-                northings = Double.parseDouble(strNorthings);
-                image_x = Integer.parseInt(strImage_x);
-                image_y = Integer.parseInt(strImage_y);
-                ControlPoint controlPoint = new ControlPoint(image_x, image_y, eastings, northings);
-                gimage.addControlPoint(controlPoint);
-            } else if (line.startsWith("<guidancePoint>")) {
-                //Add the guidance point
-                startTag = "<image_x>";
-                endTag = "</image_x>";
-                strImage_x = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                startTag = "<image_y>";
-                endTag = "</image_y>";
-                strImage_y = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+        int image_x;
+        int image_y;
+        double eastings;
+        double northings;
+        String strImage_x, strImage_y, strEastings, strNorthings, strWavFile;
+        String startTag, endTag;
+        boolean userDefined = false;
+        
+        if (line.startsWith("<controlPoint>")) {
+            //Add the control point
+            startTag = "<image_x>";
+            endTag = "</image_x>";
+            strImage_x = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            startTag = "<image_y>";
+            endTag = "</image_y>";
+            strImage_y = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            startTag = "<eastings>";
+            endTag = "</eastings>";
+            strEastings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            startTag = "<northings>";
+            endTag = "</northings>";
+            strNorthings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            eastings = Double.parseDouble(strEastings);
+            northings = Double.parseDouble(strNorthings);
+            image_x = Integer.parseInt(strImage_x);
+            image_y = Integer.parseInt(strImage_y);
+            ControlPoint controlPoint = new ControlPoint(image_x, image_y, eastings, northings);
+            gimage.addControlPoint(controlPoint);
+        } else if (line.startsWith("<guidancePoint>")) {
+            //Add the guidance point
+            startTag = "<image_x>";
+            endTag = "</image_x>";
+            strImage_x = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            startTag = "<image_y>";
+            endTag = "</image_y>";
+            strImage_y = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
 
-                startTag = "<eastings>";
-                endTag = "</eastings>";
-                strEastings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                startTag = "<northings>";
-                endTag = "</northings>";
-                strNorthings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));                
+            startTag = "<eastings>";
+            endTag = "</eastings>";
+            strEastings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            startTag = "<northings>";
+            endTag = "</northings>";
+            strNorthings = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));                
 
-                eastings = Double.parseDouble(strEastings);
-                northings = Double.parseDouble(strNorthings);                
-                
-                startTag = "<wavFile>";
-                endTag = "</wavFile>";
-                strWavFile = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
-                image_x = Integer.parseInt(strImage_x);
-                image_y = Integer.parseInt(strImage_y);
-                startTag = "</userDefined>";
-                if (line.indexOf(startTag) > -1) {
-                    userDefined = true;
-                }
-                GuidancePoint guidancePoint = new GuidancePoint(image_x, image_y, eastings, northings, strWavFile, userDefined);
-                gimage.addGuidancePoint(guidancePoint);                
+            eastings = Double.parseDouble(strEastings);
+            northings = Double.parseDouble(strNorthings);                
+            
+            startTag = "<wavFile>";
+            endTag = "</wavFile>";
+            strWavFile = line.substring((line.indexOf(startTag) + startTag.length()), (line.indexOf(endTag)));
+            image_x = Integer.parseInt(strImage_x);
+            image_y = Integer.parseInt(strImage_y);
+            startTag = "</userDefined>";
+            if (line.indexOf(startTag) > -1) {
+                userDefined = true;
             }
-        } catch (Exception e) {
-            midlet.fatalError("SettingsXMLReader:parseLine " + e.toString());
+            GuidancePoint guidancePoint = new GuidancePoint(image_x, image_y, eastings, northings, strWavFile, userDefined);
+            gimage.addGuidancePoint(guidancePoint);                
         }
     }
 }
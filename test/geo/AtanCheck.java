@@ -0,0 +1,199 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: AtanCheck
+ *
+ * desc: AtanCheck sweeps CoordSys.atan and atan2 against StrictMath and checks the error
+ * is within the bound given with ATAN_TABLE (5e-16 radians):
+ * - atan at evenly spaced points over 0 to 1 (the table range) and either side of each
+ *   point where the table entry used changes,
+ * - atan over 1e-300 to 1e300 and -1e300 to -1e-300 in small steps of the exponent,
+ * - atan2 at random points in all four quadrants and on the axes, and the special cases
+ *   (zero, infinity, NaN).
+ * The old rational atan (LegacyCoordSys.atan) is swept as well for comparison and both
+ * are timed against StrictMath.atan.
+ *
+ * Usage: AtanCheck [points in the 0 to 1 sweep]
+ * The exit code is the number of failed checks.
+ */
+
+package geo;
+
+import java.util.Random;
+
+public class AtanCheck {
+
+    private static final double BOUND = 5e-16;
+    private static final int DEFAULT_POINTS = 10000000;
+    private static final int TABLE_SIZE = 64;
+    //Steps in each power of ten in the log sweep.
+    private static final int LOG_STEPS = 10000;
+    private static final int ATAN2_POINTS = 1000000;
+
+    private static final int BENCHMARK_POINTS = 100000;
+    private static final int WARM_UP_PASSES = 50;
+    private static final int PASSES = 200;
+
+    private static int failures;
+    private static long count;
+    private static double maxError;
+    private static double maxLegacyError;
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_POINTS;
+
+        for (int i = 0; i <= points; i++) {
+            checkAtan((double) i / points);
+        }
+        for (int k = 0; k < TABLE_SIZE; k++) {
+            double x = (k + 0.5) / TABLE_SIZE;
+            checkAtan(x);
+            checkAtan(nextDown(x));
+            checkAtan(nextUp(x));
+        }
+        report("atan 0 to 1");
+
+        for (int i = -300 * LOG_STEPS; i <= 300 * LOG_STEPS; i++) {
+            double x = Math.pow(10, (double) i / LOG_STEPS);
+            checkAtan(x);
+            checkAtan(-x);
+        }
+        checkAtan(1);
+        checkAtan(-1);
+        report("atan 1e-300 to 1e300");
+
+        Random random = new Random(1);
+        for (int i = 0; i < ATAN2_POINTS; i++) {
+            //Up to 1e6 either way so the ratio covers the whole atan range.
+            double y = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(13) - 6);
+            double x = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(13) - 6);
+            checkAtan2(y, x);
+            checkAtan2(y, 0);
+            checkAtan2(0, x);
+        }
+        report("atan2");
+
+        check("atan(0)", CoordSys.atan(0) == 0);
+        check("atan(infinity)", CoordSys.atan(Double.POSITIVE_INFINITY) == StrictMath.atan(Double.POSITIVE_INFINITY));
+        check("atan(-infinity)", CoordSys.atan(Double.NEGATIVE_INFINITY) == StrictMath.atan(Double.NEGATIVE_INFINITY));
+        check("atan(NaN)", Double.isNaN(CoordSys.atan(Double.NaN)));
+        check("atan2(0, 0)", CoordSys.atan2(0, 0) == 0);
+        check("atan2(1, 0)", CoordSys.atan2(1, 0) == StrictMath.atan2(1, 0));
+        check("atan2(-1, 0)", CoordSys.atan2(-1, 0) == StrictMath.atan2(-1, 0));
+        check("atan2(0, -1)", CoordSys.atan2(0, -1) == StrictMath.atan2(0, -1));
+        check("atan2(NaN, 1)", Double.isNaN(CoordSys.atan2(Double.NaN, 1)));
+
+        benchmark();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        System.exit(failures);
+    }
+
+    private static void checkAtan(double x) {
+        double expected = StrictMath.atan(x);
+        double error = Math.abs(CoordSys.atan(x) - expected);
+        maxError = Math.max(maxError, error);
+        maxLegacyError = Math.max(maxLegacyError, Math.abs(LegacyCoordSys.atan(x) - expected));
+        count++;
+        check("atan(" + x + ") error " + error, error <= BOUND);
+    }
+
+    //The quadrant is found from the signs and PI added or taken away, which can add up to
+    //half an ulp of the result.  Zero y is taken as +0 (CoordSys.atan2 doesn't look at the
+    //sign of zero).
+    private static void checkAtan2(double y, double x) {
+        double result = CoordSys.atan2(y, x);
+        double error = Math.abs(result - StrictMath.atan2(y == 0 ? 0 : y, x));
+        maxError = Math.max(maxError, error);
+        count++;
+        check("atan2(" + y + ", " + x + ") error " + error, error <= BOUND + ulp(result) / 2);
+    }
+
+    private static void report(String sweep) {
+        System.out.println(sweep + ": " + count + " points, max error " + maxError
+                + (maxLegacyError > 0 ? ", old atan " + maxLegacyError : ""));
+        count = 0;
+        maxError = 0;
+        maxLegacyError = 0;
+    }
+
+    private static void benchmark() {
+        double[] x = new double[BENCHMARK_POINTS];
+        Random random = new Random(2);
+        for (int i = 0; i < x.length; i++) {
+            //The ratios met in the transforms, mostly around 0 to 2.
+            x[i] = (random.nextDouble() - 0.5) * 4;
+        }
+        String[] names = {"atan", "atan (old)", "StrictMath.atan"};
+        for (int test = 0; test < names.length; test++) {
+            for (int i = 0; i < WARM_UP_PASSES; i++) {
+                pass(test, x);
+            }
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < PASSES; i++) {
+                sum += pass(test, x);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(names[test] + ": " + elapsed * 10 / ((long) PASSES * x.length) / 10.0
+                    + " ns/call (" + sum + ")");
+        }
+    }
+
+    //Returns a total of the results so the work can't be optimised away.
+    private static double pass(int test, double[] x) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            switch (test) {
+                case 0:
+                    sum += CoordSys.atan(x[i]);
+                    break;
+                case 1:
+                    sum += LegacyCoordSys.atan(x[i]);
+                    break;
+                default:
+                    sum += StrictMath.atan(x[i]);
+            }
+        }
+        return sum;
+    }
+
+    private static double nextUp(double x) {
+        return Double.longBitsToDouble(Double.doubleToLongBits(x) + 1);
+    }
+
+    private static double nextDown(double x) {
+        return Double.longBitsToDouble(Double.doubleToLongBits(x) - 1);
+    }
+
+    private static double ulp(double x) {
+        return nextUp(Math.abs(x)) - Math.abs(x);
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            failures++;
+            if (failures <= 20) {
+                System.out.println("FAILED: " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: ConversionCacheCheck
+ *
+ * desc: ConversionCacheCheck runs simulated fixes through CoordSys's conversion caches
+ * and checks how many come out of the cache and how far the results are from converting
+ * every point:
+ * - an hour of 1 Hz fixes from a GPS standing still, with 1.5 m of jitter that is
+ *   independent from fix to fix or strongly correlated, given to 4 and 5 decimal places
+ *   of a minute as in NMEA.  At least MIN_STATIONARY_HITS of these must be hits.
+ * - the same for grid references (grid to lat / long),
+ * - a walk, which mostly misses,
+ * - two random points in each of many random cells over GB, which is the worst case
+ *   for the gradient.
+ * Every result must be within MAX_ERROR of the uncached conversion.
+ *
+ * The exit code is the number of failed checks.
+ */
+
+package geo;
+
+import java.util.Random;
+
+public class ConversionCacheCheck {
+
+    private static final int FIXES = 3600;
+    private static final double JITTER = 1.5;
+    private static final double MIN_STATIONARY_HITS = 0.9;
+    //Metres.
+    private static final double MAX_ERROR = 0.001;
+    private static final double METRES_PER_DEGREE = 111200;
+    private static final int CELLS = 20000;
+
+    private static final double LAT = 53.0045;
+    private static final double LNG = -2.2695;
+
+    private static int failures;
+    private static CoordSys coordSys = new CoordSys();
+    private static OSGBTransform transform = OSGBTransform.WGS84_OSGB36;
+    private static Random random = new Random(1);
+
+    public static void main(String[] args) {
+        for (int decimals = 4; decimals <= 5; decimals++) {
+            checkStationary("independent", 0, decimals);
+            checkStationary("correlated (0.99)", 0.99, decimals);
+        }
+        checkStationaryGrid("independent", 0);
+        checkStationaryGrid("correlated (0.99)", 0.99);
+        checkWalk();
+        checkRandomCells();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        System.exit(failures);
+    }
+
+    //Fixes about (LAT, LNG) with jitter whose correlation from one fix to the next is rho.
+    private static void checkStationary(String name, double rho, int decimals) {
+        reset();
+        double north = 0;
+        double east = 0;
+        double maxError = 0;
+        OSGridRef exact = new OSGridRef();
+        for (int i = 0; i < FIXES; i++) {
+            north = jitter(north, rho);
+            east = jitter(east, rho);
+            double lat = nmea(LAT + north / METRES_PER_DEGREE, decimals);
+            double lng = nmea(LNG + east / (METRES_PER_DEGREE * Math.cos(Math.toRadians(LAT))), decimals);
+            OSGridRef osGridRef = coordSys.getOSGridRef(lat, lng);
+            transform.toOSGridRef(lat, lng, exact);
+            maxError = Math.max(maxError, Math.max(Math.abs(osGridRef.Eastings - exact.Eastings),
+                    Math.abs(osGridRef.Northings - exact.Northings)));
+        }
+        report("stationary lat / long, " + name + ", " + decimals + " decimals",
+                CoordSys.getLatLongCache(), maxError, true);
+    }
+
+    private static void checkStationaryGrid(String name, double rho) {
+        reset();
+        OSGridRef centre = transform.toOSGridRef(LAT, LNG, new OSGridRef());
+        double north = 0;
+        double east = 0;
+        double maxError = 0;
+        LatLong exact = new LatLong();
+        for (int i = 0; i < FIXES; i++) {
+            north = jitter(north, rho);
+            east = jitter(east, rho);
+            //Grid references to the centimetre.
+            double e = Math.floor((centre.Eastings + east) * 100 + 0.5) / 100;
+            double n = Math.floor((centre.Northings + north) * 100 + 0.5) / 100;
+            LatLong latLong = coordSys.getWGS84LatLong(e, n);
+            transform.toWGS84(e, n, exact);
+            maxError = Math.max(maxError, latLongError(latLong, exact));
+        }
+        report("stationary grid, " + name, CoordSys.getGridCache(), maxError, true);
+    }
+
+    //Walking north east at 1.4 m/s.
+    private static void checkWalk() {
+        reset();
+        double maxError = 0;
+        OSGridRef exact = new OSGridRef();
+        for (int i = 0; i < FIXES; i++) {
+            double lat = nmea(LAT + i * 1.0 / METRES_PER_DEGREE, 4);
+            double lng = nmea(LNG + i * 1.0 / (METRES_PER_DEGREE * Math.cos(Math.toRadians(LAT))), 4);
+            OSGridRef osGridRef = coordSys.getOSGridRef(lat, lng);
+            transform.toOSGridRef(lat, lng, exact);
+            maxError = Math.max(maxError, Math.max(Math.abs(osGridRef.Eastings - exact.Eastings),
+                    Math.abs(osGridRef.Northings - exact.Northings)));
+        }
+        report("walk", CoordSys.getLatLongCache(), maxError, false);
+    }
+
+    //The first point in a cell is converted and the second worked out from the gradient,
+    //as far from the first as a cell allows.
+    private static void checkRandomCells() {
+        reset();
+        double resolution = CoordSys.getLatLongCache().getResolution();
+        double maxError = 0;
+        OSGridRef exact = new OSGridRef();
+        for (int i = 0; i < CELLS; i++) {
+            //Centre of the cell, then the first point in its south west corner.
+            double lat = Math.floor((50 + random.nextDouble() * 8.5) / resolution) * resolution;
+            double lng = Math.floor((-6 + random.nextDouble() * 7.5) / resolution) * resolution;
+            coordSys.getOSGridRef(lat - resolution * 0.499, lng - resolution * 0.499);
+            double lat2 = lat + resolution * (random.nextDouble() - 0.5) * 0.998;
+            double lng2 = lng + resolution * (random.nextDouble() - 0.5) * 0.998;
+            OSGridRef osGridRef = coordSys.getOSGridRef(lat2, lng2);
+            transform.toOSGridRef(lat2, lng2, exact);
+            maxError = Math.max(maxError, Math.max(Math.abs(osGridRef.Eastings - exact.Eastings),
+                    Math.abs(osGridRef.Northings - exact.Northings)));
+        }
+        report("random cells", CoordSys.getLatLongCache(), maxError, false);
+    }
+
+    private static void reset() {
+        CoordSys.getLatLongCache().setResolution(CoordSys.DEFAULT_LAT_LONG_RESOLUTION);
+        CoordSys.getLatLongCache().resetCounts();
+        CoordSys.getGridCache().setResolution(CoordSys.DEFAULT_GRID_RESOLUTION);
+        CoordSys.getGridCache().resetCounts();
+    }
+
+    private static double jitter(double previous, double rho) {
+        return rho * previous + Math.sqrt(1 - rho * rho) * JITTER * random.nextGaussian();
+    }
+
+    //Degrees rounded to a number of decimal places of a minute.
+    private static double nmea(double degrees, int decimals) {
+        double scale = 60 * Math.pow(10, decimals);
+        return Math.floor(degrees * scale + 0.5) / scale;
+    }
+
+    private static double latLongError(LatLong a, LatLong b) {
+        return Math.max(Math.abs(a.Latitude - b.Latitude),
+                Math.abs(a.Longitude - b.Longitude) * Math.cos(Math.toRadians(a.Latitude)))
+                * METRES_PER_DEGREE;
+    }
+
+    private static void report(String name, ConversionCache cache, double maxError, boolean stationary) {
+        int hits = cache.getHits();
+        int lookups = hits + cache.getMisses();
+        System.out.println(name + ": " + hits + " hits in " + lookups + ", max error " + maxError + " m");
+        if (stationary) {
+            check(name + " hits", hits >= MIN_STATIONARY_HITS * lookups);
+        }
+        check(name + " error", maxError <= MAX_ERROR);
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: GridShiftCheck
+ *
+ * desc: GridShiftCheck writes small synthetic grid shift files (see GridShift) and
+ * checks:
+ * - reading part of the grid with a margin, which skips rows and columns of the file,
+ *   loads the right nodes,
+ * - apply gives the node values at the nodes, including the top / right edge, and
+ *   interpolates bilinearly between them,
+ * - remove undoes apply,
+ * - OSGBTransform uses the grid shift within the loaded nodes and falls back to
+ *   Helmert outside them,
+ * - files with a bad magic number, a bad version or which are cut short are rejected.
+ *
+ * The exit code is the number of failed checks.
+ */
+
+package geo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class GridShiftCheck {
+
+    //The synthetic grid file.
+    private static final int MIN_E = 400000;
+    private static final int MIN_N = 300000;
+    private static final int SPACING = 1000;
+    private static final int COLUMNS = 10;
+    private static final int ROWS = 8;
+    //Millimetres.
+    private static final int BASE_E = 96000;
+    private static final int BASE_N = -72000;
+    //As GeoImage reads around a map.
+    private static final int MARGIN = 1000;
+    //Bytes before the nodes.
+    private static final int HEADER_SIZE = 36;
+    //Metres.
+    private static final double MAX_ERROR = 0.000001;
+    private static final int ROUND_TRIPS = 1000;
+
+    private static final double LAT = 53.0045;
+    private static final double LNG = -2.2695;
+
+    private static int failures;
+    private static Random random = new Random(1);
+
+    public static void main(String[] args) throws IOException {
+        checkPartialRead();
+        checkRoundTrip();
+        checkFallback();
+        checkRejected();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        System.exit(failures);
+    }
+
+    //Columns 3.2 - 5.7 and rows 2.5 - 4.1 with the margin need columns 2 - 7 and rows
+    //1 - 6 of the file.
+    private static void checkPartialRead() throws IOException {
+        GridShift gridShift = read(grid(GridShift.MAGIC, GridShift.VERSION, 0),
+                MIN_E + 3200, MIN_N + 2500, MIN_E + 5700, MIN_N + 4100, MARGIN);
+        check("partial read", gridShift != null);
+        if (gridShift == null) {
+            return;
+        }
+        check("first node loaded", gridShift.contains(nodeE(2), nodeN(1)));
+        check("last node loaded", gridShift.contains(nodeE(7), nodeN(6)));
+        check("column before skipped", !gridShift.contains(nodeE(2) - 1, nodeN(3)));
+        check("row before skipped", !gridShift.contains(nodeE(4), nodeN(1) - 1));
+        check("column after skipped", !gridShift.contains(nodeE(7) + 1, nodeN(3)));
+        check("row after skipped", !gridShift.contains(nodeE(4), nodeN(6) + 1));
+
+        //Every loaded node, which includes the top and right edges.
+        double maxError = 0;
+        for (int row = 1; row <= 6; row++) {
+            for (int column = 2; column <= 7; column++) {
+                maxError = Math.max(maxError, applyError(gridShift, nodeE(column), nodeN(row),
+                        shiftE(column, row), shiftN(column, row)));
+            }
+        }
+        check("node values", maxError <= MAX_ERROR);
+
+        //A quarter of the way across and three quarters up the cell at column 4, row 2.
+        maxError = applyError(gridShift, nodeE(4) + 250, nodeN(2) + 750,
+                bilinear(shiftE(4, 2), shiftE(5, 2), shiftE(4, 3), shiftE(5, 3), 0.25, 0.75),
+                bilinear(shiftN(4, 2), shiftN(5, 2), shiftN(4, 3), shiftN(5, 3), 0.25, 0.75));
+        check("bilinear within a cell", maxError <= MAX_ERROR);
+
+        //Along the right edge, the top edge and in the top right cell.
+        maxError = applyError(gridShift, nodeE(7), nodeN(3) + 400,
+                bilinear(shiftE(6, 3), shiftE(7, 3), shiftE(6, 4), shiftE(7, 4), 1, 0.4),
+                bilinear(shiftN(6, 3), shiftN(7, 3), shiftN(6, 4), shiftN(7, 4), 1, 0.4));
+        check("bilinear on the right edge", maxError <= MAX_ERROR);
+        maxError = applyError(gridShift, nodeE(3) + 600, nodeN(6),
+                bilinear(shiftE(3, 5), shiftE(4, 5), shiftE(3, 6), shiftE(4, 6), 0.6, 1),
+                bilinear(shiftN(3, 5), shiftN(4, 5), shiftN(3, 6), shiftN(4, 6), 0.6, 1));
+        check("bilinear on the top edge", maxError <= MAX_ERROR);
+        maxError = applyError(gridShift, nodeE(6) + 900, nodeN(5) + 900,
+                bilinear(shiftE(6, 5), shiftE(7, 5), shiftE(6, 6), shiftE(7, 6), 0.9, 0.9),
+                bilinear(shiftN(6, 5), shiftN(7, 5), shiftN(6, 6), shiftN(7, 6), 0.9, 0.9));
+        check("bilinear in the top right cell", maxError <= MAX_ERROR);
+
+        OSGridRef osGridRef = new OSGridRef();
+        osGridRef.Eastings = -1;
+        check("outside not applied", !gridShift.apply(nodeE(8), nodeN(3), osGridRef) &&
+                osGridRef.Eastings == -1);
+
+        check("area off the grid", read(grid(GridShift.MAGIC, GridShift.VERSION, 0),
+                MIN_E + 20000, MIN_N, MIN_E + 25000, MIN_N + 5000, 0) == null);
+    }
+
+    //Removing the shift from a shifted point gives the point back.
+    private static void checkRoundTrip() throws IOException {
+        GridShift gridShift = read(grid(GridShift.MAGIC, GridShift.VERSION, 0),
+                MIN_E, MIN_N, nodeE(COLUMNS - 1), nodeN(ROWS - 1), 0);
+        OSGridRef osGridRef = new OSGridRef();
+        OSGridRef projected = new OSGridRef();
+        double maxError = 0;
+        boolean removed = true;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            //Far enough in from the edges for the shifted point to be on the grid.
+            double e = MIN_E + 200 + random.nextDouble() * ((COLUMNS - 1) * SPACING - 400);
+            double n = MIN_N + 200 + random.nextDouble() * ((ROWS - 1) * SPACING - 400);
+            gridShift.apply(e, n, osGridRef);
+            removed &= gridShift.remove(osGridRef.Eastings, osGridRef.Northings, projected);
+            maxError = Math.max(maxError, Math.max(Math.abs(projected.Eastings - e),
+                    Math.abs(projected.Northings - n)));
+        }
+        System.out.println("round trip: max error " + maxError + " m");
+        check("round trip removed", removed);
+        check("round trip error", maxError <= MAX_ERROR);
+    }
+
+    //A grid around (LAT, LNG) is used there and Helmert a few km away.
+    private static void checkFallback() throws IOException {
+        OSGBTransform helmert = new OSGBTransform();
+        OSGBTransform transform = new OSGBTransform();
+
+        //A grid of zero shifts over GB gives the GRS80 projection of the point.
+        transform.setGridShift(read(grid(-100000, -100000, 100000, 10, 15, 0, 0, 0,
+                GridShift.MAGIC, GridShift.VERSION, 0), 0, 0, 700000, 1300000, 0));
+        OSGridRef projected = transform.toOSGridRefExact(LAT, LNG, new OSGridRef());
+
+        //Nodes from 3 km south west to 4 km north east of the point.
+        int minE = (int) projected.Eastings - 3000;
+        int minN = (int) projected.Northings - 3000;
+        GridShift gridShift = read(grid(minE, minN, SPACING, 8, 8, BASE_E, BASE_N, 1,
+                GridShift.MAGIC, GridShift.VERSION, 0), minE, minN, minE + 7000, minN + 7000, 0);
+        transform.setGridShift(gridShift);
+
+        OSGridRef expected = new OSGridRef();
+        gridShift.apply(projected.Eastings, projected.Northings, expected);
+        OSGridRef osGridRef = transform.toOSGridRefExact(LAT, LNG, new OSGridRef());
+        check("shift used within the grid", Math.abs(osGridRef.Eastings - expected.Eastings) <= MAX_ERROR &&
+                Math.abs(osGridRef.Northings - expected.Northings) <= MAX_ERROR);
+        OSGridRef exact = helmert.toOSGridRefExact(LAT, LNG, new OSGridRef());
+        check("shift differs from Helmert", Math.abs(osGridRef.Eastings - exact.Eastings) > 1);
+
+        //About 11 km north.
+        double lat = LAT + 0.1;
+        osGridRef = transform.toOSGridRefExact(lat, LNG, new OSGridRef());
+        exact = helmert.toOSGridRefExact(lat, LNG, new OSGridRef());
+        check("Helmert outside the grid", osGridRef.Eastings == exact.Eastings &&
+                osGridRef.Northings == exact.Northings);
+        LatLong latLong = transform.toWGS84(exact.Eastings, exact.Northings, new LatLong());
+        LatLong exactLatLong = helmert.toWGS84(exact.Eastings, exact.Northings, new LatLong());
+        check("Helmert back outside the grid", latLong.Latitude == exactLatLong.Latitude &&
+                latLong.Longitude == exactLatLong.Longitude);
+    }
+
+    private static void checkRejected() {
+        checkRejected("bad magic", grid(0x4F534747, GridShift.VERSION, 0), 0);
+        checkRejected("bad version", grid(GridShift.MAGIC, GridShift.VERSION + 1, 0), 0);
+        checkRejected("cut short in the header", grid(GridShift.MAGIC, GridShift.VERSION, 20), 0);
+        //Part way through the second row, so it fails while reading nodes.
+        checkRejected("cut short in the nodes", grid(GridShift.MAGIC, GridShift.VERSION,
+                HEADER_SIZE + (COLUMNS + 3) * 4), 0);
+        //Before the fourth row, so it fails while skipping to the area at the top.
+        checkRejected("cut short before the area", grid(GridShift.MAGIC, GridShift.VERSION,
+                HEADER_SIZE + 3 * COLUMNS * 4), ROWS - 3);
+    }
+
+    //The file is read from firstRow to the top.
+    private static void checkRejected(String name, byte[] file, int firstRow) {
+        try {
+            read(file, MIN_E, nodeN(firstRow), nodeE(COLUMNS - 1), nodeN(ROWS - 1), 0);
+            check(name, false);
+        } catch (IOException e) {
+            System.out.println(name + ": " + e);
+        }
+    }
+
+    //Easting shift at a node of the synthetic grid file in metres.  Not linear so
+    //interpolating the wrong nodes shows.
+    private static double shiftE(int column, int row) {
+        return (BASE_E + nodeShiftE(column, row)) / 1000.0;
+    }
+
+    private static double shiftN(int column, int row) {
+        return (BASE_N + nodeShiftN(column, row)) / 1000.0;
+    }
+
+    private static int nodeShiftE(int column, int row) {
+        return (column * column * 37 + row * 101) % 900 - 450;
+    }
+
+    private static int nodeShiftN(int column, int row) {
+        return (row * row * 53 - column * 71) % 700;
+    }
+
+    private static double nodeE(int column) {
+        return MIN_E + column * SPACING;
+    }
+
+    private static double nodeN(int row) {
+        return MIN_N + row * SPACING;
+    }
+
+    //fx, fy are how far across and up the cell.
+    private static double bilinear(double bottomLeft, double bottomRight, double topLeft,
+            double topRight, double fx, double fy) {
+        double bottom = bottomLeft + fx * (bottomRight - bottomLeft);
+        double top = topLeft + fx * (topRight - topLeft);
+        return bottom + fy * (top - bottom);
+    }
+
+    private static double applyError(GridShift gridShift, double e, double n,
+            double expectedShiftE, double expectedShiftN) {
+        OSGridRef osGridRef = new OSGridRef();
+        if (!gridShift.apply(e, n, osGridRef)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.max(Math.abs(osGridRef.Eastings - e - expectedShiftE),
+                Math.abs(osGridRef.Northings - n - expectedShiftN));
+    }
+
+    private static GridShift read(byte[] file, double minE, double minN, double maxE, double maxN,
+            int margin) throws IOException {
+        return GridShift.read(new ByteArrayInputStream(file), minE - margin, minN - margin,
+                maxE + margin, maxN + margin);
+    }
+
+    //The synthetic grid file, cut to length bytes if length isn't 0.
+    private static byte[] grid(int magic, int version, int length) {
+        return grid(MIN_E, MIN_N, SPACING, COLUMNS, ROWS, BASE_E, BASE_N, 1, magic, version, length);
+    }
+
+    //scale multiplies the node shifts (0 for none).
+    private static byte[] grid(int minE, int minN, int spacing, int columns, int rows,
+            int baseE, int baseN, int scale, int magic, int version, int length) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(minE);
+            out.writeInt(minN);
+            out.writeInt(spacing);
+            out.writeInt(columns);
+            out.writeInt(rows);
+            out.writeInt(baseE);
+            out.writeInt(baseN);
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    out.writeShort(scale * nodeShiftE(column, row));
+                    out.writeShort(scale * nodeShiftN(column, row));
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e.toString());
+        }
+        byte[] file = bytes.toByteArray();
+        if (length == 0 || length >= file.length) {
+            return file;
+        }
+        byte[] cut = new byte[length];
+        System.arraycopy(file, 0, cut, 0, length);
+        return cut;
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
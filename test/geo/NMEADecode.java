@@ -0,0 +1,161 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: NMEADecode
+ *
+ * desc: NMEADecode decodes the RMC and GGA values NMEAParser uses in two ways so they
+ * can be timed (NMEAThroughputBenchmark) and compared (NMEADecodeCheck):
+ * - decodeLegacy as NMEAParser did before sentences were read in place - split into a
+ *   Vector of substrings, Double.parseDouble and the ddmm.mmmm to degrees conversion.
+ * - decode as NMEAParser does now, reading the fields of an NMEASentence in place.
+ */
+
+package geo;
+
+import java.util.Vector;
+
+public class NMEADecode {
+
+    //Values put in the result array by decode.
+    public static final int LAT = 0;
+    public static final int LNG = 1;
+    public static final int SPEED = 2;  //Metres per second.
+    public static final int COURSE = 3;
+    public static final int HEIGHT = 4;
+    public static final int GEOID_HEIGHT = 5;
+    public static final int NUM_SATS = 6;
+    public static final int VALUES = 7;
+
+    //As NMEAParser.
+    private static final int FIXED_DECIMALS = 3;
+    private static final double FIXED_SCALE = 1000.0;
+
+    private NMEADecode() {
+    }
+
+    public static Vector splitString(String s, String delimiter) {
+        Vector returnVector = new Vector();
+
+        while (s.indexOf(delimiter) != -1) {
+            returnVector.addElement(s.substring(0, s.indexOf(delimiter)));
+            s = s.substring(s.indexOf(delimiter) + 1);
+        }
+        returnVector.addElement(s.substring(0));
+
+        return returnVector;
+    }
+
+    //ddmm.mmmm (or dddmm.mmmm) to decimal degrees.
+    public static double degrees(String field) {
+        double l = Double.parseDouble(field);
+        int intL = (int) l / 100;
+        double m = ((l / 100.0) - intL) * 100.0;
+        m *= (100.0 / 60.0);
+        return intL + (m / 100.0);
+    }
+
+    //Decodes an RMC or GGA sentence with a fix into values (GPSInfo.UNDEFINED for those
+    //the sentence doesn't have).  Returns false for any other sentence.
+    public static boolean decodeLegacy(String s, double[] values) {
+        if (s.indexOf("*") < s.indexOf("$") || s.indexOf("*") == -1 || s.indexOf("$") == -1) {
+            return false;
+        }
+        String nmeaSentence = s.substring(s.indexOf("$"), s.indexOf("*"));
+        if (nmeaSentence.indexOf(",") == -1) {
+            return false;
+        }
+        String nmeaType = nmeaSentence.substring(3, nmeaSentence.indexOf(",", 3));
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = GPSInfo.UNDEFINED;
+        }
+        Vector nmeaFields = splitString(nmeaSentence, ",");
+        if (nmeaType.equals("RMC")) {
+            if (!nmeaFields.elementAt(2).toString().equals("A")) {
+                return false;
+            }
+            values[LAT] = degrees(nmeaFields.elementAt(3).toString());
+            if (nmeaFields.elementAt(4).toString().equals("S")) values[LAT] *= -1.0;
+            values[LNG] = degrees(nmeaFields.elementAt(5).toString());
+            if (nmeaFields.elementAt(6).toString().equals("W")) values[LNG] *= -1.0;
+            if (!nmeaFields.elementAt(7).toString().equals("")) {
+                values[SPEED] = Double.parseDouble(nmeaFields.elementAt(7).toString()) * NMEAParser.KNOTS_TO_MPS;
+            }
+            if (!nmeaFields.elementAt(8).toString().equals("")) {
+                values[COURSE] = Double.parseDouble(nmeaFields.elementAt(8).toString());
+            }
+            return true;
+        } else if (nmeaType.equals("GGA")) {
+            if (Integer.parseInt(nmeaFields.elementAt(6).toString()) == 0) {
+                return false;
+            }
+            values[LAT] = degrees(nmeaFields.elementAt(2).toString());
+            if (nmeaFields.elementAt(3).toString().equals("S")) values[LAT] *= -1.0;
+            values[LNG] = degrees(nmeaFields.elementAt(4).toString());
+            if (nmeaFields.elementAt(5).toString().equals("W")) values[LNG] *= -1.0;
+            values[HEIGHT] = Double.parseDouble(nmeaFields.elementAt(9).toString());
+            values[GEOID_HEIGHT] = Double.parseDouble(nmeaFields.elementAt(11).toString());
+            values[NUM_SATS] = Integer.parseInt(nmeaFields.elementAt(7).toString());
+            return true;
+        }
+        return false;
+    }
+
+    //As decodeLegacy for a sentence loaded into s, reading the fields as NMEAParser does.
+    public static boolean decode(NMEASentence s, double[] values) {
+        if (!s.isDelimited() || s.getFieldLength(0) != NMEASentence.ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = GPSInfo.UNDEFINED;
+        }
+        if (s.charAt(0, 2) == 'R' && s.charAt(0, 3) == 'M' && s.charAt(0, 4) == 'C') {
+            if (!s.fieldEquals(2, 'A')) {
+                return false;
+            }
+            values[LAT] = s.getDegrees(3);
+            if (s.fieldEquals(4, 'S')) values[LAT] *= -1.0;
+            values[LNG] = s.getDegrees(5);
+            if (s.fieldEquals(6, 'W')) values[LNG] *= -1.0;
+            if (!s.isEmpty(7)) {
+                values[SPEED] = s.getFixed(7, FIXED_DECIMALS) / FIXED_SCALE * NMEAParser.KNOTS_TO_MPS;
+            }
+            if (!s.isEmpty(8)) {
+                values[COURSE] = s.getFixed(8, FIXED_DECIMALS) / FIXED_SCALE;
+            }
+            return true;
+        } else if (s.charAt(0, 2) == 'G' && s.charAt(0, 3) == 'G' && s.charAt(0, 4) == 'A') {
+            if (s.getInt(6) == 0) {
+                return false;
+            }
+            values[LAT] = s.getDegrees(2);
+            if (s.fieldEquals(3, 'S')) values[LAT] *= -1.0;
+            values[LNG] = s.getDegrees(4);
+            if (s.fieldEquals(5, 'W')) values[LNG] *= -1.0;
+            values[HEIGHT] = s.getFixed(9, FIXED_DECIMALS) / FIXED_SCALE;
+            values[GEOID_HEIGHT] = s.getFixed(11, FIXED_DECIMALS) / FIXED_SCALE;
+            values[NUM_SATS] = s.getInt(7);
+            return true;
+        }
+        return false;
+    }
+}
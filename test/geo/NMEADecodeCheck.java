@@ -0,0 +1,187 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: NMEADecodeCheck
+ *
+ * desc: NMEADecodeCheck checks the fixed point NMEA reading (NMEASentence.getDegrees and
+ * getFixed, via NMEADecode.decode) against the old Double.parseDouble path
+ * (NMEADecode.decodeLegacy) over recorded logs (see SampleLog) and a set of edge case
+ * sentences:
+ * - latitude and longitude within 1e-9 degrees of the exact value of the field,
+ *   worked out with BigDecimal, and of the old result,
+ * - speed, course, height and geoid height within half of the last fixed point digit
+ *   (0.0005) of the old result,
+ * - the same sentences accepted, and the same rejected, by both.
+ *
+ * Usage: NMEADecodeCheck [log file ...]
+ * The exit code is the number of failed checks.
+ */
+
+package geo;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Vector;
+
+public class NMEADecodeCheck {
+
+    //NMEASentence.getDegrees bound.
+    private static final double DEGREES_BOUND = 1e-9;
+    //getFixed with 3 decimals, plus double rounding of the old parse.
+    private static final double FIXED_BOUND = 0.0005 + 1e-9;
+
+    private static final BigDecimal SIXTY = new BigDecimal(60);
+
+    private static int failures;
+    private static int sentences;
+    private static int decoded;
+    private static double maxDegreesError;
+    private static double maxLegacyDifference;
+    private static double maxFixedDifference;
+
+    private static NMEASentence sentence = new NMEASentence();
+    private static double[] values = new double[NMEADecode.VALUES];
+    private static double[] legacyValues = new double[NMEADecode.VALUES];
+
+    public static void main(String[] args) throws Exception {
+        String[] lines = SampleLog.read(args);
+        for (int i = 0; i < lines.length; i++) {
+            checkSentence(lines[i]);
+        }
+        System.out.println(sentences + " sentences from " + SampleLog.describe(args) + ", "
+                + decoded + " decoded");
+        checkEdgeCases();
+        System.out.println("max error " + maxDegreesError + " degrees, max difference from the old "
+                + "decode " + maxLegacyDifference + " degrees and " + maxFixedDifference
+                + " for other values");
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        System.exit(failures);
+    }
+
+    private static void checkEdgeCases() {
+        //Hemispheres and the ends of the ranges.
+        checkEdgeCase("GPRMC,120000.00,A,5300.2694,S,00216.1674,E,0.5,12.3,010124,,,A", true);
+        checkEdgeCase("GPRMC,120000.00,A,0000.0000,N,00000.0000,W,0.0,0.0,010124,,,A", true);
+        checkEdgeCase("GPRMC,120000.00,A,8959.9999,N,17959.9999,W,0.0,359.9,010124,,,A", true);
+        //More and fewer minute decimals than getDegrees keeps, and none.
+        checkEdgeCase("GPRMC,120000.00,A,5300.269412345,N,00216.167456789,W,1.25,45.5,010124,,,A", true);
+        checkEdgeCase("GPRMC,120000.00,A,5300.2,N,00216.1,W,1,45,010124,,,A", true);
+        checkEdgeCase("GPRMC,120000.00,A,5300,N,00216,W,1,45,010124,,,A", true);
+        //Minutes which round up to the next degree.
+        checkEdgeCase("GPRMC,120000.00,A,5259.99999999,N,00259.99999999,W,1,45,010124,,,A", true);
+        //No speed or course.
+        checkEdgeCase("GPRMC,120000.00,A,5300.2694,N,00216.1674,W,,,010124,,,A", true);
+        //Speed, course and heights past the three decimals kept.
+        checkEdgeCase("GPRMC,120000.00,A,5300.2694,N,00216.1674,W,12.3456,123.4565,010124,,,A", true);
+        checkEdgeCase("GPGGA,120000.00,5300.2694,N,00216.1674,W,1,12,0.9,267.4565,M,48.5005,M,,", true);
+        //Below sea level and a negative geoid height.
+        checkEdgeCase("GPGGA,120000.00,5300.2694,N,00216.1674,W,2,05,1.8,-12.5,M,-0.3,M,,", true);
+        //No fix.
+        checkEdgeCase("GPRMC,120000.00,V,,,,,,,010124,,,N", false);
+        checkEdgeCase("GPGGA,120000.00,,,,,0,00,99.9,,M,,M,,", false);
+        //Not a number.
+        checkEdgeCase("GPRMC,120000.00,A,53O0.2694,N,00216.1674,W,1,45,010124,,,A", false);
+        checkEdgeCase("GPGGA,120000.00,5300.2694,N,00216.1674,W,1,12,0.9,267.4.5,M,48.5,M,,", false);
+    }
+
+    //body is the characters between the $ and the checksum.
+    private static void checkEdgeCase(String body, boolean decodes) {
+        String s = SampleLog.sentence(body);
+        check(s + " decoded", checkSentence(s) == decodes);
+    }
+
+    //Decodes the sentence both ways and compares the results.  Returns true if both
+    //decoded it.
+    private static boolean checkSentence(String s) {
+        sentences++;
+        boolean legacyOk;
+        boolean ok;
+        try {
+            legacyOk = NMEADecode.decodeLegacy(s, legacyValues);
+        } catch (NumberFormatException e) {
+            legacyOk = false;
+        }
+        try {
+            ok = sentence.load(s) && NMEADecode.decode(sentence, values);
+        } catch (NumberFormatException e) {
+            ok = false;
+        }
+        check(s + " decoded " + ok + ", old decode " + legacyOk, ok == legacyOk);
+        if (!ok || !legacyOk) {
+            return false;
+        }
+        decoded++;
+
+        Vector fields = NMEADecode.splitString(s.substring(0, s.indexOf('*')), ",");
+        int latField = s.indexOf("RMC") == 3 ? 3 : 2;
+        checkDegrees(s, "latitude", fields, latField, NMEADecode.LAT);
+        checkDegrees(s, "longitude", fields, latField + 2, NMEADecode.LNG);
+        checkFixed(s, "speed", NMEADecode.SPEED);
+        checkFixed(s, "course", NMEADecode.COURSE);
+        checkFixed(s, "height", NMEADecode.HEIGHT);
+        checkFixed(s, "geoid height", NMEADecode.GEOID_HEIGHT);
+        check(s + " satellites", values[NMEADecode.NUM_SATS] == legacyValues[NMEADecode.NUM_SATS]);
+        return true;
+    }
+
+    private static void checkDegrees(String s, String name, Vector fields, int field, int value) {
+        //ddmm.mmmm: degrees are the digits before the last two before the point.
+        BigDecimal f = new BigDecimal((String) fields.elementAt(field));
+        BigDecimal degrees = new BigDecimal(f.movePointLeft(2).toBigInteger());
+        BigDecimal exact = degrees.add(f.subtract(degrees.movePointRight(2)).divide(SIXTY,
+                MathContext.DECIMAL128));
+        if (((String) fields.elementAt(field + 1)).equals("S")
+                || ((String) fields.elementAt(field + 1)).equals("W")) {
+            exact = exact.negate();
+        }
+        double error = new BigDecimal(values[value]).subtract(exact).abs().doubleValue();
+        double difference = Math.abs(values[value] - legacyValues[value]);
+        maxDegreesError = Math.max(maxDegreesError, error);
+        maxLegacyDifference = Math.max(maxLegacyDifference, difference);
+        check(s + " " + name + " " + values[value] + " exact " + exact, error <= DEGREES_BOUND);
+        check(s + " " + name + " " + values[value] + " old decode " + legacyValues[value],
+                difference <= DEGREES_BOUND);
+    }
+
+    private static void checkFixed(String s, String name, int value) {
+        double bound = FIXED_BOUND;
+        if (value == NMEADecode.SPEED) {
+            //Read in knots.
+            bound *= NMEAParser.KNOTS_TO_MPS;
+        }
+        if (values[value] == GPSInfo.UNDEFINED || legacyValues[value] == GPSInfo.UNDEFINED) {
+            check(s + " " + name + " undefined", values[value] == legacyValues[value]);
+            return;
+        }
+        double difference = Math.abs(values[value] - legacyValues[value]);
+        maxFixedDifference = Math.max(maxFixedDifference, difference);
+        check(s + " " + name + " " + values[value] + " old decode " + legacyValues[value],
+                difference <= bound);
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: NMEAThroughputBenchmark
+ *
+ * desc: NMEAThroughputBenchmark times NMEA parsing over recorded logs (see SampleLog):
+ * - the RMC / GGA values decoded the old way, from the sentence string
+ *   (NMEADecode.decodeLegacy),
+ * - the same values read in place from sentences framed a byte at a time as SerialGPS
+ *   does (NMEADecode.decode),
+ * - every sentence through NMEAParser into GPSInfo, as on the GPS thread.
+ * Each is given as sentences per second and, if the JVM can count them, bytes allocated
+ * per sentence.
+ *
+ * Usage: NMEAThroughputBenchmark [log file ...]
+ */
+
+package geo;
+
+import java.lang.management.ManagementFactory;
+
+public class NMEAThroughputBenchmark {
+
+    private static final int WARM_UP_PASSES = 10;
+    private static final int PASSES = 20;
+
+    private static final int LEGACY_DECODE = 0;
+    private static final int DECODE = 1;
+    private static final int PARSE = 2;
+    private static final String[] NAMES = {"decode (legacy)", "decode (in place)", "NMEAParser"};
+
+    private static String[] lines;
+    private static byte[][] bytes;
+    private static NMEASentence sentence = new NMEASentence();
+    private static double[] values = new double[NMEADecode.VALUES];
+    private static NMEAParser parser = new NMEAParser(new GPSInfo(null));
+    private static int parseErrors;
+
+    public static void main(String[] args) throws Exception {
+        lines = SampleLog.read(args);
+        bytes = new byte[lines.length][];
+        for (int i = 0; i < lines.length; i++) {
+            bytes[i] = lines[i].getBytes("US-ASCII");
+        }
+        System.out.println(lines.length + " sentences from " + SampleLog.describe(args));
+
+        for (int test = LEGACY_DECODE; test <= PARSE; test++) {
+            for (int i = 0; i < WARM_UP_PASSES; i++) {
+                pass(test);
+            }
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < PASSES; i++) {
+                sum += pass(test);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (allocated >= 0) {
+                allocated = allocatedBytes() - allocated;
+            }
+            long allocatedPerSentence = allocated < 0 ? -1 : allocated / ((long) PASSES * lines.length);
+            long sentences = (long) PASSES * lines.length;
+            System.out.println(NAMES[test] + ": " + sentences * 1000000000L / elapsed + " sentences/s, "
+                    + elapsed / sentences + " ns/sentence, "
+                    + (allocatedPerSentence < 0 ? "allocation not measured"
+                    : allocatedPerSentence + " bytes allocated/sentence")
+                    + " (" + (long) sum + ")");
+            if (test == PARSE && allocated >= 0 && sum > 0) {
+                //sum is the number of fixes published.
+                System.out.println("  " + allocated / (long) sum
+                        + " bytes/fix - the fix's grid ref and, as fix snapshots are only reused after"
+                        + " GPSInfo.FIX_RECYCLE_AGE ms, a new snapshot at this rate");
+            }
+        }
+        if (parseErrors > 0) {
+            System.out.println(parseErrors + " sentences rejected by NMEAParser");
+        }
+    }
+
+    //Returns a total of the values read so the work can't be optimised away.
+    private static double pass(int test) {
+        double sum = 0;
+        for (int i = 0; i < lines.length; i++) {
+            switch (test) {
+                case LEGACY_DECODE:
+                    if (NMEADecode.decodeLegacy(lines[i], values)) {
+                        sum += values[NMEADecode.LAT];
+                    }
+                    break;
+                case DECODE:
+                    frame(bytes[i]);
+                    if (NMEADecode.decode(sentence, values)) {
+                        sum += values[NMEADecode.LAT];
+                    }
+                    break;
+                default:
+                    frame(bytes[i]);
+                    try {
+                        if (parser.parseNMEASentence(sentence)) {
+                            sum++;
+                        }
+                    } catch (NMEAParseException e) {
+                        parseErrors++;
+                    }
+            }
+        }
+        return sum;
+    }
+
+    private static void frame(byte[] b) {
+        sentence.clear();
+        for (int j = 0; j < b.length; j++) {
+            sentence.append(b[j]);
+        }
+        sentence.end();
+    }
+
+    //Bytes allocated by this thread so far, -1 if the JVM doesn't say.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
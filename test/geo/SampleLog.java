@@ -0,0 +1,141 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: SampleLog
+ *
+ * desc: SampleLog supplies the NMEA sentences the geo benchmarks and checks are run
+ * over.  These are the lines of the NMEA logs named on the command line (as recorded by
+ * GPSJake's NMEA logging, one sentence per line) or, if none are given, an hour of
+ * generated 1 Hz output (RMC, GGA, GSA, three GSV and VTG per fix) along a walk from
+ * Stoke-on-Trent.
+ */
+
+package geo;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Vector;
+
+public class SampleLog {
+
+    private static final int GENERATED_FIXES = 3600;
+
+    private SampleLog() {
+    }
+
+    public static String[] read(String[] logFiles) throws IOException {
+        Vector lines = new Vector();
+        if (logFiles.length == 0) {
+            generate(lines);
+        }
+        for (int i = 0; i < logFiles.length; i++) {
+            BufferedReader reader = new BufferedReader(new FileReader(logFiles[i]));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.startsWith("$")) {
+                        lines.addElement(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        String[] result = new String[lines.size()];
+        lines.copyInto(result);
+        return result;
+    }
+
+    public static String describe(String[] logFiles) {
+        return logFiles.length == 0 ? "generated log" : logFiles.length + " log file(s)";
+    }
+
+    private static void generate(Vector lines) {
+        double lat = 53.0045;
+        double lng = -2.2695;
+        double course = 45;
+        double hgt = 150;
+        for (int i = 0; i < GENERATED_FIXES; i++) {
+            //About 1.4 m/s on a slowly turning course, climbing and dropping a little.
+            double speed = 1.4 + 0.4 * Math.sin(i / 60.0);
+            course = (course + 0.5 * Math.sin(i / 45.0) + 360) % 360;
+            lat += speed * Math.cos(Math.toRadians(course)) / 111200;
+            lng += speed * Math.sin(Math.toRadians(course)) / 66900;
+            hgt += 0.2 * Math.sin(i / 120.0);
+            int seconds = 10 * 3600 + i;
+            String time = digits(seconds / 3600, 2) + digits(seconds / 60 % 60, 2) + digits(seconds % 60, 2) + ".000";
+            String latField = minutes(lat, 2);
+            String lngField = minutes(lng, 3);
+            String ns = lat < 0 ? "S" : "N";
+            String ew = lng < 0 ? "W" : "E";
+
+            lines.addElement(sentence("GPRMC," + time + ",A," + latField + "," + ns + "," + lngField + "," + ew
+                    + "," + decimal(speed / NMEAParser.KNOTS_TO_MPS, 2) + "," + decimal(course, 2) + ",180613,,,A"));
+            lines.addElement(sentence("GPGGA," + time + "," + latField + "," + ns + "," + lngField + "," + ew
+                    + ",1,08,0.9," + decimal(hgt, 1) + ",M,48.5,M,,"));
+            lines.addElement(sentence("GPGSA,A,3,04,05,09,12,17,24,25,29,,,,,1.6,0.9,1.3"));
+            lines.addElement(sentence("GPGSV,3,1,11,04,40,083,46,05,12,310,38,09,27,264,41,12,65,128,44"));
+            lines.addElement(sentence("GPGSV,3,2,11,17,22,050,36,24,08,190,30,25,52,297,45,29,18,152,39"));
+            lines.addElement(sentence("GPGSV,3,3,11,31,05,022,,32,03,341,,33,30,198,"));
+            lines.addElement(sentence("GPVTG," + decimal(course, 2) + ",T,,M," + decimal(speed / NMEAParser.KNOTS_TO_MPS, 2)
+                    + ",N," + decimal(speed * 3.6, 2) + ",K,A"));
+        }
+    }
+
+    //Adds the $ and the checksum to the characters between them.
+    public static String sentence(String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            checksum ^= body.charAt(i);
+        }
+        String hex = Integer.toHexString(checksum).toUpperCase();
+        return "$" + body + "*" + (hex.length() < 2 ? "0" + hex : hex);
+    }
+
+    //ddmm.mmmm (or dddmm.mmmm) of the absolute value of degrees.
+    private static String minutes(double degrees, int degreeDigits) {
+        //In units of 0.0001 minutes.
+        long units = Math.round(Math.abs(degrees) * 600000);
+        return digits((int) (units / 600000), degreeDigits)
+                + digits((int) (units % 600000 / 10000), 2) + "." + digits((int) (units % 10000), 4);
+    }
+
+    private static String decimal(double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        return (value < 0 ? "-" : "") + scaled / scale + "." + digits((int) (scaled % scale), decimals);
+    }
+
+    private static String digits(int value, int count) {
+        String s = Integer.toString(value);
+        while (s.length() < count) {
+            s = "0" + s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+/*
+ * author: mglynn
+ *
+ * classname: TransformBenchmark
+ *
+ * desc: TransformBenchmark times single point WGS84 <-> OS grid conversions before and
+ * after the constants were precomputed: LegacyCoordSys (the old CoordSys) against
+ * OSGBTransform.toOSGridRefExact / toWGS84 with no lookup grid or grid shift.  It gives
+ * the time for each conversion and the largest difference between the two.
+ *
+ * Usage: TransformBenchmark [number of points]
+ */
+
+package geo;
+
+import java.util.Random;
+
+public class TransformBenchmark {
+
+    private static final int DEFAULT_POINTS = 10000;
+    private static final int WARM_UP_PASSES = 20;
+    private static final int PASSES = 50;
+
+    private static final int LEGACY_TO_GRID = 0;
+    private static final int TO_GRID = 1;
+    private static final int LEGACY_TO_WGS84 = 2;
+    private static final int TO_WGS84 = 3;
+    private static final String[] NAMES = {
+        "lat / long to grid (old)", "lat / long to grid", "grid to lat / long (old)", "grid to lat / long"
+    };
+
+    private static double[] lat;
+    private static double[] lng;
+    private static double[] eastings;
+    private static double[] northings;
+
+    private static LegacyCoordSys legacy = new LegacyCoordSys();
+    private static OSGBTransform transform = new OSGBTransform();
+    private static OSGridRef osGridRef = new OSGridRef();
+    private static LatLong latLong = new LatLong();
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_POINTS;
+        lat = new double[points];
+        lng = new double[points];
+        eastings = new double[points];
+        northings = new double[points];
+
+        //Random points over Great Britain.
+        Random random = new Random(1);
+        for (int i = 0; i < points; i++) {
+            lat[i] = 50 + random.nextDouble() * 8.5;
+            lng[i] = -6 + random.nextDouble() * 7.5;
+            transform.toOSGridRefExact(lat[i], lng[i], osGridRef);
+            eastings[i] = osGridRef.Eastings;
+            northings[i] = osGridRef.Northings;
+        }
+        System.out.println(points + " points");
+
+        long[] times = new long[NAMES.length];
+        for (int test = 0; test < NAMES.length; test++) {
+            for (int i = 0; i < WARM_UP_PASSES; i++) {
+                pass(test);
+            }
+            long start = System.nanoTime();
+            double sum = 0;
+            for (int i = 0; i < PASSES; i++) {
+                sum += pass(test);
+            }
+            times[test] = (System.nanoTime() - start) / ((long) PASSES * points);
+            System.out.println(NAMES[test] + ": " + times[test] + " ns/conversion (" + (long) sum + ")");
+        }
+        System.out.println("lat / long to grid " + times[LEGACY_TO_GRID] * 10 / times[TO_GRID] / 10.0
+                + " times faster, grid to lat / long " + times[LEGACY_TO_WGS84] * 10 / times[TO_WGS84] / 10.0
+                + " times faster");
+
+        double maxGrid = 0;
+        double maxDegrees = 0;
+        for (int i = 0; i < points; i++) {
+            OSGridRef old = legacy.getOSGridRef(lat[i], lng[i]);
+            maxGrid = Math.max(maxGrid, Math.max(Math.abs(old.Eastings - eastings[i]),
+                    Math.abs(old.Northings - northings[i])));
+            LatLong oldLatLong = legacy.getWGS84LatLong(eastings[i], northings[i]);
+            transform.toWGS84(eastings[i], northings[i], latLong);
+            maxDegrees = Math.max(maxDegrees, Math.max(Math.abs(oldLatLong.Latitude - latLong.Latitude),
+                    Math.abs(oldLatLong.Longitude - latLong.Longitude)));
+        }
+        System.out.println("max difference " + maxGrid + " m to grid, " + maxDegrees
+                + " degrees to lat / long");
+    }
+
+    //Returns a total of the results so the work can't be optimised away.
+    private static double pass(int test) {
+        double sum = 0;
+        for (int i = 0; i < lat.length; i++) {
+            switch (test) {
+                case LEGACY_TO_GRID:
+                    sum += legacy.getOSGridRef(lat[i], lng[i]).Eastings;
+                    break;
+                case TO_GRID:
+                    sum += transform.toOSGridRefExact(lat[i], lng[i], osGridRef).Eastings;
+                    break;
+                case LEGACY_TO_WGS84:
+                    sum += legacy.getWGS84LatLong(eastings[i], northings[i]).Latitude;
+                    break;
+                default:
+                    sum += transform.toWGS84(eastings[i], northings[i], latLong).Latitude;
+            }
+        }
+        return sum;
+    }
+}
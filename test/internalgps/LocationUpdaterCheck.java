@@ -0,0 +1,166 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: LocationUpdaterCheck
+ *
+ * desc: LocationUpdaterCheck feeds StubLocationData through LocationUpdater into a
+ * GPSInfo and checks the published fix - coordinates, unknown (NaN) speed and course,
+ * the timestamp to time and date conversion and where the height comes from.
+ *
+ * It runs on a desktop JVM with no MIDlet or location API and is not part of the
+ * MIDlet.  Compile it with src/ against the CLDC/MIDP stubs and run:
+ *   java -cp <classes> internalgps.LocationUpdaterCheck
+ * The exit code is the number of failed checks.
+ */
+
+package internalgps;
+
+import geo.GPSFix;
+import geo.GPSInfo;
+
+public class LocationUpdaterCheck {
+
+    private static int failures;
+
+    public static void main(String[] args) {
+        checkCoordinates();
+        checkSpeedAndCourse();
+        checkTimeAndDate();
+        checkHeight();
+        checkNoFix();
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) failed");
+        System.exit(failures);
+    }
+
+    private static void checkCoordinates() {
+        GPSInfo gpsInfo = new GPSInfo(null);
+        LocationUpdater updater = new LocationUpdater(gpsInfo);
+        updater.update(new StubLocationData(true, 53.004490, -2.269457, Float.NaN,
+                1.5f, 90f, 0, null), null);
+        GPSFix fix = gpsInfo.getCurrentFix();
+        check("fix", fix.hasFix());
+        check("latitude", fix.getLatitude() == 53.004490);
+        check("longitude", fix.getLongitude() == -2.269457);
+        //SJ 8201 4527.
+        check("eastings", Math.abs(fix.getOSGridRef().Eastings - 382011) < 5);
+        check("northings", Math.abs(fix.getOSGridRef().Northings - 345275) < 5);
+
+        updater.update(new StubLocationData(true, 51.5, -0.1, Float.NaN, 1.5f, 90f, 0, null), null);
+        check("coordinates replaced", gpsInfo.getCurrentFix().getLatitude() == 51.5
+                && gpsInfo.getCurrentFix().getLongitude() == -0.1);
+    }
+
+    private static void checkSpeedAndCourse() {
+        GPSInfo gpsInfo = new GPSInfo(null);
+        LocationUpdater updater = new LocationUpdater(gpsInfo);
+        updater.update(new StubLocationData(true, 53, -2, Float.NaN, 1.5f, 90f, 0, null), null);
+        GPSFix fix = gpsInfo.getCurrentFix();
+        check("speed", fix.getSpeed() == 1.5);
+        check("course", fix.getHeading() == 90);
+
+        updater.update(new StubLocationData(true, 53, -2, Float.NaN, Float.NaN, Float.NaN, 0, null), null);
+        fix = gpsInfo.getCurrentFix();
+        check("unknown speed", fix.getSpeed() == GPSInfo.UNDEFINED);
+        check("unknown course", fix.getHeading() == GPSInfo.UNDEFINED);
+
+        updater.update(new StubLocationData(true, 53, -2, Float.NaN, 2f, Float.NaN, 0, null), null);
+        fix = gpsInfo.getCurrentFix();
+        check("speed with unknown course", fix.getSpeed() == 2 && fix.getHeading() == GPSInfo.UNDEFINED);
+    }
+
+    private static void checkTimeAndDate() {
+        checkTimeAndDate(1700000000000L, "22:13:20", "14/11/23");
+        //Leap day and the days either side of a year end.
+        checkTimeAndDate(951782400000L, "00:00:00", "29/02/00");
+        checkTimeAndDate(1483228799000L, "23:59:59", "31/12/16");
+        checkTimeAndDate(1483228800000L, "00:00:00", "01/01/17");
+        //2100 is not a leap year.
+        checkTimeAndDate(4107585600000L, "12:00:00", "01/03/00");
+        checkTimeAndDate(1L, "00:00:00", "01/01/70");
+
+        //A timestamp of 0 means not known so the last time is kept.
+        GPSInfo gpsInfo = new GPSInfo(null);
+        LocationUpdater updater = new LocationUpdater(gpsInfo);
+        updater.update(new StubLocationData(true, 53, -2, Float.NaN, 1f, 0f, 1700000000000L, null), null);
+        updater.update(new StubLocationData(true, 53, -2, Float.NaN, 1f, 0f, 0, null), null);
+        check("no timestamp keeps time", "22:13:20".equals(gpsInfo.getTimeHHMMSS()));
+    }
+
+    private static void checkTimeAndDate(long timestamp, String time, String date) {
+        GPSInfo gpsInfo = new GPSInfo(null);
+        new LocationUpdater(gpsInfo).update(new StubLocationData(true, 53, -2, Float.NaN,
+                1f, 0f, timestamp, null), null);
+        check("time " + timestamp, time.equals(gpsInfo.getTimeHHMMSS()));
+        check("date " + timestamp, date.equals(gpsInfo.getDateDDMMYY()));
+    }
+
+    private static void checkHeight() {
+        //No geoid model file so an ellipsoid height can't be corrected.
+        GPSInfo gpsInfo = new GPSInfo(null);
+        LocationUpdater updater = new LocationUpdater(gpsInfo);
+        updater.update(new StubLocationData(true, 53, -2, 315.9f, 1f, 0f, 0, null), null);
+        check("ellipsoid height unknown", !gpsInfo.getCurrentFix().hasHeight());
+
+        //With NMEA logging off the NMEA text isn't read.
+        StubLocationData location = new StubLocationData(true, 53, -2, 315.9f, 1f, 0f, 0,
+                "$GPGGA,140859.986,5300.2694,N,00216.1674,W,1,07,1.0,267.4,M,48.5,M,0.0,0000*60\r\n");
+        updater.update(location, null);
+        check("NMEA not read", location.getNMEAReads() == 0);
+        check("ellipsoid height unknown without NMEA", !gpsInfo.getCurrentFix().hasHeight());
+
+        //With logging on the receiver's GGA (read for the log) gives the height above sea level.
+        updateLogging(updater, new StubLocationData(true, 53, -2, 315.9f, 1f, 0f, 0,
+                "$GPGSA,A,3,04,05,,09,12,,,24,,,,,2.5,1.3,2.1*39\r\n"
+                + "$GPGGA,140859.986,5300.2694,N,00216.1674,W,1,07,1.0,267.4,M,48.5,M,0.0,0000*60\r\n"));
+        GPSFix fix = gpsInfo.getCurrentFix();
+        check("GGA height", fix.hasHeight() && fix.getHeight() == 267.4);
+        check("GGA geoid height", fix.getGeoidHeight() == 48.5);
+        check("GGA satellites", fix.getNumSats() == 7);
+
+        //GGA without a fix is ignored.
+        updateLogging(updater, new StubLocationData(true, 53, -2, 315.9f, 1f, 0f, 0,
+                "$GPGGA,140900.986,,,,,0,00,,,M,,M,,*60"));
+        check("GGA with no fix", !gpsInfo.getCurrentFix().hasHeight());
+    }
+
+    private static void checkNoFix() {
+        GPSInfo gpsInfo = new GPSInfo(null);
+        LocationUpdater updater = new LocationUpdater(gpsInfo);
+        updater.update(new StubLocationData(true, 53, -2, Float.NaN, 1f, 0f, 0, null), null);
+        updater.update(new StubLocationData(false, 0, 0, Float.NaN, Float.NaN, Float.NaN, 0, null), null);
+        check("no fix", !gpsInfo.getCurrentFix().hasFix());
+    }
+
+    //As InternalGPSListener with NMEA logging on - the NMEA text is read for the log and
+    //passed on.
+    private static void updateLogging(LocationUpdater updater, LocationData location) {
+        updater.update(location, location.getNMEA());
+    }
+
+    private static void check(String name, boolean ok) {
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + name);
+        }
+    }
+}
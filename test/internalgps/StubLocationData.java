@@ -0,0 +1,93 @@
+/*
+    GPSJake - a J2ME app which allows a user to display their position
+	on an Ordnance Survey map image and provides various navigation functionality.
+    Copyright (C) 2013  Mike Glynn www.gt140.co.uk
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+	
+*/
+
+/*
+ * author: mglynn
+ *
+ * classname: StubLocationData
+ *
+ * desc: StubLocationData is a LocationData with fixed values so LocationUpdater can be
+ * run without a location API (see LocationUpdaterCheck).
+ */
+
+package internalgps;
+
+public class StubLocationData implements LocationData {
+
+    private boolean valid;
+    private double lat;
+    private double lng;
+    private float altitude;
+    private float speed;
+    private float course;
+    private long timestamp;
+    private String nmea;
+    private int nmeaReads;
+
+    public StubLocationData(boolean valid, double lat, double lng, float altitude,
+            float speed, float course, long timestamp, String nmea) {
+        this.valid = valid;
+        this.lat = lat;
+        this.lng = lng;
+        this.altitude = altitude;
+        this.speed = speed;
+        this.course = course;
+        this.timestamp = timestamp;
+        this.nmea = nmea;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public double getLatitude() {
+        return lat;
+    }
+
+    public double getLongitude() {
+        return lng;
+    }
+
+    public float getAltitude() {
+        return altitude;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public float getCourse() {
+        return course;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getNMEA() {
+        nmeaReads++;
+        return nmea;
+    }
+
+    //Number of times getNMEA has been called.
+    public int getNMEAReads() {
+        return nmeaReads;
+    }
+}